@@ -188,7 +188,8 @@ public class Settings
 		PREVIEW_TEMPORAL_SUBSAMPLE("preview.temporal.subsample"),
 		PREVIEW_SPATIAL_START("preview.spatial.start"),
 		JPIP_BATCH_SIZE("jpip.batchsize"), STARTUP_LICENSE_SHOWN("startup.license"),
-		CACHE_SIZE("cache.size");
+		CACHE_SIZE("cache.size"),
+		PLAYBACK_PREFETCH_FRAMES("playback.prefetch.frames");
 
         String key;
         private IntKey(String _key)
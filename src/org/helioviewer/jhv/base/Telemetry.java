@@ -10,12 +10,18 @@ import java.util.UUID;
 import javax.swing.SwingUtilities;
 
 import org.helioviewer.jhv.base.Settings.StringKey;
+import org.helioviewer.jhv.base.downloadmanager.DownloadManager;
+import org.helioviewer.jhv.base.downloadmanager.JPIPRequest;
+import org.helioviewer.jhv.gui.MoviePanel;
 import org.helioviewer.jhv.gui.statusLabels.FramerateStatusPanel;
 import org.helioviewer.jhv.layers.ImageLayer;
 import org.helioviewer.jhv.layers.Layer;
 import org.helioviewer.jhv.layers.Layers;
+import org.helioviewer.jhv.layers.Movie;
 import org.helioviewer.jhv.layers.PluginLayer;
 import org.helioviewer.jhv.viewmodel.TimeLine;
+import org.helioviewer.jhv.viewmodel.jp2view.io.jpip.JPIPSession;
+import org.helioviewer.jhv.viewmodel.jp2view.newjpx.KakaduLayer;
 
 import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GLContext;
@@ -90,6 +96,13 @@ public class Telemetry
 									Telemetry.trackMetric("FPS Relative", FramerateStatusPanel.getFPS()/(1000f/TimeLine.SINGLETON.getMillisecondsPerFrame()));
 								}
 								
+								Movie.trackDecodeStatistics();
+								KakaduLayer.trackPrefetchStatistics();
+								MoviePanel.trackPaintStatistics();
+								DownloadManager.trackStatistics();
+								JPIPSession.trackStatistics();
+								JPIPRequest.trackStatistics();
+								
 								Telemetry.trackMetric("Layers", layers.size());
 								for(Layer l:layers)
 								{
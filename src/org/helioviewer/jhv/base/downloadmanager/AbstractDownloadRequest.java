@@ -4,6 +4,9 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nullable;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
 public abstract class AbstractDownloadRequest
 {
 	public static final int INFINITE_TIMEOUT = -1;
@@ -15,6 +18,12 @@ public abstract class AbstractDownloadRequest
 	protected final String url;
 	protected volatile int totalLength = -1;
 	protected volatile int receivedLength = 0;
+	protected volatile long startedMS;
+	
+	//handle of the latest scheduling of this request, used for cancellation
+	volatile @Nullable DownloadManager.Ticket ticket;
+	
+	private final SettableFuture<Void> completion = SettableFuture.create();
 	
 	public final DownloadPriority priority;
 
@@ -35,6 +44,45 @@ public abstract class AbstractDownloadRequest
 	{
 		return finished;
 	}
+	
+	/**
+	 * Returns <code>true</code> if the request has finished without an error.
+	 */
+	public boolean isSuccessful()
+	{
+		return finished && !cancelled && exception == null;
+	}
+	
+	/**
+	 * Returns when a download thread last started to execute this request, so
+	 * the time spent waiting in the queue can be told apart from the time the
+	 * server needed.
+	 */
+	public long getStartedMS()
+	{
+		return startedMS;
+	}
+	
+	/**
+	 * Completes once the request has finished, failed for good or was removed
+	 * from the DownloadManager. Check for errors with checkException().
+	 */
+	public ListenableFuture<Void> getCompletion()
+	{
+		return completion;
+	}
+	
+	void setFinished()
+	{
+		finished = true;
+		completion.set(null);
+	}
+	
+	void setCancelled()
+	{
+		cancelled = true;
+		completion.set(null);
+	}
 		
 	public boolean justTriedShouldTryAgain()
 	{
@@ -47,6 +95,7 @@ public abstract class AbstractDownloadRequest
 	{
 		exception = _exception;
 		finished = true;
+		completion.set(null);
 	}
 	
 	@Override
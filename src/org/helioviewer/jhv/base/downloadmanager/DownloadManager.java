@@ -1,53 +1,90 @@
 package org.helioviewer.jhv.base.downloadmanager;
 
 import java.lang.ref.WeakReference;
-import java.util.Comparator;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.concurrent.PriorityBlockingQueue;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
 
 import javax.annotation.Nullable;
 
 import org.helioviewer.jhv.base.ShutdownManager;
 import org.helioviewer.jhv.base.Telemetry;
 
+/**
+ * Runs download requests on a fixed set of threads. Requests are started in
+ * order of priority, FIFO within the same priority, while every host gets
+ * only a limited number of concurrent downloads. Requests which have been
+ * waiting for a long time are treated as if they had a higher priority, so
+ * low priority requests can't starve.
+ */
 public class DownloadManager
 {
-	private static class Tuple
+	static class Ticket
 	{
 		@Nullable Throwable preparedNotCancelledException;
-		WeakReference<AbstractDownloadRequest> request;
+		final WeakReference<AbstractDownloadRequest> request;
+		final HostStatistics host;
+		final int priority;
+		final long enqueuedAt=System.currentTimeMillis();
+		boolean started;
+		volatile boolean cancelled;
+		volatile @Nullable Thread thread;
 		
-		Tuple(AbstractDownloadRequest _adr)
+		Ticket(AbstractDownloadRequest _adr, HostStatistics _host)
 		{
 			request = new WeakReference<>(_adr);
+			priority = _adr.priority.ordinal();
+			host = _host;
+		}
+		
+		int effectivePriority(long _now)
+		{
+			return priority + (int)Math.min((_now-enqueuedAt)/AGING_MS, PRIORITIES);
 		}
 	}
 	
-	
-	private static PriorityBlockingQueue<Tuple> taskDeque = new PriorityBlockingQueue<>(100, new Comparator<Tuple>()
+	private static class HostStatistics
 	{
-		@Override
-		public int compare(@Nullable Tuple o1, @Nullable Tuple o2)
+		final String name;
+		int active;
+		int completed;
+		long bytes;
+		
+		HostStatistics(String _name)
 		{
-			if (o1 == null || o2 == null)
-				return 0;
-
-			AbstractDownloadRequest oo1 = o1.request.get();
-			AbstractDownloadRequest oo2 = o2.request.get();
-			if (oo1 == null || oo2 == null)
-				return 0;
-
-			return oo2.priority.ordinal() - oo1.priority.ordinal();
+			name=_name;
 		}
-	});
-
-	private static final int CONCURRENT_DOWNLOADS = 4;
-	private static AtomicInteger activeDownloadCount = new AtomicInteger();
-	private static HashMap<AbstractDownloadRequest, Thread> activeDownloads=new HashMap<>();
-
+	}
+	
+	private static final int CONCURRENT_DOWNLOADS = 8;
+	private static final int CONCURRENT_DOWNLOADS_PER_HOST = 4;
+	
+	//every AGING_MS of waiting raises the priority of a request by one level
+	private static final long AGING_MS = 5000;
+	
+	private static final int PRIORITIES = DownloadPriority.values().length;
+	
+	private static final Object lock=new Object();
+	
+	//one FIFO queue per priority, all guarded by lock
+	private static final List<ArrayDeque<Ticket>> queues = new ArrayList<>(PRIORITIES);
+	private static final HashMap<String,HostStatistics> hosts=new HashMap<>();
+	private static int queuedCount;
+	private static int activeCount;
+	
+	private static int startedSinceLastStatistics;
+	private static long waitedMSSinceLastStatistics;
+	private static long lastStatisticsAt=System.currentTimeMillis();
+	
 	static
 	{
+		for (int i = 0; i < PRIORITIES; i++)
+			queues.add(new ArrayDeque<>());
+		
 		for (int i = 0; i < CONCURRENT_DOWNLOADS; i++)
 		{
 			Thread thread = new Thread(() ->
@@ -57,44 +94,27 @@ public class DownloadManager
 					{
 						try
 						{
-							Tuple t = taskDeque.take();
+							Ticket t = take();
 							AbstractDownloadRequest request = t.request.get();
-							if (request != null)
-								try
+							try
+							{
+								if (request != null)
+									execute(t, request);
+								else if(t.preparedNotCancelledException!=null)
+									Telemetry.trackException(t.preparedNotCancelledException);
+							}
+							finally
+							{
+								synchronized(lock)
 								{
-									synchronized(activeDownloads)
-									{
-										activeDownloads.put(request, Thread.currentThread());
-									}
-									
-									activeDownloadCount.incrementAndGet();
-									request.execute();
-									request.finished=true;
+									t.host.active--;
+									t.host.completed++;
+									if(request!=null)
+										t.host.bytes+=Math.max(0, request.receivedLength);
+									activeCount--;
+									lock.notifyAll();
 								}
-								catch (Throwable e)
-								{
-									if(!request.cancelled)
-									{
-										System.err.println(request.url);
-										e.printStackTrace();
-									
-										if (request.justTriedShouldTryAgain())
-											addRequest(request);
-										else
-											request.setError(e);
-									}
-								}
-								finally
-								{
-									activeDownloadCount.decrementAndGet();
-									
-									synchronized(activeDownloads)
-									{
-										activeDownloads.remove(request);
-									}
-								}
-							else if(t.preparedNotCancelledException!=null)
-								Telemetry.trackException(t.preparedNotCancelledException);
+							}
 						}
 						catch (InterruptedException e)
 						{
@@ -109,62 +129,213 @@ public class DownloadManager
 			ShutdownManager.addShutdownHook(ShutdownManager.ShutdownPhase.STOP_WORK_1, () -> thread.interrupt());
 		}
 	}
-
-	public static void addRequest(AbstractDownloadRequest _request)
+	
+	private static void execute(Ticket _t, AbstractDownloadRequest _request)
 	{
-		if(_request==null)
-			throw new IllegalArgumentException("_request==null");
-		
-		Tuple t=new Tuple(_request);
+		//thread is only set and cleared under lock, so remove() can't interrupt the next download
+		synchronized(lock)
+		{
+			if(_t.cancelled)
+				return;
+			_t.thread=Thread.currentThread();
+		}
 		
 		try
 		{
-			throw new RuntimeException("Request for was not canceled properly: "+_request.url);
+			
+			_request.startedMS=System.currentTimeMillis();
+			_request.execute();
+			_request.setFinished();
+		}
+		catch (Throwable e)
+		{
+			if(!_request.cancelled)
+			{
+				System.err.println(_request.url);
+				e.printStackTrace();
+				
+				if (_request.justTriedShouldTryAgain())
+					addRequest(_request);
+				else
+					_request.setError(e);
+			}
 		}
-		catch(RuntimeException _t)
+		finally
 		{
-			t.preparedNotCancelledException=_t;
+			synchronized(lock)
+			{
+				_t.thread=null;
+				
+				//don't leak the interrupt of a cancelled download into the next one
+				Thread.interrupted();
+			}
 		}
-		
-		taskDeque.put(t);
 	}
-
-	/*public static void debug()
+	
+	/**
+	 * Waits for the next request that may be started, and marks its host as busy.
+	 */
+	private static Ticket take() throws InterruptedException
 	{
-		System.out.println("--------------------------------------------");
-		synchronized (activeDownloads)
+		synchronized(lock)
 		{
-			for(Entry<AbstractDownloadRequest, Thread> r:activeDownloads.entrySet())
-				System.out.println("* "+r.getKey().url+"      (interrupted: "+r.getValue().isInterrupted()+")");
+			for(;;)
+			{
+				long now=System.currentTimeMillis();
+				Ticket best=null;
+				int bestPriority=-1;
+				for(int p=PRIORITIES-1;p>=0;p--)
+				{
+					Iterator<Ticket> it=queues.get(p).iterator();
+					while(it.hasNext())
+					{
+						Ticket t=it.next();
+						if(t.cancelled)
+						{
+							it.remove();
+							continue;
+						}
+						
+						//tickets are FIFO, so the first eligible one has waited the longest
+						if(t.host.active<CONCURRENT_DOWNLOADS_PER_HOST)
+						{
+							int effectivePriority=t.effectivePriority(now);
+							if(effectivePriority>bestPriority)
+							{
+								best=t;
+								bestPriority=effectivePriority;
+							}
+							break;
+						}
+					}
+				}
+				
+				if(best!=null)
+				{
+					queues.get(best.priority).remove(best);
+					best.started=true;
+					queuedCount--;
+					activeCount++;
+					best.host.active++;
+					startedSinceLastStatistics++;
+					waitedMSSinceLastStatistics+=now-best.enqueuedAt;
+					return best;
+				}
+				
+				lock.wait();
+			}
+		}
+	}
+	
+	public static void addRequest(AbstractDownloadRequest _request)
+	{
+		if(_request==null)
+			throw new IllegalArgumentException("_request==null");
+		
+		synchronized(lock)
+		{
+			Ticket t=new Ticket(_request, getHost(_request.url));
+			
+			try
+			{
+				throw new RuntimeException("Request for was not canceled properly: "+_request.url);
+			}
+			catch(RuntimeException _t)
+			{
+				t.preparedNotCancelledException=_t;
+			}
 			
-			for (Tuple td : taskDeque)
-				System.out.println(td.request.get().url);
+			_request.ticket=t;
+			queues.get(t.priority).add(t);
+			queuedCount++;
+			lock.notify();
+		}
+	}
+	
+	private static HostStatistics getHost(String _url)
+	{
+		String name;
+		try
+		{
+			name=URI.create(_url).getHost();
+		}
+		catch(IllegalArgumentException _e)
+		{
+			name=null;
 		}
-		System.out.println("--------------------------------------------");
-	}*/
+		
+		if(name==null)
+			name="";
+		
+		HostStatistics host=hosts.get(name);
+		if(host==null)
+			hosts.put(name, host=new HostStatistics(name));
+		return host;
+	}
 	
 	public static void remove(@Nullable AbstractDownloadRequest request)
 	{
 		if(request==null)
 			return;
 		
-		synchronized (activeDownloads)
+		request.interrupt();
+		request.setCancelled();
+		
+		Ticket t=request.ticket;
+		if(t==null)
+			return;
+		
+		//the ticket will be dropped when a download thread comes across it
+		synchronized(lock)
 		{
-			request.interrupt();
-			
-			Thread t=activeDownloads.get(request);
-			if(t!=null)
-				t.interrupt();
+			if(!t.cancelled && !t.started)
+				queuedCount--;
+			t.cancelled=true;
 			
-			for (Tuple td : taskDeque)
-				if(td.request.get()==request)
-					if(taskDeque.remove(td))
-						return;
+			Thread thread=t.thread;
+			if(thread!=null)
+				thread.interrupt();
 		}
 	}
-
-	public synchronized static boolean areDownloadsActive()
+	
+	public static boolean areDownloadsActive()
 	{
-		return activeDownloadCount.get()>0 || !taskDeque.isEmpty();
+		synchronized(lock)
+		{
+			return activeCount>0 || queuedCount>0;
+		}
+	}
+	
+	/**
+	 * Reports queue depth, waiting time and per-host throughput since the last call.
+	 */
+	public static void trackStatistics()
+	{
+		synchronized(lock)
+		{
+			long now=System.currentTimeMillis();
+			double seconds=Math.max(1, now-lastStatisticsAt)/1000d;
+			
+			Telemetry.trackMetric("Download queue depth", queuedCount);
+			Telemetry.trackMetric("Downloads active", activeCount);
+			if(startedSinceLastStatistics>0)
+				Telemetry.trackMetric("Download wait ms", waitedMSSinceLastStatistics/(double)startedSinceLastStatistics);
+			
+			for(Entry<String,HostStatistics> e:hosts.entrySet())
+			{
+				HostStatistics h=e.getValue();
+				if(h.completed==0)
+					continue;
+				
+				Telemetry.trackMetric("Downloads per minute from "+h.name, h.completed*60/seconds);
+				Telemetry.trackMetric("Download KB/s from "+h.name, h.bytes/1024d/seconds);
+				h.completed=0;
+				h.bytes=0;
+			}
+			
+			startedSinceLastStatistics=0;
+			waitedMSSinceLastStatistics=0;
+			lastStatisticsAt=now;
+		}
 	}
 }
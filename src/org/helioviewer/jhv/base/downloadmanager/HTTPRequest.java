@@ -6,6 +6,7 @@ import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CancellationException;
 import java.util.zip.GZIPInputStream;
 
 import javax.annotation.Nullable;
@@ -35,7 +36,6 @@ public class HTTPRequest extends AbstractDownloadRequest
 
 	
 	private volatile HttpURLConnection httpURLConnection;
-	private volatile boolean downloadComplete;
 	
 	@SuppressWarnings("resource")
 	public void execute() throws Throwable
@@ -100,7 +100,6 @@ public class HTTPRequest extends AbstractDownloadRequest
 		}
 		finally
 		{
-			downloadComplete=true;
 			try
 			{
 				httpURLConnection.disconnect();
@@ -118,13 +117,16 @@ public class HTTPRequest extends AbstractDownloadRequest
 	
 	public ByteSource getData() throws Throwable
 	{
-		//TODO: proper synchronization
-		while(!downloadComplete)
-			Thread.sleep(20);
+		//subclasses access the data from within execute(), before the request is finished
+		if(rawData==null)
+			getCompletion().get();
 		
 		if (exception != null)
 			throw exception;
 		
+		if(rawData==null && cancelled)
+			throw new CancellationException(url);
+		
 		return rawData;
 	}
 
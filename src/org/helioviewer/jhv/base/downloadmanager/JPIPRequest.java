@@ -1,18 +1,23 @@
 package org.helioviewer.jhv.base.downloadmanager;
 
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 
 import org.helioviewer.jhv.base.Telemetry;
 import org.helioviewer.jhv.layers.MovieKduCacheBacked;
-import org.helioviewer.jhv.viewmodel.jp2view.io.jpip.JPIPDatabinClass;
 import org.helioviewer.jhv.viewmodel.jp2view.io.jpip.JPIPQuery;
 import org.helioviewer.jhv.viewmodel.jp2view.io.jpip.JPIPResponse;
+import org.helioviewer.jhv.viewmodel.jp2view.io.jpip.JPIPSession;
 import org.helioviewer.jhv.viewmodel.jp2view.io.jpip.JPIPSocket;
 import org.helioviewer.jhv.viewmodel.metadata.UnsuitableMetaDataException;
 
@@ -21,14 +26,23 @@ import kdu_jni.Kdu_global;
 
 public class JPIPRequest extends AbstractDownloadRequest
 {
-	private final JPIPQuery query;
 	public final MovieKduCacheBacked m;
 	public final int qualityLayers;
 	public final int width;
 	public final int height;
 	
+	//requested window in the coordinates of the width x height image, or null for the whole image
+	public final @Nullable Rectangle region;
+	
+	//fraction of the region that is actually shown, the rest is margin
+	private final double visibleFraction;
+	
 	public boolean imageComplete=false;
 	
+	private static final AtomicLong regionBytes = new AtomicLong();
+	private static final AtomicLong regionBytesDisplayed = new AtomicLong();
+	private static final AtomicLong fullImageBytes = new AtomicLong();
+	
 	public JPIPRequest(DownloadPriority priority, int _qualityLayers, int _width, int _height, MovieKduCacheBacked _m)
 	{
 		super(_m.jpipURI.toString(), priority);
@@ -37,120 +51,217 @@ public class JPIPRequest extends AbstractDownloadRequest
 		qualityLayers=_qualityLayers;
 		width=_width;
 		height=_height;
+		region=null;
+		visibleFraction=0;
+	}
+	
+	/**
+	 * Requests only a region of interest of all frames, e.g. the part of the
+	 * image visible after zooming in.
+	 *
+	 * @param _region the window to request, in the coordinates of the <code>_width</code> x <code>_height</code> image
+	 * @param _visibleFraction how much of the window is shown, used for statistics only
+	 */
+	public JPIPRequest(DownloadPriority priority, int _qualityLayers, int _width, int _height, Rectangle _region, double _visibleFraction, MovieKduCacheBacked _m)
+	{
+		super(_m.jpipURI.toString(), priority);
 		
-		query = new JPIPQuery();
-		query.setField("type", "jpp-stream");
-		query.setField("context", "jpxl<0-" + (_m.getFrameCount()-1) + ">");
-		query.setField("layers", String.valueOf(_qualityLayers));
-		query.setField("fsiz", _width + "," + _height + ",closest");
-		query.setField("rsiz", _width + "," + _height);
-		query.setField("roff", "0,0");
+		m=_m;
+		qualityLayers=_qualityLayers;
+		width=_width;
+		height=_height;
+		region=_region;
+		visibleFraction=_visibleFraction;
+	}
+	
+	/**
+	 * Returns the requested area relative to the whole image.
+	 */
+	private Rectangle2D getRelativeArea()
+	{
+		Rectangle r=region;
+		if(r==null)
+			return new Rectangle2D.Double(0, 0, 1, 1);
 		
-		//hack: esa-jpip currently only supports stateful requests ?!?
-		query.setField("cnew", "http");
+		return new Rectangle2D.Double(r.x/(double)width, r.y/(double)height, r.width/(double)width, r.height/(double)height);
+	}
+	
+	private JPIPQuery createQuery()
+	{
+		JPIPQuery query = new JPIPQuery();
+		query.setField("type", "jpp-stream");
+		query.setField("context", "jpxl<0-" + (m.getFrameCount()-1) + ">");
+		query.setField("layers", String.valueOf(qualityLayers));
+		query.setField("fsiz", width + "," + height + ",closest");
+		Rectangle r=region;
+		if(r==null)
+		{
+			query.setField("rsiz", width + "," + height);
+			query.setField("roff", "0,0");
+		}
+		else
+		{
+			query.setField("rsiz", r.width + "," + r.height);
+			query.setField("roff", r.x + "," + r.y);
+		}
 		
 		//hack: esa-jpip currently only supports requests WITH len
 		query.setField("len", String.valueOf(Integer.MAX_VALUE));
+		return query;
+	}
+	
+	/**
+	 * Describes the databins in the cache of the movie. Consecutive codestreams
+	 * containing the same databin share a single codestream range qualifier.
+	 */
+	private String createCacheModel() throws KduException
+	{
+		//codestreams containing each databin, in ascending order
+		LinkedHashMap<String, ArrayList<Long>> codestreamsByElement = new LinkedHashMap<>();
+		LinkedHashMap<Long, ArrayList<String>> cacheContents = m.getCachedDatabins();
+		ArrayList<Long> codestreamIds = new ArrayList<>(cacheContents.keySet());
+		Collections.sort(codestreamIds);
+		for(long codestreamId:codestreamIds)
+			for(String element:cacheContents.get(codestreamId))
+			{
+				ArrayList<Long> ids = codestreamsByElement.get(element);
+				if(ids==null)
+					codestreamsByElement.put(element, ids=new ArrayList<>());
+				ids.add(codestreamId);
+			}
 		
-		try
+		LinkedHashMap<String, StringBuilder> elementsByRange = new LinkedHashMap<>();
+		for(Entry<String, ArrayList<Long>> e:codestreamsByElement.entrySet())
 		{
-			LinkedHashMap<Long, ArrayList<String>> cacheContents = m.getCachedDatabins();
-			
-			if(!cacheContents.isEmpty())
+			ArrayList<Long> ids = e.getValue();
+			int i=0;
+			while(i<ids.size())
 			{
-				StringBuilder sbModel = new StringBuilder();
-				long prevStartId = -1;
-				long prevMaxId = -1;
-				
-				while(!cacheContents.isEmpty())
-				{
-					long maxId=cacheContents.keySet().stream().mapToLong(l -> l.longValue()).max().getAsLong();
-					String element = cacheContents.get(maxId).get(0);
-					
-					long startId=maxId;
-					while(cacheContents.get(startId-1)!=null && cacheContents.get(startId-1).contains(element) && startId>0)
-						startId--;
-					
-					if(startId!=prevStartId || maxId!=prevMaxId)
-					{
-						sbModel.append(",[");
-						sbModel.append(startId);
-						if(startId!=maxId)
-							sbModel.append("-"+maxId);
-						sbModel.append("]");
-						
-						prevStartId=startId;
-						prevMaxId=maxId;
-					}
-					
-					sbModel.append(","+element);
-					
-					for(long id=startId;id<=maxId;id++)
-					{
-						cacheContents.get(id).remove(element);
-						if(cacheContents.get(id).isEmpty())
-							cacheContents.remove(id);
-					}
-				}
+				long startId=ids.get(i);
+				long endId=startId;
+				while(++i<ids.size() && ids.get(i)==endId+1)
+					endId++;
 				
-				query.setField("model", sbModel.substring(1));
+				String range = startId==endId ? "["+startId+"]" : "["+startId+"-"+endId+"]";
+				StringBuilder elements = elementsByRange.get(range);
+				if(elements==null)
+					elementsByRange.put(range, elements=new StringBuilder());
+				elements.append(',').append(e.getKey());
 			}
 		}
-		catch (KduException _e)
-		{
-			Telemetry.trackException(_e);
-		}
+		
+		StringBuilder sbModel = new StringBuilder();
+		for(Entry<String, StringBuilder> e:elementsByRange.entrySet())
+			sbModel.append(',').append(e.getKey()).append(e.getValue());
+		
+		return sbModel.length()==0 ? "" : sbModel.substring(1);
 	}
 
-	private volatile JPIPSocket jpipSocket;
+	private volatile @Nullable JPIPSocket jpipSocket;
 	
 	@Override
 	void execute() throws IOException
 	{
-		if(!isRequired())
+		if(cancelled || !isRequired())
 			return;
 		
+		JPIPSession session=m.jpipSession;
 		try
 		{
-			jpipSocket = new JPIPSocket(new URI(url), TIMEOUT);
-			@Nullable JPIPResponse response = jpipSocket.send(query.toString(), data ->
+			//if another request of the movie is using the channel, this one opens a new channel
+			String cid=session.acquireChannel();
+			if(cid!=null)
+				try
+				{
+					send(session, cid);
+					return;
+				}
+				catch(IOException _e)
+				{
+					if(cancelled)
+						throw _e;
+					
+					//the server might have closed the channel, try again with a new one
+					session.channelFailed(cid);
+				}
+				finally
+				{
+					session.releaseChannel(cid);
+				}
+			
+			send(session, null);
+		}
+		catch (URISyntaxException | UnsuitableMetaDataException | KduException | IOException e)
+		{
+			if(!cancelled)
+				Telemetry.trackException(e);
+		}
+	}
+	
+	private void send(JPIPSession _session, @Nullable String _cid) throws IOException, URISyntaxException, UnsuitableMetaDataException, KduException
+	{
+		JPIPQuery query=createQuery();
+		int modelLength=0;
+		if(_cid!=null)
+			query.setField("cid", _cid);
+		else
+		{
+			//hack: esa-jpip currently only supports stateful requests ?!?
+			query.setField("cnew", "http");
+			
+			String model=createCacheModel();
+			if(!model.isEmpty())
+				query.setField("model", model);
+			modelLength=model.length();
+		}
+		
+		URI uri=_cid==null ? new URI(url) : _session.getURI(new URI(url));
+		JPIPSocket socket=new JPIPSocket(uri, TIMEOUT);
+		jpipSocket=socket;
+		try
+		{
+			//interrupt() might have missed the socket
+			if(cancelled)
+				throw new IOException("Request was cancelled");
+			
+			//the segment is reused by the parser, so its data has to be consumed right away
+			@Nullable JPIPResponse response = socket.send(query.toString(), data ->
+				{
+					if(region==null)
+						fullImageBytes.addAndGet(data.length);
+					else
+					{
+						regionBytes.addAndGet(data.length);
+						regionBytesDisplayed.addAndGet((long)(data.length*visibleFraction));
+					}
+					
+					_session.segmentReceived(_cid, data);
 					m.addToDatabin(data.classID.getKakaduClassID(),
 						data.codestreamID, data.binID, data.data, data.offset,
-						data.length, data.isFinal));
+						data.length, data.isFinal);
+				});
 			
 			if(response==null)
 				throw new IOException();
 			
-			/*if(!response.isResponseComplete() && response.getHeader("JPIP-cnew")!=null)
-			{
-				query.removeField("cnew");
-				
-				String[] tokens = response.getHeader("JPIP-cnew").split(",");
-				String cnew=Arrays.stream(tokens).filter(s -> s.startsWith("cid=")).findAny().get().split("=",2)[1];
-				query.setField("cid", Integer.parseInt(cnew)+"");
-				
-				String path="/" + Arrays.stream(tokens).filter(s -> s.startsWith("path=")).findAny().get().split("=",2)[1];
-				jpipSocket.uri = new URI(jpipSocket.uri.getScheme(), jpipSocket.uri.getHost(), path, jpipSocket.uri.getFragment());
-				
-				response = jpipSocket.send(query.toString());
-				if(response==null)
-					throw new IOException();
-			}*/
+			if(_cid==null)
+				_session.channelRequested(uri, response, modelLength);
+			else
+				_session.channelUsed();
 			
 			//TODO: verify tid
 			
 			imageComplete = response.isImageComplete();
-			m.notifyAboutUpgradedQuality(imageComplete ? Integer.MAX_VALUE : width*height, imageComplete ? Integer.MAX_VALUE : qualityLayers);
-		}
-		catch (URISyntaxException | UnsuitableMetaDataException | IOException e)
-		{
-			Telemetry.trackException(e);
+			if(region==null)
+				m.notifyAboutUpgradedQuality(imageComplete ? Integer.MAX_VALUE : width*height, imageComplete ? Integer.MAX_VALUE : qualityLayers);
+			else if(response.isResponseComplete())
+				m.notifyAboutCachedRegion(getRelativeArea(), width, height, qualityLayers);
 		}
 		finally
 		{
 			try
 			{
-				jpipSocket.close();
+				socket.close();
 			}
 			catch (IOException e)
 			{
@@ -165,7 +276,9 @@ public class JPIPRequest extends AbstractDownloadRequest
 		try
 		{
 			cancelled=true;
-			jpipSocket.close();
+			JPIPSocket socket=jpipSocket;
+			if(socket!=null)
+				socket.close();
 		}
 		catch(Throwable t)
 		{
@@ -174,12 +287,24 @@ public class JPIPRequest extends AbstractDownloadRequest
 
 	private boolean isRequired()
 	{
-		if(width*height<m.areaLimit.get())
-			return false;
-		
-		if(width*height==m.areaLimit.get() && qualityLayers<=m.qualityLayersLimit.get())
-			return false;
+		return !m.isRegionCached(getRelativeArea(), width, height, qualityLayers);
+	}
+	
+	/**
+	 * Reports how much data was downloaded for regions of interest, how much
+	 * of it was within the visible part, and how much was downloaded for whole
+	 * images since the last call.
+	 */
+	public static void trackStatistics()
+	{
+		long region=regionBytes.getAndSet(0);
+		long displayed=regionBytesDisplayed.getAndSet(0);
+		long full=fullImageBytes.getAndSet(0);
+		if(region+full==0)
+			return;
 		
-		return true;
+		Telemetry.trackMetric("JPIP region KB downloaded", region/1024d);
+		Telemetry.trackMetric("JPIP region KB displayed", displayed/1024d);
+		Telemetry.trackMetric("JPIP full image KB downloaded", full/1024d);
 	}
 }
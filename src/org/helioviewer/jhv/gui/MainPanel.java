@@ -433,8 +433,6 @@ public class MainPanel extends GLCanvas implements GLEventListener, Camera
 			ImageLayer.ensureAppropriateTextureCacheSize(gl);
 			
 			//TODO: jumpstart decoding of overview region
-			//TODO: async texture upload
-			//TODO: jumpstart decoding of next frame
 			
 			ArrayList<ImageLayer> imageLayers = new ArrayList<ImageLayer>();
 			ArrayList<ListenableFuture<PreparedImage>> prepared = new ArrayList<>();
@@ -449,7 +447,12 @@ public class MainPanel extends GLCanvas implements GLEventListener, Camera
 						imageLayers.add(il);
 					}
 				}
-
+			
+			//jumpstart decoding of the next frames, while the current one is being rendered
+			if(shouldPrefetch())
+				for (ImageLayer il : imageLayers)
+					il.prefetchImageData(this, shouldHurry(), sizeForDecoder);
+			
 			
 			double maxScaling = 1;
 			for(int opacityGroup:MetaData.OPACITY_GROUPS)
@@ -652,6 +655,11 @@ public class MainPanel extends GLCanvas implements GLEventListener, Camera
 			componentView.repaint(); //display breaks OS X
 	}
 	
+	protected boolean shouldPrefetch()
+	{
+		return TimeLine.SINGLETON.isPlaying();
+	}
+	
 	protected DecodeQualityLevel shouldHurry()
 	{
 		if(!cameraAnimations.isEmpty())
@@ -15,6 +15,9 @@ import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 import java.awt.event.KeyEvent;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 import javax.swing.AbstractAction;
@@ -34,6 +37,7 @@ import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.swing.plaf.basic.BasicSliderUI;
 
+import org.helioviewer.jhv.base.Telemetry;
 import org.helioviewer.jhv.gui.IconBank.JHVIcon;
 import org.helioviewer.jhv.gui.components.MenuBar;
 import org.helioviewer.jhv.layers.ImageLayer;
@@ -43,6 +47,7 @@ import org.helioviewer.jhv.layers.Layers;
 import org.helioviewer.jhv.layers.Movie.Match;
 import org.helioviewer.jhv.viewmodel.TimeLine;
 import org.helioviewer.jhv.viewmodel.TimeLine.TimeLineListener;
+import org.helioviewer.jhv.viewmodel.jp2view.newjpx.MovieCache;
 
 public class MoviePanel extends JPanel implements TimeLineListener, LayerListener
 {
@@ -155,7 +160,13 @@ public class MoviePanel extends JPanel implements TimeLineListener, LayerListene
 		});
 		
 		slider = new JSlider();
-		slider.setUI(new TimeSliderUI(slider));
+		TimeSliderUI sliderUI = new TimeSliderUI(slider);
+		slider.setUI(sliderUI);
+		MovieCache.addListener((from, to) ->
+			{
+				sliderUI.invalidateTrack(from, to);
+				slider.repaint();
+			});
 		slider.setValue(0);
 		slider.setMinimum(0);
 		slider.setMaximum(49);
@@ -357,6 +368,23 @@ public class MoviePanel extends JPanel implements TimeLineListener, LayerListene
 		}
 	}
 
+	private static final AtomicLong trackPaintNanos = new AtomicLong();
+	private static final AtomicInteger trackPaints = new AtomicInteger();
+	
+	/**
+	 * Reports how long painting the cache status of the time slider took on
+	 * average since the last call.
+	 */
+	public static void trackPaintStatistics()
+	{
+		int paints=trackPaints.getAndSet(0);
+		long nanos=trackPaintNanos.getAndSet(0);
+		if(paints==0)
+			return;
+		
+		Telemetry.trackMetric("Timeline track paint ms", nanos/1000000d/paints);
+	}
+	
 	private class TimeSliderUI extends BasicSliderUI
 	{
 		private final Color COLOR_NA = Color.RED;
@@ -364,6 +392,27 @@ public class MoviePanel extends JPanel implements TimeLineListener, LayerListene
 		private final Color COLOR_PARTIALLY_CACHED = new Color(0x8080FF);
 		private final Color COLOR_COMPLETELY_CACHED = new Color(0x4040FF);
 		private final Color COLOR_GRAY = new Color(0xEEEEEE);
+		
+		private final Color[] COVERAGE_COLORS = { COLOR_NOT_CACHED, COLOR_PARTIALLY_CACHED, COLOR_COMPLETELY_CACHED };
+		
+		//cache status of every frame of the timeline, only looked up again where the cache changed since
+		private byte[] coverage = new byte[0];
+		private @Nullable ImageLayer coverageLayer;
+		private long coverageFirstMS;
+		private long coverageCadenceMS;
+		
+		//coverage as rasterized last time, only rebuilt when the coverage or the width changes
+		private @Nullable BufferedImage track;
+		
+		//time range changed since the coverage was updated, guarded by this
+		private long dirtyFromMS=Long.MAX_VALUE;
+		private long dirtyToMS=Long.MIN_VALUE;
+		
+		synchronized void invalidateTrack(long _fromMS, long _toMS)
+		{
+			dirtyFromMS=Math.min(dirtyFromMS, _fromMS);
+			dirtyToMS=Math.max(dirtyToMS, _toMS);
+		}
 
 		public TimeSliderUI(JSlider slider)
 		{
@@ -405,6 +454,43 @@ public class MoviePanel extends JPanel implements TimeLineListener, LayerListene
 			g.translate(-knobBounds.x, -knobBounds.y);
 		}
 		
+		/**
+		 * Draws the coverage into a new image, every pixel showing the best
+		 * status of the frames it covers.
+		 */
+		private BufferedImage rasterizeCoverage(int _width, int _height)
+		{
+			byte[] pixels=new byte[_width];
+			int max=Math.max(1, coverage.length-1);
+			for(int f=0;f<coverage.length;f++)
+			{
+				int xa=(int)Math.round((f-0.5)/(double)max*_width);
+				int xb=(int)Math.round((f+0.5)/(double)max*_width);
+				if(xa<0)
+					xa=0;
+				if(xb>_width)
+					xb=_width;
+				for(int x=xa;x<xb;x++)
+					if(coverage[f]>pixels[x])
+						pixels[x]=coverage[f];
+			}
+			
+			BufferedImage image=new BufferedImage(_width, _height, BufferedImage.TYPE_INT_RGB);
+			Graphics2D g=image.createGraphics();
+			for(int x=0;x<pixels.length;)
+			{
+				int xb=x+1;
+				while(xb<pixels.length && pixels[xb]==pixels[x])
+					xb++;
+				
+				g.setColor(COVERAGE_COLORS[pixels[x]]);
+				g.fillRect(x, 0, xb-x, _height);
+				x=xb;
+			}
+			g.dispose();
+			return image;
+		}
+		
 		@Override
 		public void paintTrack(@Nullable Graphics g)
 		{
@@ -417,44 +503,66 @@ public class MoviePanel extends JPanel implements TimeLineListener, LayerListene
 			g.translate(trackRect.x, trackRect.height - HEIGHT - 1);
 			
 			Graphics2D g2 = (Graphics2D) g;
-			
-			//TODO: redrawn every frame --> should only be recalculated when needed
+			long start=System.nanoTime();
 			
 			ImageLayer layer = Layers.getActiveImageLayer();
 			if (layer != null)
 			{
-				//TODO: speed this code up, for example by respecing the clipRect
-				int max=Math.min(TimeLine.SINGLETON.getFrameCount()-1, (int)trackRect.getWidth()-1);
-				//int max=(int)trackRect.getWidth()-1;
-				for(int i=0;i<=max;i++)
+				long firstMS=TimeLine.SINGLETON.getFirstTimeMS();
+				long lastMS=TimeLine.SINGLETON.getLastTimeMS();
+				long cadenceMS=TimeLine.SINGLETON.getCadenceMS();
+				int frameCount=(int)((lastMS-firstMS)/cadenceMS)+1;
+				if(layer!=coverageLayer || firstMS!=coverageFirstMS || cadenceMS!=coverageCadenceMS || frameCount!=coverage.length)
 				{
-					//snap position to nearest frame
-					double frame = (int)((TimeLine.SINGLETON.getFrameCount()-2)*i/(double)(max))-0.5;
-					long timeMS=TimeLine.SINGLETON.getFirstTimeMS()+(long)(frame*TimeLine.SINGLETON.getCadenceMS());
-					
-					double frame2 = (int)((TimeLine.SINGLETON.getFrameCount()-2)*(i+1)/(double)(max))+0.5;
-					long timeMS2=TimeLine.SINGLETON.getFirstTimeMS()+(long)(frame2*TimeLine.SINGLETON.getCadenceMS());
-					
-					//if(!layer.isDataAvailableOnServer(timeMS,timeMS2))
-					//	g.setColor(COLOR_NA);
-					//else
+					coverage=new byte[frameCount];
+					coverageLayer=layer;
+					coverageFirstMS=firstMS;
+					coverageCadenceMS=cadenceMS;
+					track=null;
+					invalidateTrack(Long.MIN_VALUE, Long.MAX_VALUE);
+				}
+				
+				long fromMS;
+				long toMS;
+				synchronized(this)
+				{
+					fromMS=dirtyFromMS;
+					toMS=dirtyToMS;
+					dirtyFromMS=Long.MAX_VALUE;
+					dirtyToMS=Long.MIN_VALUE;
+				}
+				
+				//frame f covers [firstMS+(f-0.5)*cadenceMS, firstMS+(f+0.5)*cadenceMS)
+				if(fromMS<=toMS)
+				{
+					fromMS=Math.max(fromMS, firstMS-cadenceMS);
+					toMS=Math.min(toMS, lastMS+cadenceMS);
+					int fromFrame=(int)Math.max(0, Math.floorDiv(fromMS-firstMS+cadenceMS/2, cadenceMS));
+					int toFrame=(int)Math.min(frameCount-1, Math.floorDiv(toMS-firstMS+cadenceMS/2, cadenceMS));
+					for(int f=fromFrame;f<=toFrame;f++)
 					{
-						Match currentMatch = layer.findBestFrame(timeMS,timeMS2);
+						long timeMS=firstMS+f*cadenceMS-cadenceMS/2;
+						Match currentMatch = layer.findBestFrame(timeMS,timeMS+cadenceMS);
+						byte status;
 						if(currentMatch==null)
-							g.setColor(COLOR_NOT_CACHED);
+							status=0;
 						else
-							g.setColor(currentMatch.movie.isFullQuality() ? COLOR_COMPLETELY_CACHED : COLOR_PARTIALLY_CACHED);
+							status=(byte)(currentMatch.movie.isFullQuality() ? 2 : 1);
+						
+						if(coverage[f]!=status)
+						{
+							coverage[f]=status;
+							track=null;
+						}
 					}
-					
-					int xa=(int)Math.round((i-0.5)/(double)(max)*WIDTH);
-					int xb=(int)Math.round((i+0.5)/(double)(max)*WIDTH);
-					if(xa<0)
-						xa=0;
-					if(xb>WIDTH)
-						xb=WIDTH;
-					g2.fillRect(xa, 0, xb-xa, HEIGHT);
 				}
 				
+				BufferedImage image=track;
+				if(image==null || image.getWidth()!=Math.max(1, WIDTH) || image.getHeight()!=HEIGHT)
+					track=image=rasterizeCoverage(Math.max(1, WIDTH), HEIGHT);
+				
+				g2.drawImage(image, 0, 0, null);
+				
 				
 				
 				/*
@@ -539,6 +647,9 @@ public class MoviePanel extends JPanel implements TimeLineListener, LayerListene
 				g2.fillRect(0, 0, WIDTH, HEIGHT);
 			}
 
+			trackPaintNanos.addAndGet(System.nanoTime()-start);
+			trackPaints.incrementAndGet();
+			
 			g.translate(-trackRect.x, -trackRect.height + HEIGHT + 1);
 		}
 	}
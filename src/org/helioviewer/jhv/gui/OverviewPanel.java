@@ -132,6 +132,13 @@ public class OverviewPanel extends MainPanel
 		//repainting will be invoked by the mainpanel
 	}
 	
+	@Override
+	protected boolean shouldPrefetch()
+	{
+		//the main panel prefetches everything that is needed
+		return false;
+	}
+	
 	@Override
 	protected void render(GL2 gl, boolean _showLoadingAnimation, Dimension _sizeForDecoder)
 	{
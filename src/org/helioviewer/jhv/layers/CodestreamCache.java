@@ -0,0 +1,140 @@
+package org.helioviewer.jhv.layers;
+
+import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.helioviewer.jhv.base.Telemetry;
+
+import kdu_jni.Jpx_input_box;
+import kdu_jni.Jpx_source;
+import kdu_jni.KduException;
+import kdu_jni.Kdu_codestream;
+
+/**
+ * Keeps the most recently used codestreams of every decoding thread open, so
+ * decoding the same frame again doesn't have to open the stream and parse its
+ * headers again.
+ */
+class CodestreamCache
+{
+	private static final int MAX_OPEN_CODESTREAMS_PER_THREAD = 4;
+
+	//the lists of all threads, so codestreams of disposed movies can be dropped from all of them
+	private static final CopyOnWriteArrayList<ArrayList<OpenCodestream>> allOpenCodestreams = new CopyOnWriteArrayList<>();
+	
+	//most recently used first
+	private static final ThreadLocal<ArrayList<OpenCodestream>> tlsOpenCodestreams = ThreadLocal.withInitial(() ->
+		{
+			ArrayList<OpenCodestream> open=new ArrayList<>(MAX_OPEN_CODESTREAMS_PER_THREAD+1);
+			allOpenCodestreams.add(open);
+			return open;
+		});
+
+	static class OpenCodestream
+	{
+		final Movie movie;
+		final long codestreamId;
+		final int generation;
+		final Jpx_input_box inputBox;
+		final Kdu_codestream codestream;
+		private boolean closed;
+
+		OpenCodestream(Movie _movie, Jpx_source _source, long _codestreamId, int _generation) throws KduException
+		{
+			movie=_movie;
+			codestreamId=_codestreamId;
+			generation=_generation;
+
+			inputBox=_source.Access_codestream((int)_codestreamId).Open_stream();
+			codestream=new Kdu_codestream();
+			codestream.Create(inputBox);
+			codestream.Set_resilient(false);
+			codestream.Set_persistent();
+		}
+
+		synchronized boolean isClosed()
+		{
+			return closed;
+		}
+
+		synchronized void close()
+		{
+			if(closed)
+				return;
+
+			closed=true;
+			try
+			{
+				codestream.Destroy();
+				inputBox.Close();
+			}
+			catch (KduException e)
+			{
+				Telemetry.trackException(e);
+			}
+			inputBox.Native_destroy();
+		}
+	}
+
+	/**
+	 * Returns an open codestream for the given frame, reusing the one opened
+	 * by a previous decode on this thread if it is still current.
+	 */
+	static OpenCodestream acquire(Movie _movie, Jpx_source _source, long _codestreamId, int _generation) throws KduException
+	{
+		ArrayList<OpenCodestream> open=tlsOpenCodestreams.get();
+		synchronized(open)
+		{
+			for(int i=0;i<open.size();i++)
+			{
+				OpenCodestream c=open.get(i);
+				if(c.movie!=_movie || c.codestreamId!=_codestreamId)
+					continue;
+
+				open.remove(i);
+				if(c.generation==_generation && !c.isClosed())
+				{
+					open.add(0, c);
+					return c;
+				}
+
+				release(c);
+				break;
+			}
+
+			OpenCodestream c=new OpenCodestream(_movie, _source, _codestreamId, _generation);
+			synchronized(_movie.openCodestreams)
+			{
+				_movie.openCodestreams.add(c);
+			}
+
+			open.add(0, c);
+			while(open.size()>MAX_OPEN_CODESTREAMS_PER_THREAD)
+				release(open.remove(open.size()-1));
+
+			return c;
+		}
+	}
+
+	/**
+	 * Drops the codestreams of the given movie from the caches of all
+	 * threads, so they don't keep a disposed movie alive.
+	 */
+	static void purge(Movie _movie)
+	{
+		for(ArrayList<OpenCodestream> open:allOpenCodestreams)
+			synchronized(open)
+			{
+				open.removeIf(c -> c.movie==_movie);
+			}
+	}
+
+	private static void release(OpenCodestream _c)
+	{
+		synchronized(_c.movie.openCodestreams)
+		{
+			_c.movie.openCodestreams.remove(_c);
+		}
+		_c.close();
+	}
+}
@@ -10,6 +10,8 @@ import javax.annotation.Nullable;
 
 import org.helioviewer.jhv.base.Globals;
 import org.helioviewer.jhv.base.ImageRegion;
+import org.helioviewer.jhv.base.Settings;
+import org.helioviewer.jhv.base.Settings.IntKey;
 import org.helioviewer.jhv.base.Telemetry;
 import org.helioviewer.jhv.base.math.MathUtils;
 import org.helioviewer.jhv.base.math.Matrix4d;
@@ -75,6 +77,9 @@ public abstract class ImageLayer extends Layer
 	
 	protected static ArrayList<Texture> textures = new ArrayList<>();
 	
+	//number of upcoming frames per layer that get decoded ahead of time during playback
+	protected static final int PREFETCH_FRAMES = Math.max(0, Settings.getInt(IntKey.PLAYBACK_PREFETCH_FRAMES));
+	
 	public abstract @Nullable Match getCurrentMatch();
 	public abstract @Nullable MetaData getCurrentMetaData();
 
@@ -133,8 +138,9 @@ public abstract class ImageLayer extends Layer
 		int cnt=0;
 		for (Layer l : Layers.getLayers())
 			if (l instanceof ImageLayer)
-				//need at least two textures per layer (overview + main)
-				cnt+=2;
+				//need at least two textures per layer (overview + main), plus
+				//the ones for prefetched frames
+				cnt+=2+PREFETCH_FRAMES;
 		
 		//we should have space for at least 10 textures (2k x 2k * 8bit * 10 = 40 mb) 
 		if(cnt<10)
@@ -170,6 +176,7 @@ public abstract class ImageLayer extends Layer
 		_preparedImageData.texture.usedByCurrentRenderPass=false;
 		if(_preparedImageData.texture.needsUpload)
 			_preparedImageData.texture.uploadByteBuffer(gl, this, md.timeMS, _preparedImageData.imageRegion);
+		_preparedImageData.texture.waitForUpload(gl);
 		
 		Matrix4d transformation = calcTransformation(mainPanel, md);
 		
@@ -433,6 +440,12 @@ public abstract class ImageLayer extends Layer
 	}
 
 	public abstract ListenableFuture<PreparedImage> prepareImageData(final MainPanel mainPanel, DecodeQualityLevel _quality, final Dimension size, final GLContext _gl);
+	
+	/**
+	 * Starts decoding the frames that will be shown next during playback, so
+	 * that prepareImageData can use them right away.
+	 */
+	public abstract void prefetchImageData(final MainPanel _mainPanel, DecodeQualityLevel _quality, final Dimension _size);
 
 	private static final int MAX_X_POINTS = 11;
 	private static final int MAX_Y_POINTS = 11;
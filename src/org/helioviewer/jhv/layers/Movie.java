@@ -6,34 +6,36 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 
 import javax.annotation.Nullable;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 
 import org.helioviewer.jhv.base.Globals;
 import org.helioviewer.jhv.base.Telemetry;
 import org.helioviewer.jhv.opengl.Texture;
 import org.helioviewer.jhv.viewmodel.TimeLine.DecodeQualityLevel;
 import org.helioviewer.jhv.viewmodel.jp2view.kakadu.KakaduUtils;
+import org.helioviewer.jhv.viewmodel.jp2view.newjpx.MovieCache;
+import org.helioviewer.jhv.viewmodel.metadata.FitsHeader;
 import org.helioviewer.jhv.viewmodel.metadata.MetaData;
 import org.helioviewer.jhv.viewmodel.metadata.MetaDataFactory;
 import org.helioviewer.jhv.viewmodel.metadata.UnsuitableMetaDataException;
 import org.w3c.dom.Document;
 
 import kdu_jni.Jp2_threadsafe_family_src;
-import kdu_jni.Jpx_codestream_source;
-import kdu_jni.Jpx_input_box;
 import kdu_jni.Jpx_layer_source;
 import kdu_jni.Jpx_source;
 import kdu_jni.KduException;
 import kdu_jni.Kdu_channel_mapping;
-import kdu_jni.Kdu_codestream;
 import kdu_jni.Kdu_coords;
 import kdu_jni.Kdu_dims;
 import kdu_jni.Kdu_global;
@@ -69,6 +71,11 @@ public abstract class Movie
 	private static ThreadLocal<byte[]> byteArrayBuffer = new ThreadLocal<>();
 	
 	private final ArrayList<Jpx_source> openJpx_sources = new ArrayList<Jpx_source>(1);
+	
+	//codestreams kept open by CodestreamCache, the generation of a codestream is
+	//increased whenever its headers change or its precincts are dropped
+	final ArrayList<CodestreamCache.OpenCodestream> openCodestreams = new ArrayList<>();
+	private final ConcurrentHashMap<Long,Integer> codestreamGenerations = new ConcurrentHashMap<>();
 	private ThreadLocal<Jpx_source> tlsJpx_source=ThreadLocal.withInitial(new Supplier<Jpx_source>()
 	{
 		@Override
@@ -110,6 +117,14 @@ public abstract class Movie
 		disposed=true;
 		metaDatas=null;
 		
+		synchronized(openCodestreams)
+		{
+			for(CodestreamCache.OpenCodestream c:openCodestreams)
+				c.close();
+			openCodestreams.clear();
+		}
+		CodestreamCache.purge(this);
+		
 		if(disposed)
 			return;
 		
@@ -173,10 +188,28 @@ public abstract class Movie
 		family_src.Native_destroy();
 	}
 	
+	/**
+	 * Makes decoders reopen the given codestream instead of reusing an open
+	 * one, needed after its headers changed or its precincts were dropped.
+	 */
+	protected void invalidateCodestream(long _codestreamId)
+	{
+		codestreamGenerations.merge(_codestreamId, 1, Integer::sum);
+	}
+	
 	public abstract boolean isBetterQualityThan(Movie _other);
 	
 	
 	public abstract boolean isFullQuality();
+	
+	/**
+	 * Returns whether the image data of a frame is still available, i.e. it
+	 * wasn't evicted from the cache.
+	 */
+	public boolean isFrameAvailable(int _index)
+	{
+		return true;
+	}
 
 	
 	protected synchronized void loadMetaData(int i)
@@ -189,15 +222,15 @@ public abstract class Movie
 			if(!family_src.Is_codestream_main_header_complete(i))
 				return;
 			
-			metaDatas[i]=MetaDataFactory.getMetaData(readMetadataDocument(i+1));
+			metaDatas[i]=readMetaData(i);
 			if(metaDatas[i]==null)
 				Telemetry.trackException(new UnsuitableMetaDataException("Cannot find metadata class for:\n"+KakaduUtils.getXml(family_src, i+1)));
 			else if(timeMS[i]==0)
-				timeMS[i]=metaDatas[i].timeMS;
+				setTimeMS(i, metaDatas[i].timeMS);
 			else if(timeMS[i]!=metaDatas[i].timeMS)
 			{
 				System.err.println("Timestamps diverged: "+timeMS[i]+" vs "+metaDatas[i].timeMS);
-				timeMS[i]=metaDatas[i].timeMS;
+				setTimeMS(i, metaDatas[i].timeMS);
 			}
 		}
 		catch (KduException e)
@@ -206,6 +239,35 @@ public abstract class Movie
 		}
 	}
 	
+	/**
+	 * Parses the metadata of a frame, whose main header has to be complete.
+	 * This only scans the fits section of the XML box, building a DOM is left
+	 * to <code>readMetadataDocument()</code>.
+	 */
+	protected @Nullable MetaData readMetaData(int _index)
+	{
+		try
+		{
+			String xmlText = readMetadataXml(_index+1);
+			if (xmlText == null)
+				return null;
+			
+			return MetaDataFactory.getMetaData(FitsHeader.parse(xmlText));
+		}
+		catch (Exception ex)
+		{
+			Telemetry.trackException(ex);
+		}
+		return null;
+	}
+	
+	private void setTimeMS(int _index, long _timeMS)
+	{
+		long oldTimeMS=timeMS[_index];
+		timeMS[_index]=_timeMS;
+		MovieCache.notifyAboutChangedTimestamp(this, _index, oldTimeMS);
+	}
+	
 	public class Match
 	{
 		public final int index;
@@ -256,48 +318,9 @@ public abstract class Movie
 		}
 	}
 	
-	@Nullable public Match findBestIdx(long _minTimeMSInclusive, long _maxTimeMSExclusive)
-	{
-		long middle = (_minTimeMSInclusive + _maxTimeMSExclusive)/2;
-		int bestMatch = -1;
-		long bestDiff = Long.MAX_VALUE;
-		
-		for (int i = 0; i < timeMS.length; i++)
-			if(timeMS[i]>=_minTimeMSInclusive && timeMS[i]<_maxTimeMSExclusive)
-			{
-				long curDiff = Math.abs(timeMS[i]-middle);
-				if(curDiff<bestDiff)
-				{
-					bestDiff=curDiff;
-					bestMatch = i;
-				}
-			}
-		
-		if(bestMatch==-1)
-			return null;
-		
-		return new Match(bestMatch,-1);
-	}
-	
-	@Nullable public Match findClosestIdx(long _currentDateTimeMS)
+	public Match createMatch(int _index, long _timeDifferenceMS)
 	{
-		int bestI=-1;
-		long minDiff = Long.MAX_VALUE;
-		
-		for (int i = 0; i < timeMS.length; i++)
-		{
-			long curDiff = Math.abs(timeMS[i]-_currentDateTimeMS);
-			if(curDiff<minDiff)
-			{
-				minDiff=curDiff;
-				bestI=i;
-			}
-		}
-		
-		if(bestI==-1)
-			return null;
-		else
-			return new Match(bestI,minDiff);
+		return new Match(_index, _timeDifferenceMS);
 	}
 	
 	@Nullable public MetaData getAnyMetaData()
@@ -324,19 +347,32 @@ public abstract class Movie
 		return timeMS[idx];
 	}
 	
+	//creating a DocumentBuilder is more expensive than parsing the small metadata documents
+	private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDERS = ThreadLocal.withInitial(() ->
+		{
+			try
+			{
+				return DocumentBuilderFactory.newInstance().newDocumentBuilder();
+			}
+			catch (ParserConfigurationException _e)
+			{
+				throw new RuntimeException(_e);
+			}
+		});
+	
 	@Nullable
 	public Document readMetadataDocument(int _index)
 	{
 		try
 		{
-			String xmlText = KakaduUtils.getXml(family_src, _index);
+			String xmlText = readMetadataXml(_index);
 			if (xmlText == null)
 				return null;
-			xmlText = xmlText.trim().replace("&", "&amp;").replace("$OBS", "");
 			
 			try(InputStream in = new ByteArrayInputStream(xmlText.getBytes("UTF-8")))
 			{
-				DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+				DocumentBuilder builder = DOCUMENT_BUILDERS.get();
+				builder.reset();
 				Document doc = builder.parse(in);
 				doc.getDocumentElement().normalize();
 				
@@ -350,6 +386,15 @@ public abstract class Movie
 		return null;
 	}
 	
+	private @Nullable String readMetadataXml(int _index) throws KduException
+	{
+		String xmlText = KakaduUtils.getXml(family_src, _index);
+		if (xmlText == null)
+			return null;
+		
+		return xmlText.trim().replace("&", "&amp;").replace("$OBS", "");
+	}
+	
 	protected void loadCodestreamIntoCache(long _codestreamId) throws Exception
 	{
 	}
@@ -360,6 +405,26 @@ public abstract class Movie
 	
 	private static ExecutorService exec = Executors.newFixedThreadPool(Globals.CORES);
 	
+	private static final AtomicLong decodedFrames=new AtomicLong();
+	private static final AtomicLong decodeBytesCopied=new AtomicLong();
+	private static final AtomicLong decodeCopyNanos=new AtomicLong();
+	
+	/**
+	 * Reports how many bytes were copied from the decoders into upload buffers,
+	 * and how long that took, per decoded frame since the last call.
+	 */
+	public static void trackDecodeStatistics()
+	{
+		long frames=decodedFrames.getAndSet(0);
+		long bytes=decodeBytesCopied.getAndSet(0);
+		long nanos=decodeCopyNanos.getAndSet(0);
+		if(frames==0)
+			return;
+		
+		Telemetry.trackMetric("Decode bytes copied per frame", bytes/(double)frames);
+		Telemetry.trackMetric("Decode copy ms per frame", nanos/1000000d/frames);
+	}
+	
 	public boolean decodeImage(int _index, DecodeQualityLevel _quality, float _zoomPercent, Rectangle _requiredRegion, Texture _target)
 	{
 		if(disposed)
@@ -429,30 +494,7 @@ public abstract class Movie
 								throw new RuntimeException("Unsupported quality");
 						}
 				        
-						Jpx_source jpxSrc2=tlsJpx_source.get();
-				        Jpx_codestream_source xstream = jpxSrc2.Access_codestream(fcodestreamId);
-				        Jpx_input_box inputBox = xstream.Open_stream();
-				        
-						Kdu_codestream codestream = new Kdu_codestream();
-						codestream.Create(inputBox);
-						codestream.Set_resilient(false);
-						
-						decompressor.Start(codestream,
-								mapping, //MAPPING
-								0,
-								discardLevels,
-								16384, //MAX LAYERS
-								requestedBufferedRegion,
-								expand_numerator,
-								expand_denominator,
-								false, //PRECISE
-								Kdu_global.KDU_WANT_OUTPUT_COMPONENTS,
-								true //FASTEST
-								);
-						
-						Kdu_dims incompleteRegion = new Kdu_dims();
-						incompleteRegion.Assign(requestedBufferedRegion);
-						Kdu_dims new_region = new Kdu_dims();
+						CodestreamCache.OpenCodestream openCodestream = CodestreamCache.acquire(this, tlsJpx_source.get(), fcodestreamId, codestreamGenerations.getOrDefault(fcodestreamId, 0));
 						
 						byte[] buf=byteArrayBuffer.get();
 						if(buf==null || buf.length<(_requiredRegion.width+16)*(reqHeight+16))
@@ -461,38 +503,58 @@ public abstract class Movie
 							byteArrayBuffer.set(buf);
 						}
 						
-						while(decompressor.Process(buf,
-								new int[]{position}, //CHANNEL OFFSETS
-								1, //PIXEL GAP
-								new Kdu_coords(), //BUFFER ORIGIN
-								0, //ROW GAP
-								0, //SUGGESTED INCREMENT
-								buf.length-position,
-								incompleteRegion,
-								new_region,
-								8, //PRECISION BITS
-								true, //MEASURE ROW GAP IN PIXELS
-								0, //EXPAND MONOCHROME
-								0, //FILL ALPHA
-								0 //MAX COLOUR CHANNELS (0=no limit)
-								))
+						//the codestream may be closed concurrently when the movie gets disposed
+						synchronized(openCodestream)
 						{
-							position+=new_region.Access_size().Get_x() * new_region.Access_size().Get_y();
-							if(incompleteRegion.Access_size().Get_y() == 0)
-								break;
-						}
+							if(openCodestream.isClosed())
+								throw new IllegalStateException("Codestream closed");
 						
-						decompressor.Finish();
-						codestream.Destroy();
+							decompressor.Start(openCodestream.codestream,
+									mapping, //MAPPING
+									0,
+									discardLevels,
+									16384, //MAX LAYERS
+									requestedBufferedRegion,
+									expand_numerator,
+									expand_denominator,
+									false, //PRECISE
+									Kdu_global.KDU_WANT_OUTPUT_COMPONENTS,
+									true //FASTEST
+									);
+						
+							Kdu_dims incompleteRegion = new Kdu_dims();
+							incompleteRegion.Assign(requestedBufferedRegion);
+							Kdu_dims new_region = new Kdu_dims();
+						
+							while(decompressor.Process(buf,
+									new int[]{position}, //CHANNEL OFFSETS
+									1, //PIXEL GAP
+									new Kdu_coords(), //BUFFER ORIGIN
+									0, //ROW GAP
+									0, //SUGGESTED INCREMENT
+									buf.length-position,
+									incompleteRegion,
+									new_region,
+									8, //PRECISION BITS
+									true, //MEASURE ROW GAP IN PIXELS
+									0, //EXPAND MONOCHROME
+									0, //FILL ALPHA
+									0 //MAX COLOUR CHANNELS (0=no limit)
+									))
+							{
+								position+=new_region.Access_size().Get_x() * new_region.Access_size().Get_y();
+								if(incompleteRegion.Access_size().Get_y() == 0)
+									break;
+							}
+						
+							decompressor.Finish();
+						}
 						
-			        	inputBox.Close();
-			        	inputBox.Native_destroy();
-			        	
-			        	synchronized(_target.uploadBuffer)
-			        	{
-			        		_target.uploadBuffer.position(fystart*_requiredRegion.width);
-			        		_target.uploadBuffer.put(buf, 0, _requiredRegion.width*reqHeight);
-			        	}
+			        	//every strip owns a disjoint part of the upload buffer, no need to lock
+			        	long copyStart=System.nanoTime();
+			        	_target.getUploadBufferSlice(fystart*_requiredRegion.width, _requiredRegion.width*reqHeight).put(buf, 0, _requiredRegion.width*reqHeight);
+			        	decodeCopyNanos.addAndGet(System.nanoTime()-copyStart);
+			        	decodeBytesCopied.addAndGet(_requiredRegion.width*reqHeight);
 					}
 					catch (Exception _e)
 					{
@@ -505,6 +567,7 @@ public abstract class Movie
 			
 			readyLatch.await();
 			_target.uploadBuffer.position(0);
+			decodedFrames.incrementAndGet();
 			return true;
 		}
 		catch (Exception e)
@@ -529,6 +592,6 @@ public abstract class Movie
 
 	public int getFrameCount()
 	{
-		return metaDatas.length;
+		return timeMS.length;
 	}
 }
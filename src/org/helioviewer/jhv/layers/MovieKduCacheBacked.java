@@ -1,8 +1,11 @@
 package org.helioviewer.jhv.layers;
 
+import java.awt.geom.Rectangle2D;
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
+import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
@@ -13,18 +16,26 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.DelayQueue;
@@ -43,8 +54,10 @@ import org.helioviewer.jhv.base.IntervalStore;
 import org.helioviewer.jhv.base.Telemetry;
 import org.helioviewer.jhv.viewmodel.jp2view.io.jpip.JPIPConstants;
 import org.helioviewer.jhv.viewmodel.jp2view.io.jpip.JPIPDatabinClass;
+import org.helioviewer.jhv.viewmodel.jp2view.io.jpip.JPIPSession;
 import org.helioviewer.jhv.viewmodel.jp2view.newjpx.MovieCache;
 import org.helioviewer.jhv.viewmodel.metadata.MetaData;
+import org.helioviewer.jhv.viewmodel.metadata.MetaDataFactory;
 
 import com.google.common.base.Charsets;
 import com.google.common.io.Files;
@@ -62,15 +75,51 @@ public class MovieKduCacheBacked extends Movie
 	{
 		private static final int HEADER_MARKER = 0x01100a0f;
 		private static final int VALID_MARKER = 0x00011a0f;
+		private static final int INDEX_MARKER = 0x01101a0f;
+		
+		//class, codestream, bin and length precede the data of a record, offset, final flag and marker follow it
+		private static final int RECORD_DATA_OFFSET = 4+8+8+4;
+		private static final int RECORD_OVERHEAD = RECORD_DATA_OFFSET+4+1+4;
+		
+		//position, class, codestream, bin, offset, length and final flag of a record
+		private static final int INDEX_ENTRY_SIZE = 4+4+8+8+4+4+1;
+		
+		//fragments of databins already in the file, which have to pile up before it gets compacted
+		private static final int COMPACTION_MIN_FRAGMENTS = 4096;
+		
+		//records of this class mark codestreams whose precincts were evicted
+		private static final int EVICTION_CLASS_ID = -1;
+		
+		//records of this class hold the serialized MetaData of a codestream
+		private static final int METADATA_CLASS_ID = -2;
+		
 		public final File backingFile;
 		private final HashMap<Long,List<Integer>> codestreamPositions=new HashMap<>();
+		private final HashMap<Long,Integer> metaDataPositions=new HashMap<>();
 		private MappedByteBuffer map;
 		private int usedSize;
 		private final LinkedHashMap<Long,LinkedHashMap<Long,List<Bin>>> bins=new LinkedHashMap<>();
+		private int binCount;
+		
+		//one entry per record of the file, in the format of the index persisted behind the last record
+		private ByteBuffer index=ByteBuffer.allocate(INDEX_ENTRY_SIZE*1024);
+		private boolean indexPersisted;
+		private int fragmentsAfterCompaction;
+		private final AtomicBoolean compacting=new AtomicBoolean();
+		
+		//compactions run one after the other, whether scheduled or requested after evictions
+		private final Object compactionLock=new Object();
+		
+		private final Set<Long> evictedCodestreams=Collections.newSetFromMap(new ConcurrentHashMap<>());
+		private long evictedBytes;
+		
+		//files opened again only read their header until they are needed
+		private volatile boolean loaded;
+		private int recordsStart;
 		
 		boolean updateBinInfo(int _kduClassId, long _codestreamId, long _binId, int _offset, int _length, boolean _isFinal)
 		{
-			if(_length==0 && !_isFinal)
+			if(_length==0 && !_isFinal || _kduClassId<0)
 				return false;
 			
 			LinkedHashMap<Long,List<Bin>> codestreamBins;
@@ -98,6 +147,7 @@ public class MovieKduCacheBacked extends Movie
 			if(b==null)
 			{
 				idBins.add(b=new Bin(_kduClassId,_codestreamId,_binId));
+				binCount++;
 				somethingChanged=true;
 			}
 			
@@ -132,6 +182,7 @@ public class MovieKduCacheBacked extends Movie
 			backingFile = File.createTempFile(sourceId+"-jhv", null, MovieCache.CACHE_DIR);
 			map=Files.map(backingFile, MapMode.READ_WRITE);
 			usedSize=0;
+			loaded=true;
 			
 			updateHeader();
 		}
@@ -182,6 +233,34 @@ public class MovieKduCacheBacked extends Movie
 			for(int i=0;i<timeMS.length;i++)
 				timeMS[i]=map.getLong();
 			
+			recordsStart=map.position();
+		}
+		
+		boolean isLoaded()
+		{
+			return loaded;
+		}
+		
+		/**
+		 * Loads the records of a file which was opened again, from its index
+		 * if possible and by reading all records otherwise.
+		 */
+		void load() throws IOException
+		{
+			synchronized(backingFile)
+			{
+				if(loaded)
+					return;
+				
+				if(!readIndex(recordsStart))
+					replay();
+				loaded=true;
+			}
+		}
+		
+		private void replay() throws IOException
+		{
+			map.position(recordsStart);
 			for(;;)
 			{
 				if(map.position()==usedSize)
@@ -218,7 +297,7 @@ public class MovieKduCacheBacked extends Movie
 					break;
 				}
 				
-				if(kduClassId!=JPIPDatabinClass.PRECINCT_DATABIN.getKakaduClassID())
+				if(kduClassId>=0 && kduClassId!=JPIPDatabinClass.PRECINCT_DATABIN.getKakaduClassID())
 					try
 					{
 						kduCache.Add_to_databin(kduClassId, codestreamId, binId, data, offset, dataLength, isFinal, true, false);
@@ -230,40 +309,303 @@ public class MovieKduCacheBacked extends Movie
 						updateHeader();
 						break;
 					}
-				else
+				
+				addRecord(startPos, kduClassId, codestreamId, binId, offset, dataLength, isFinal);
+				updateBinInfo(kduClassId, codestreamId, binId, offset, dataLength, isFinal);
+			}
+		}
+		
+		/**
+		 * Restores all records from the index written by <code>persistIndex()</code>,
+		 * without reading the records themselves. Only the data of headers gets
+		 * loaded, precincts are loaded on demand anyway.
+		 *
+		 * @return <code>false</code> if there is no valid index behind the last record
+		 */
+		private boolean readIndex(int _recordsStart) throws IOException
+		{
+			if(usedSize<_recordsStart || usedSize+4+4>map.limit())
+				return false;
+			
+			map.position(usedSize);
+			if(map.getInt()!=INDEX_MARKER)
+				return false;
+			
+			int entries=map.getInt();
+			int entriesStart=map.position();
+			if(entries<0 || (long)entries*INDEX_ENTRY_SIZE+4>map.remaining())
+				return false;
+			
+			map.position(entriesStart+entries*INDEX_ENTRY_SIZE);
+			if(map.getInt()!=VALID_MARKER)
+				return false;
+			
+			for(int e=entriesStart;e<entriesStart+entries*INDEX_ENTRY_SIZE;e+=INDEX_ENTRY_SIZE)
+			{
+				int position=map.getInt(e);
+				int length=map.getInt(e+28);
+				if(position<_recordsStart || length<0 || (long)position+RECORD_OVERHEAD+length>usedSize)
+					return false;
+			}
+			
+			for(int e=entriesStart;e<entriesStart+entries*INDEX_ENTRY_SIZE;e+=INDEX_ENTRY_SIZE)
+			{
+				int position=map.getInt(e);
+				int kduClassId=map.getInt(e+4);
+				long codestreamId=map.getLong(e+8);
+				long binId=map.getLong(e+16);
+				int offset=map.getInt(e+24);
+				int length=map.getInt(e+28);
+				boolean isFinal=map.get(e+32)!=0;
+				
+				if(kduClassId>=0 && kduClassId!=JPIPDatabinClass.PRECINCT_DATABIN.getKakaduClassID())
 				{
-					List<Integer> positions=codestreamPositions.get(codestreamId);
-					if(positions==null)
-						codestreamPositions.put(codestreamId, positions=new ArrayList<Integer>());
-					
-					positions.add(startPos);
+					byte[] data=new byte[length];
+					map.position(position+RECORD_DATA_OFFSET);
+					map.get(data);
+					try
+					{
+						kduCache.Add_to_databin(kduClassId, codestreamId, binId, data, offset, length, isFinal, true, false);
+					}
+					catch(KduException _e)
+					{
+						throw new IOException("Invalid databin in index",_e);
+					}
 				}
+				
+				addRecord(position, kduClassId, codestreamId, binId, offset, length, isFinal);
+				updateBinInfo(kduClassId, codestreamId, binId, offset, length, isFinal);
 			}
+			
+			indexPersisted=true;
+			fragmentsAfterCompaction=entries-binCount;
+			return true;
 		}
-
-		private void updateHeader() throws IOException
+		
+		private ByteBuffer putIndexEntry(ByteBuffer _index, int _position, int _kduClassId, long _codestreamId, long _binId, int _offset, int _length, boolean _isFinal)
+		{
+			ByteBuffer b=_index;
+			if(b.remaining()<INDEX_ENTRY_SIZE)
+			{
+				b=ByteBuffer.allocate(b.capacity()*2);
+				_index.flip();
+				b.put(_index);
+			}
+			
+			b.putInt(_position);
+			b.putInt(_kduClassId);
+			b.putLong(_codestreamId);
+			b.putLong(_binId);
+			b.putInt(_offset);
+			b.putInt(_length);
+			b.put(_isFinal?(byte)1:(byte)0);
+			return b;
+		}
+		
+		private void addRecord(int _position, int _kduClassId, long _codestreamId, long _binId, int _offset, int _length, boolean _isFinal)
+		{
+			if(_kduClassId==EVICTION_CLASS_ID)
+			{
+				dropPrecincts(_codestreamId);
+				evictedCodestreams.add(_codestreamId);
+			}
+			else if(_kduClassId==METADATA_CLASS_ID)
+				metaDataPositions.put(_codestreamId, _position);
+			
+			index=putIndexEntry(index, _position, _kduClassId, _codestreamId, _binId, _offset, _length, _isFinal);
+			if(_kduClassId!=JPIPDatabinClass.PRECINCT_DATABIN.getKakaduClassID())
+				return;
+			
+			//precincts received after an eviction make the codestream available again
+			evictedCodestreams.remove(_codestreamId);
+			
+			List<Integer> positions=codestreamPositions.get(_codestreamId);
+			if(positions==null)
+				codestreamPositions.put(_codestreamId, positions=new ArrayList<Integer>());
+			
+			positions.add(_position);
+		}
+		
+		/**
+		 * Removes all precinct records of a codestream from the index, so they
+		 * won't be loaded anymore and get dropped by the next compaction.
+		 */
+		private void dropPrecincts(long _codestreamId)
+		{
+			int precinctClassId=JPIPDatabinClass.PRECINCT_DATABIN.getKakaduClassID();
+			int kept=0;
+			for(int e=0;e<index.position();e+=INDEX_ENTRY_SIZE)
+			{
+				if(index.getInt(e+4)==precinctClassId && index.getLong(e+8)==_codestreamId)
+				{
+					evictedBytes+=RECORD_OVERHEAD+index.getInt(e+28);
+					continue;
+				}
+				
+				if(kept!=e)
+					for(int i=0;i<INDEX_ENTRY_SIZE;i++)
+						index.put(kept+i, index.get(e+i));
+				kept+=INDEX_ENTRY_SIZE;
+			}
+			index.position(kept);
+			codestreamPositions.remove(_codestreamId);
+			
+			LinkedHashMap<Long,List<Bin>> codestreamBins=bins.get(_codestreamId);
+			if(codestreamBins!=null)
+				for(List<Bin> idBins:codestreamBins.values())
+					for(int i=idBins.size()-1;i>=0;i--)
+						if(idBins.get(i).Class==precinctClassId)
+						{
+							idBins.remove(i);
+							binCount--;
+						}
+		}
+		
+		boolean isEvicted(long _codestreamId)
+		{
+			return evictedCodestreams.contains(_codestreamId);
+		}
+		
+		/**
+		 * Returns the size of all precinct records of a codestream.
+		 */
+		long getCodestreamSize(long _codestreamId)
+		{
+			synchronized(backingFile)
+			{
+				List<Integer> positions=codestreamPositions.get(_codestreamId);
+				if(positions==null || disposed)
+					return 0;
+				
+				long size=0;
+				for(int pos:positions)
+					size+=RECORD_OVERHEAD+map.getInt(pos+RECORD_DATA_OFFSET-4);
+				return size;
+			}
+		}
+		
+		/**
+		 * Evicts the precincts of a codestream, while its headers stay cached.
+		 * The eviction is logged as a record of its own, so it survives
+		 * reopening the file. The space is reclaimed by the next compaction.
+		 *
+		 * @return the number of bytes which will be reclaimed
+		 */
+		long evictCodestream(long _codestreamId) throws IOException
 		{
-			byte[] strBytes=jpipURI.toString().getBytes(Charsets.UTF_8);
 			synchronized(backingFile)
 			{
-				int reqSpace = 4+4+4+2+strBytes.length+4+4+4+timeMS.length*8;
-				ensureSize(reqSpace);
+				if(disposed || evictedCodestreams.contains(_codestreamId))
+					return 0;
 				
-				map.position(0);
-				map.putInt(HEADER_MARKER); //10af header
-				map.putInt(sourceId);
+				long size=getCodestreamSize(_codestreamId);
+				if(size==0)
+					return 0;
 				
-				map.putInt(usedSize);
+				appendRecord(EVICTION_CLASS_ID, _codestreamId, 0, null, 0, 0, true);
+				return size;
+			}
+		}
+		
+		/**
+		 * Returns the serialized metadata stored by <code>putMetaData()</code>, or
+		 * <code>null</code> if there is none for this codestream.
+		 */
+		@Nullable byte[] getMetaData(long _codestreamId)
+		{
+			synchronized(backingFile)
+			{
+				Integer position=metaDataPositions.get(_codestreamId);
+				if(position==null)
+					return null;
 				
-				map.putShort((short)strBytes.length);
-				map.put(strBytes);
+				byte[] data=new byte[map.getInt(position+RECORD_DATA_OFFSET-4)];
+				map.position(position+RECORD_DATA_OFFSET);
+				map.get(data);
+				return data;
+			}
+		}
+		
+		void putMetaData(long _codestreamId, byte[] _data) throws IOException
+		{
+			synchronized(backingFile)
+			{
+				if(!metaDataPositions.containsKey(_codestreamId))
+					appendRecord(METADATA_CLASS_ID, _codestreamId, 0, _data, 0, _data.length, true);
+			}
+		}
+		
+		private void writeRecord(DataOutput _out, int _kduClassId, long _codestreamId, long _binId, byte[] _data, int _dataOffset, int _length, int _binOffset, boolean _isFinal) throws IOException
+		{
+			_out.writeInt(_kduClassId);
+			_out.writeLong(_codestreamId);
+			_out.writeLong(_binId);
+			_out.writeInt(_length);
+			if(_length>0)
+				_out.write(_data, _dataOffset, _length);
+			_out.writeInt(_binOffset);
+			_out.writeByte(_isFinal?(byte)1:(byte)0);
+			_out.writeInt(CacheFile.VALID_MARKER);
+		}
+		
+		private int headerSize()
+		{
+			return 4+4+4+2+jpipURI.toString().getBytes(Charsets.UTF_8).length+4+4+4+timeMS.length*8;
+		}
+		
+		private void writeHeader(ByteBuffer _b, int _usedSize)
+		{
+			byte[] strBytes=jpipURI.toString().getBytes(Charsets.UTF_8);
+			
+			_b.position(0);
+			_b.putInt(HEADER_MARKER); //10af header
+			_b.putInt(sourceId);
+			
+			_b.putInt(_usedSize);
+			
+			_b.putShort((short)strBytes.length);
+			_b.put(strBytes);
+			
+			_b.putInt(metaDatas.length); //frames
+			_b.putInt(areaLimit.get());
+			_b.putInt(qualityLayersLimit.get());
+			
+			for(int i=0;i<timeMS.length;i++)
+				_b.putLong(timeMS[i]);
+		}
+		
+		private void updateHeader() throws IOException
+		{
+			synchronized(backingFile)
+			{
+				ensureSize(headerSize());
+				writeHeader(map, usedSize);
+			}
+		}
+		
+		/**
+		 * Writes the index of all records behind the last one, so the file can be
+		 * opened without reading every record. The next record overwrites the
+		 * index again, which also invalidates it.
+		 */
+		void persistIndex() throws IOException
+		{
+			synchronized(backingFile)
+			{
+				if(indexPersisted || disposed || !loaded)
+					return;
 				
-				map.putInt(metaDatas.length); //frames
-				map.putInt(areaLimit.get());
-				map.putInt(qualityLayersLimit.get());
+				ensureCapacity(usedSize+4+4+index.position()+4);
+				map.position(usedSize);
+				map.putInt(INDEX_MARKER);
+				map.putInt(index.position()/INDEX_ENTRY_SIZE);
+				map.put(index.array(), 0, index.position());
+				map.putInt(VALID_MARKER);
 				
-				for(int i=0;i<timeMS.length;i++)
-					map.putLong(timeMS[i]);
+				//the header must not point to the index before it is complete
+				updateHeader();
+				map.force();
+				indexPersisted=true;
 			}
 		}
 		
@@ -271,86 +613,404 @@ public class MovieKduCacheBacked extends Movie
 		{
 			synchronized(backingFile)
 			{
-				//see also https://sourceforge.net/p/tuer/code/HEAD/tree/pre_beta/src/main/java/engine/misc/DeallocationHelper.java
-				@Nullable Cleaner c=((DirectBuffer)map).cleaner();
-				if(c!=null)
-					c.clean();
+				unmap(map);
 			}
 		}
 		
+		/**
+		 * Releases a mapping right away instead of waiting for the GC. The
+		 * buffer must not be accessed afterwards, so this may only be called
+		 * while holding the lock of <code>backingFile</code>.
+		 */
+		private void unmap(MappedByteBuffer _map)
+		{
+			//see also https://sourceforge.net/p/tuer/code/HEAD/tree/pre_beta/src/main/java/engine/misc/DeallocationHelper.java
+			@Nullable Cleaner c=((DirectBuffer)_map).cleaner();
+			if(c!=null)
+				c.clean();
+		}
+		
 		void ensureSize(int _newSize) throws IOException
 		{
 			if(_newSize<=usedSize)
 				return;
 			
 			usedSize=_newSize;
-			if(usedSize<=map.limit())
+			ensureCapacity(usedSize);
+		}
+		
+		private void ensureCapacity(int _size) throws IOException
+		{
+			if(_size<=map.limit())
 				return;
 			
+			//grow geometrically, so appending n records only remaps O(log n) times
 			try(RandomAccessFile raf=new RandomAccessFile(backingFile, "rw"))
 			{
-				raf.setLength(usedSize+(usedSize>>1)+128*1024);
+				long oldLength=raf.length();
+				raf.setLength(Math.max(_size+(_size>>1), (long)map.limit()*2)+128*1024);
+				MovieCache.notifyAboutChangedCacheSize(raf.length()-oldLength);
 			}
 			
+			MappedByteBuffer superseded=map;
 			map=Files.map(backingFile,MapMode.READ_WRITE);
+			unmap(superseded);
 		}
-
+		
 		void addToDatabin(int _kduClassId, long _codestreamId, long _binId, byte[] _data, int _offset, int _length, boolean _isFinal)
 		{
 			if(!updateBinInfo(_kduClassId, _codestreamId, _binId, _offset, _length, _isFinal))
 				return;
 			
-			try(ByteArrayOutputStream baos = new ByteArrayOutputStream(_length+4+8+8+4+4+1+1))
+			try
 			{
-				try(DataOutputStream dos = new DataOutputStream(baos))
+				synchronized(backingFile)
 				{
-					dos.writeInt(_kduClassId);
-					dos.writeLong(_codestreamId);
-					dos.writeLong(_binId);
-					dos.writeInt(_length);
-					if(_length>0)
-						dos.write(_data, 0, _length);
-					dos.writeInt(_offset);
-					dos.writeByte(_isFinal?(byte)1:(byte)0);
-					dos.writeInt(CacheFile.VALID_MARKER);
+					appendRecord(_kduClassId, _codestreamId, _binId, _data, _offset, _length, _isFinal);
+					compactIfFragmented();
 				}
+			}
+			catch (IOException _e)
+			{
+				Telemetry.trackException(_e);
+			}
+		}
+		
+		private void appendRecord(int _kduClassId, long _codestreamId, long _binId, @Nullable byte[] _data, int _offset, int _length, boolean _isFinal) throws IOException
+		{
+			synchronized(backingFile)
+			{
+				//reserve the space first and write the record right into the mapping
+				int oldLimit=usedSize;
+				ensureSize(oldLimit+RECORD_OVERHEAD+_length);
+				map.position(oldLimit);
+				map.putInt(_kduClassId);
+				map.putLong(_codestreamId);
+				map.putLong(_binId);
+				map.putInt(_length);
+				if(_data!=null && _length>0)
+					map.put(_data, 0, _length);
+				map.putInt(_offset);
+				map.put(_isFinal?(byte)1:(byte)0);
+				map.putInt(VALID_MARKER);
 				
-				byte[] data=baos.toByteArray();
-				
+				addRecord(oldLimit, _kduClassId, _codestreamId, _binId, _offset, _length, _isFinal);
+				indexPersisted=false;
+			}
+		}
+		
+		/**
+		 * Schedules a compaction once enough fragments of databins which are
+		 * already in the file have piled up.
+		 */
+		void compactIfFragmented()
+		{
+			synchronized(backingFile)
+			{
+				int records=index.position()/INDEX_ENTRY_SIZE;
+				int fragments=records-binCount;
+				boolean fragmented=fragments-fragmentsAfterCompaction>=COMPACTION_MIN_FRAGMENTS && fragments>=records/4;
+				if(!fragmented && evictedBytes<usedSize/4)
+					return;
+			}
+			
+			if(compacting.compareAndSet(false, true))
+				cacheCompactor.submit(() ->
+					{
+						try
+						{
+							compact();
+						}
+						finally
+						{
+							compacting.set(false);
+						}
+					});
+		}
+		
+		private int compareDatabins(ByteBuffer _index, int _entryA, int _entryB)
+		{
+			int a=_entryA*INDEX_ENTRY_SIZE;
+			int b=_entryB*INDEX_ENTRY_SIZE;
+			
+			int c=Long.compare(_index.getLong(a+8), _index.getLong(b+8));
+			if(c==0)
+				c=Integer.compare(_index.getInt(a+4), _index.getInt(b+4));
+			if(c==0)
+				c=Long.compare(_index.getLong(a+16), _index.getLong(b+16));
+			return c;
+		}
+		
+		/**
+		 * Rewrites the file with all fragments of a databin merged into
+		 * contiguous records, grouped by codestream. The new file only replaces
+		 * the old one after it was written completely, so a crash leaves one of
+		 * them intact.
+		 *
+		 * The records are copied without holding the lock of the file, so
+		 * databins can still be appended in the meantime. Those get carried
+		 * over when the files are swapped.
+		 */
+		void compact()
+		{
+			synchronized(compactionLock)
+			{
+				int records;
+				int snapshotSize;
+				ByteBuffer snapshot;
 				synchronized(backingFile)
 				{
-					if(_kduClassId==JPIPDatabinClass.PRECINCT_DATABIN.getKakaduClassID())
+					if(disposed || !loaded)
+						return;
+					
+					//records before the snapshot size never change, so they can be read without the lock
+					records=index.position()/INDEX_ENTRY_SIZE;
+					snapshotSize=usedSize;
+					snapshot=ByteBuffer.allocate(index.position());
+					snapshot.put(index.array(), 0, index.position());
+				}
+				
+				File compacted=null;
+				try
+				{
+					Integer[] order=new Integer[records];
+					for(int i=0;i<records;i++)
+						order[i]=i;
+					
+					//the sort is stable, so later fragments of a databin still win
+					Arrays.sort(order, (_a, _b) -> compareDatabins(snapshot, _a, _b));
+					
+					int headerSize=headerSize();
+					ByteBuffer compactedIndex=ByteBuffer.allocate(Math.max(snapshot.capacity(), INDEX_ENTRY_SIZE));
+					
+					compacted=File.createTempFile(sourceId+"-jhv", COMPACTION_SUFFIX, MovieCache.CACHE_DIR);
+					try(FileChannel channel=FileChannel.open(compacted.toPath(), StandardOpenOption.WRITE))
 					{
-						List<Integer> positions=codestreamPositions.get(_codestreamId);
-						if(positions==null)
-							codestreamPositions.put(_codestreamId, positions=new ArrayList<Integer>());
+						int recordsEnd;
+						try(FileChannel source=FileChannel.open(backingFile.toPath(), StandardOpenOption.READ))
+						{
+							channel.position(headerSize);
+							DataOutputStream out=new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 65536));
+							BitSet received=new BitSet();
+							
+							for(int first=0;first<records;)
+							{
+								int last=first+1;
+								while(last<records && compareDatabins(snapshot, order[first], order[last])==0)
+									last++;
+								
+								int e=order[first]*INDEX_ENTRY_SIZE;
+								int kduClassId=snapshot.getInt(e+4);
+								long codestreamId=snapshot.getLong(e+8);
+								long binId=snapshot.getLong(e+16);
+								
+								int length=0;
+								int finalLength=-1;
+								for(int i=first;i<last;i++)
+								{
+									e=order[i]*INDEX_ENTRY_SIZE;
+									int end=snapshot.getInt(e+24)+snapshot.getInt(e+28);
+									length=Math.max(length, end);
+									if(snapshot.get(e+32)!=0)
+										finalLength=end;
+								}
+								
+								byte[] data=new byte[length];
+								received.clear();
+								for(int i=first;i<last;i++)
+								{
+									e=order[i]*INDEX_ENTRY_SIZE;
+									int offset=snapshot.getInt(e+24);
+									int fragmentLength=snapshot.getInt(e+28);
+									read(source, data, offset, fragmentLength, snapshot.getInt(e)+RECORD_DATA_OFFSET);
+									received.set(offset, offset+fragmentLength);
+								}
+								
+								//holes stay separate records
+								boolean finalWritten=false;
+								int start=received.nextSetBit(0);
+								while(start>=0)
+								{
+									int end=received.nextClearBit(start);
+									boolean isFinal=end==finalLength;
+									finalWritten|=isFinal;
+									
+									compactedIndex=putIndexEntry(compactedIndex, headerSize+out.size(), kduClassId, codestreamId, binId, start, end-start, isFinal);
+									writeRecord(out, kduClassId, codestreamId, binId, data, start, end-start, start, isFinal);
+									start=received.nextSetBit(end);
+								}
+								
+								if(finalLength>=0 && !finalWritten)
+								{
+									compactedIndex=putIndexEntry(compactedIndex, headerSize+out.size(), kduClassId, codestreamId, binId, finalLength, 0, true);
+									writeRecord(out, kduClassId, codestreamId, binId, data, 0, 0, finalLength, true);
+								}
+								
+								first=last;
+							}
+							
+							out.flush();
+							recordsEnd=headerSize+out.size();
+						}
 						
-						positions.add(usedSize);
+						synchronized(backingFile)
+						{
+							if(disposed)
+								return;
+							
+							swap(channel, compacted, compactedIndex, recordsEnd, snapshotSize);
+							compacted=null;
+						}
 					}
-					
-					int oldLimit=usedSize;
-					ensureSize(oldLimit+data.length);
-					map.position(oldLimit);
-					map.put(data);
 				}
-				
-				//TODO: defragment/compact periodically
-				defragment();
+				catch(IOException _e)
+				{
+					Telemetry.trackException(_e);
+				}
+				finally
+				{
+					if(compacted!=null && !compacted.delete())
+						Telemetry.trackException(new IOException("Cache: Could not delete "+compacted.getAbsolutePath()));
+				}
 			}
-			catch (IOException _e)
+		}
+		
+		/**
+		 * Completes the compacted file with the records appended since the
+		 * snapshot was taken, and replaces the current file with it. Has to be
+		 * called while holding the lock of <code>backingFile</code>.
+		 */
+		private void swap(FileChannel _channel, File _compacted, ByteBuffer _compactedIndex, int _recordsEnd, int _snapshotSize) throws IOException
+		{
+			//carry over the records appended in the meantime as they are
+			int appended=usedSize-_snapshotSize;
+			ByteBuffer tail=ByteBuffer.allocate(appended+4+4+(_compactedIndex.position()+index.position())+4);
+			ByteBuffer records=map.duplicate();
+			records.position(_snapshotSize).limit(usedSize);
+			tail.put(records);
+			
+			//precincts of codestreams evicted in the meantime are still part of the compacted records
+			Set<Long> evicted=new HashSet<>();
+			for(int e=0;e<index.position();e+=INDEX_ENTRY_SIZE)
+				if(index.getInt(e)>=_snapshotSize && index.getInt(e+4)==EVICTION_CLASS_ID)
+					evicted.add(index.getLong(e+8));
+			
+			int precinctClassId=JPIPDatabinClass.PRECINCT_DATABIN.getKakaduClassID();
+			ByteBuffer newIndex=ByteBuffer.allocate(Math.max(index.capacity(), _compactedIndex.position()+index.position()));
+			long newEvictedBytes=0;
+			for(int e=0;e<_compactedIndex.position();e+=INDEX_ENTRY_SIZE)
+				if(_compactedIndex.getInt(e+4)==precinctClassId && evicted.contains(_compactedIndex.getLong(e+8)))
+					newEvictedBytes+=RECORD_OVERHEAD+_compactedIndex.getInt(e+28);
+				else
+					newIndex.put(_compactedIndex.array(), e, INDEX_ENTRY_SIZE);
+			
+			for(int e=0;e<index.position();e+=INDEX_ENTRY_SIZE)
+				if(index.getInt(e)>=_snapshotSize)
+				{
+					newIndex.putInt(index.getInt(e)-_snapshotSize+_recordsEnd);
+					newIndex.put(index.array(), e+4, INDEX_ENTRY_SIZE-4);
+				}
+			
+			int compactedSize=_recordsEnd+appended;
+			tail.putInt(INDEX_MARKER);
+			tail.putInt(newIndex.position()/INDEX_ENTRY_SIZE);
+			tail.put(newIndex.array(), 0, newIndex.position());
+			tail.putInt(VALID_MARKER);
+			tail.flip();
+			while(tail.hasRemaining())
+				_channel.write(tail, _recordsEnd+tail.position());
+			
+			int headerSize=headerSize();
+			ByteBuffer header=ByteBuffer.allocate(headerSize);
+			writeHeader(header, compactedSize);
+			header.flip();
+			while(header.hasRemaining())
+				_channel.write(header, header.position());
+			
+			_channel.force(true);
+			
+			//files can't be replaced while they are mapped on some platforms
+			long oldLength=backingFile.length();
+			unmap(map);
+			try
 			{
-				Telemetry.trackException(_e);
+				java.nio.file.Files.move(_compacted.toPath(), backingFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			finally
+			{
+				map=Files.map(backingFile, MapMode.READ_WRITE);
 			}
+			MovieCache.notifyAboutChangedCacheSize(backingFile.length()-oldLength);
+			
+			Telemetry.trackMetric("Cache file compaction saved KB", (usedSize-compactedSize)/1024d);
+			
+			usedSize=compactedSize;
+			index=newIndex;
+			indexPersisted=true;
+			evictedBytes=newEvictedBytes;
+			fragmentsAfterCompaction=index.position()/INDEX_ENTRY_SIZE-binCount;
+			
+			codestreamPositions.clear();
+			metaDataPositions.clear();
+			for(int e=0;e<index.position();e+=INDEX_ENTRY_SIZE)
+				if(index.getInt(e+4)==METADATA_CLASS_ID)
+					metaDataPositions.put(index.getLong(e+8), index.getInt(e));
+				else if(index.getInt(e+4)==precinctClassId)
+				{
+					List<Integer> positions=codestreamPositions.get(index.getLong(e+8));
+					if(positions==null)
+						codestreamPositions.put(index.getLong(e+8), positions=new ArrayList<Integer>());
+					
+					positions.add(index.getInt(e));
+				}
 		}
 		
+		private void read(FileChannel _channel, byte[] _data, int _offset, int _length, long _position) throws IOException
+		{
+			ByteBuffer b=ByteBuffer.wrap(_data, _offset, _length);
+			while(b.hasRemaining())
+				if(_channel.read(b, _position+b.position()-_offset)<0)
+					throw new EOFException("Cache file ended within a record");
+		}
 	}
-	
+
 	private final Kdu_cache kduCache = new Kdu_cache();
 	private CacheFile cache;
 	public final AtomicInteger areaLimit;
 	public final AtomicInteger qualityLayersLimit;
 
 	public final URI jpipURI;
+	public final JPIPSession jpipSession = new JPIPSession();
+	
+	//regions received completely by region of interest requests, see isRegionCached()
+	private final ArrayList<CachedRegion> cachedRegions = new ArrayList<>();
+	
+	private static class CachedRegion
+	{
+		final Rectangle2D area;
+		final int width;
+		final int height;
+		final int qualityLayers;
+		
+		CachedRegion(Rectangle2D _area, int _width, int _height, int _qualityLayers)
+		{
+			area=_area;
+			width=_width;
+			height=_height;
+			qualityLayers=_qualityLayers;
+		}
+		
+		boolean covers(Rectangle2D _area, int _width, int _height, int _qualityLayers)
+		{
+			return width>=_width && height>=_height && qualityLayers>=_qualityLayers && area.contains(_area);
+		}
+	}
+	private final long[] frameAccessedMS;
+	
+	/** Movies accessed or written to within this time are considered in use */
+	public static final long IN_USE_MS = 60000;
+	
+	private volatile long lastUsedMS=System.currentTimeMillis();
 
 	public MovieKduCacheBacked(int _sourceId, int _frameCount, URI _jpipURI) throws IOException
 	{
@@ -364,6 +1024,8 @@ public class MovieKduCacheBacked extends Movie
 		timeMS = new long[_frameCount];
 		
 		cache=new CacheFile();
+		frameAccessedMS=new long[_frameCount];
+		Arrays.fill(frameAccessedMS, System.currentTimeMillis());
 		
 		try
 		{
@@ -390,6 +1052,22 @@ public class MovieKduCacheBacked extends Movie
 		}
 	});
 	
+	/** Suffix of cache files which are still being compacted */
+	public static final String COMPACTION_SUFFIX = ".compact";
+	
+	private static final ExecutorService cacheCompactor = Executors.newSingleThreadExecutor(new ThreadFactory()
+	{
+		@Override
+		public Thread newThread(@Nullable Runnable r)
+		{
+			Thread t = new Thread(r);
+			t.setName("Cache file compactor");
+			t.setDaemon(true);
+			t.setPriority(Thread.MIN_PRIORITY);
+			return t;
+		}
+	});
+	
 	private HashMap<Long,ScheduledFuture<?>> removeCachedCodestream=new HashMap<>();
 	private HashMap<Long,Integer> cachedCodestreams=new HashMap<>();
 	
@@ -423,6 +1101,7 @@ public class MovieKduCacheBacked extends Movie
 						removeCachedCodestream.remove(_codestreamId);
 						try
 						{
+							invalidateCodestream(_codestreamId);
 							kduCache.Delete_stream_class(JPIPDatabinClass.PRECINCT_DATABIN.getKakaduClassID(), _codestreamId);
 							//kduCache.Trim_to_preferred_memory_limit();
 						}
@@ -498,15 +1177,50 @@ public class MovieKduCacheBacked extends Movie
 
 		cache = new CacheFile(_backingFile);
 		jpipURI = cache.readURI();
+		
+		//access times of single frames aren't persisted, the file was touched whenever one was accessed
+		frameAccessedMS=new long[timeMS.length];
+		Arrays.fill(frameAccessedMS, _backingFile.lastModified());
+		lastUsedMS=_backingFile.lastModified();
+	}
+	
+	public boolean isLoaded()
+	{
+		return cache.isLoaded();
+	}
+	
+	/**
+	 * Loads the cached data of a movie opened from a cache file, which only
+	 * read its header so far. Frames which turn out to be evicted get
+	 * reported to the <code>MovieCache</code>.
+	 *
+	 * @return <code>false</code> if the movie was disposed in the meantime
+	 */
+	public synchronized boolean load() throws IOException
+	{
+		if(disposed)
+			return false;
+		if(cache.isLoaded())
+			return true;
+		
+		long start=System.nanoTime();
+		cache.load();
 		try
 		{
 			family_src.Open(kduCache);
 		}
 		catch (KduException _e)
 		{
-			cache.unmap();
 			throw new IOException("Could not open with Kakadu",_e);
 		}
+		
+		for(int i=0;i<timeMS.length;i++)
+			if(cache.isEvicted(i))
+				MovieCache.notifyAboutEvictedFrame(this, i);
+		
+		cache.compactIfFragmented();
+		Telemetry.trackMetric("Cache file load ms", (System.nanoTime()-start)/1000000d);
+		return true;
 	}
 	
 	
@@ -565,6 +1279,7 @@ public class MovieKduCacheBacked extends Movie
 		if(areaLimit.get() >= md.resolution.x*md.resolution.y && areaLimit.get()!=Integer.MAX_VALUE)
 		{
 			areaLimit.set(Integer.MAX_VALUE);
+			MovieCache.notifyAboutUpgradedQuality(this);
 			try
 			{
 				cache.updateHeader();
@@ -586,7 +1301,13 @@ public class MovieKduCacheBacked extends Movie
 		try
 		{
 			if(_kduClassId!=JPIPDatabinClass.PRECINCT_DATABIN.getKakaduClassID() || cachedCodestreams.containsKey(_codestreamId))
+			{
 				kduCache.Add_to_databin(_kduClassId, _codestreamId, _binId, _data, _offset, _length, _isFinal, true, false);
+				
+				//headers are parsed when a codestream is opened, so open ones have to be reopened
+				if(_kduClassId==JPIPDatabinClass.MAIN_HEADER_DATABIN.getKakaduClassID() || _kduClassId==JPIPDatabinClass.TILE_HEADER_DATABIN.getKakaduClassID())
+					invalidateCodestream(_codestreamId);
+			}
 			
 			if(timeMS[(int)_codestreamId]==0)
 			{
@@ -601,169 +1322,116 @@ public class MovieKduCacheBacked extends Movie
 			return;
 		}
 		
+		lastUsedMS=System.currentTimeMillis();
+		boolean evicted=cache.isEvicted(_codestreamId);
 		cache.addToDatabin(_kduClassId, _codestreamId, _binId, _data, _offset, _length, _isFinal);
+		if(evicted && !cache.isEvicted(_codestreamId))
+			MovieCache.notifyAboutAvailableFrame(this, (int)_codestreamId);
 	}
-
-	private void defragment() throws IOException
+	
+	/**
+	 * Restores the metadata of a frame from the cache file, and stores it there
+	 * after parsing it from the XML box otherwise.
+	 */
+	@Override
+	protected @Nullable MetaData readMetaData(int _index)
 	{
-		/*File backingFile2 = File.createTempFile(sourceId+"-jhv", null, MovieCache.CACHE_DIR);
-		MappedByteBuffer map2=Files.map(backingFile2, MapMode.READ_WRITE);
-		int usedSize2=0;
-		
-		synchronized(backingFile)
+		if(cache.isLoaded())
 		{
-			map2=updateHeader(backingFile2, map2);
-			
-		}
-		
-		
-		
-		
-			try
-			{
-				byte[] strBytes = new byte[map.getShort()];
-				map.get(strBytes);
-				jpipURI = new URI(new String(strBytes, Charsets.UTF_8));
-			}
-			catch (URISyntaxException _e)
+			byte[] data=cache.getMetaData(_index);
+			if(data!=null)
 			{
-				throw new IOException("Invalid URI",_e);
-			}
-			
-			metaDatas = new MetaData[map.getInt()];
-			areaLimit = new AtomicInteger(map.getInt());
-			qualityLayersLimit = new AtomicInteger(map.getInt());
-			
-			timeMS = new long[metaDatas.length];
-			for(int i=0;i<timeMS.length;i++)
-				timeMS[i]=map.getLong();
-			
-			for(;;)
-			{
-				if(map.position()==usedSize)
-					break;
-				
-				int startPos = map.position();
-				
-				
-				int kduClassId = map.getInt();
-				long codestreamId = map.getLong();
-				long binId = map.getLong();
-				int dataLength = map.getInt();
-				byte[] data = null;
-				if(dataLength>0)
-				{
-					if(kduClassId!=JPIPDatabinClass.PRECINCT_DATABIN.getKakaduClassID())
-					{
-						data = new byte[dataLength];
-						map.get(data);
-					}
-					else
-					{
-						map.position(map.position()+dataLength);
-					}
-				}
-				int offset = map.getInt();
-				boolean isFinal = map.get()!=0;
-				
-				if(map.getInt()!=VALID_MARKER)
-				{
-					Telemetry.trackException(new Exception("Invalid marker - shortening file from "+usedSize+" by "+(usedSize-startPos)));
-					usedSize=startPos;
-					map=updateHeader(backingFile,map);
-					break;
-				}
-				
-				if(kduClassId!=JPIPDatabinClass.PRECINCT_DATABIN.getKakaduClassID())
-					try
-					{
-						kduCache.Add_to_databin(kduClassId, codestreamId, binId, data, offset, dataLength, isFinal, true, false);
-					}
-					catch(KduException _e)
-					{
-						Telemetry.trackException(new Exception("KduException "+_e+" - shortening file from "+usedSize+" by "+(usedSize-startPos)));
-						usedSize=startPos;
-						map=updateHeader(backingFile,map);
-						break;
-					}
-				else
-				{
-					List<Integer> positions=codestreamPositions.get(codestreamId);
-					if(positions==null)
-						codestreamPositions.put(codestreamId, positions=new ArrayList<Integer>());
-					
-					positions.add(startPos);
-				}
+				MetaData md=MetaDataFactory.deserialize(data);
+				if(md!=null)
+					return md;
 			}
-			
+		}
+		
+		MetaData md=super.readMetaData(_index);
+		if(md!=null && cache.isLoaded() && !disposed)
 			try
 			{
-				family_src.Open(kduCache);
+				cache.putMetaData(_index, MetaDataFactory.serialize(md));
 			}
-			catch (KduException _e)
+			catch(IOException _e)
 			{
-				throw new IOException("Could not open with Kakadu",_e);
+				Telemetry.trackException(_e);
 			}
-
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		
-		*/
-		
+		return md;
+	}
+	
+	@Override
+	public boolean isFrameAvailable(int _index)
+	{
+		return !cache.isEvicted(_index);
 	}
 	
-	public void notifyAboutUpgradedQuality(int _area, int _qualityLayers)
+	public long getFrameAccessedMS(int _index)
 	{
-		for(;;)
+		return frameAccessedMS[_index];
+	}
+	
+	/**
+	 * Evicts the image data of a single frame from the cache, unless it is
+	 * being decoded right now. Its metadata stays available.
+	 *
+	 * @return the number of bytes which will be reclaimed by the next compaction
+	 */
+	public synchronized long evictFrame(int _index)
+	{
+		long codestreamId=_index;
+		if(disposed || cachedCodestreams.getOrDefault(codestreamId,0)>0)
+			return 0;
+		
+		try
 		{
-			int curArea = areaLimit.get();
-			if(curArea>=_area)
-				break;
+			ScheduledFuture<?> removal=removeCachedCodestream.remove(codestreamId);
+			if(removal!=null)
+			{
+				removal.cancel(false);
+				cachedCodestreams.remove(codestreamId);
+				invalidateCodestream(codestreamId);
+				kduCache.Delete_stream_class(JPIPDatabinClass.PRECINCT_DATABIN.getKakaduClassID(), codestreamId);
+			}
 			
-			if(areaLimit.compareAndSet(curArea, _area))
-				break;
+			return cache.evictCodestream(codestreamId);
 		}
+		catch(KduException|IOException _e)
+		{
+			Telemetry.trackException(_e);
+			return 0;
+		}
+	}
+	
+	/**
+	 * Rewrites the cache file right away, e.g. to reclaim the space of evicted frames.
+	 */
+	public void compactCache()
+	{
+		cache.compact();
+	}
+
+	/**
+	 * Has to be called after the whole frames were received at the given
+	 * resolution and number of quality layers. The quality layers only count
+	 * for the largest resolution received so far, as requests for a higher
+	 * resolution may ask for fewer layers than earlier ones.
+	 */
+	public synchronized void notifyAboutUpgradedQuality(int _area, int _qualityLayers)
+	{
+		int curArea = areaLimit.get();
+		if(_area<curArea)
+			return;
 		
-		for(;;)
+		if(_area>curArea)
 		{
-			int curQL = qualityLayersLimit.get();
-			if(curQL>=_qualityLayers)
-				break;
-			
-			if(qualityLayersLimit.compareAndSet(curQL, _qualityLayers))
-				break;
+			qualityLayersLimit.set(_qualityLayers);
+			areaLimit.set(_area);
 		}
+		else if(_qualityLayers>qualityLayersLimit.get())
+			qualityLayersLimit.set(_qualityLayers);
+		
+		MovieCache.notifyAboutUpgradedQuality(this);
 		
 		try
 		{
@@ -775,12 +1443,43 @@ public class MovieKduCacheBacked extends Movie
 		}
 	}
 	
+	/**
+	 * Returns whether the precincts of the given area (relative to the whole
+	 * image) were already received for all frames, at the given resolution and
+	 * number of quality layers. This is the case if either the whole frames or
+	 * a region of interest containing the area were downloaded completely.
+	 */
+	public synchronized boolean isRegionCached(Rectangle2D _area, int _width, int _height, int _qualityLayers)
+	{
+		//the quality layers received count for smaller areas as well, but so far no more of them
+		int area=_width*_height;
+		if(area<=areaLimit.get() && _qualityLayers<=qualityLayersLimit.get())
+			return true;
+		
+		for(CachedRegion r:cachedRegions)
+			if(r.covers(_area, _width, _height, _qualityLayers))
+				return true;
+		
+		return false;
+	}
+	
+	/**
+	 * Has to be called when a region of interest request was answered
+	 * completely.
+	 */
+	public synchronized void notifyAboutCachedRegion(Rectangle2D _area, int _width, int _height, int _qualityLayers)
+	{
+		cachedRegions.removeIf(r -> new CachedRegion(_area, _width, _height, _qualityLayers).covers(r.area, r.width, r.height, r.qualityLayers));
+		cachedRegions.add(new CachedRegion(_area, _width, _height, _qualityLayers));
+	}
+	
 	@Override
 	public void dispose()
 	{
 		if(disposed)
 			return;
 		
+		persistIndex();
 		super.dispose();
 		
 		cache.unmap();
@@ -832,6 +1531,21 @@ public class MovieKduCacheBacked extends Movie
 	
 	private AtomicBoolean touching=new AtomicBoolean();
 	
+	public void touch(int _frame)
+	{
+		frameAccessedMS[_frame]=lastUsedMS=System.currentTimeMillis();
+		touch();
+	}
+	
+	/**
+	 * Returns whether the movie is being decoded, or was accessed or written
+	 * to recently. Such movies shouldn't be removed from the cache.
+	 */
+	public synchronized boolean isInUse()
+	{
+		return !cachedCodestreams.isEmpty() || System.currentTimeMillis()-lastUsedMS<IN_USE_MS;
+	}
+	
 	public void touch()
 	{
 		if(System.currentTimeMillis()<=lastTouched+60000)
@@ -840,7 +1554,7 @@ public class MovieKduCacheBacked extends Movie
 		if(touching.compareAndSet(false, true))
 			lruFileToucher.submit(() ->
 				{
-					cache.map.force();
+					cache.persistIndex();
 					cache.backingFile.setLastModified(System.currentTimeMillis());
 					lastTouched = System.currentTimeMillis();
 					touching.lazySet(false);
@@ -852,4 +1566,19 @@ public class MovieKduCacheBacked extends Movie
 	{
 		return cache.backingFile;
 	}
+	
+	/**
+	 * Stores the index of the cache file, so it can be opened quickly next time.
+	 */
+	public void persistIndex()
+	{
+		try
+		{
+			cache.persistIndex();
+		}
+		catch(IOException _e)
+		{
+			Telemetry.trackException(_e);
+		}
+	}
 }
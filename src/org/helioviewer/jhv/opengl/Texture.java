@@ -2,6 +2,8 @@ package org.helioviewer.jhv.opengl;
 
 import java.awt.image.BufferedImage;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
 
 import javax.annotation.Nullable;
 
@@ -13,6 +15,8 @@ import org.helioviewer.jhv.viewmodel.TimeLine.DecodeQualityLevel;
 
 import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GL3ES3;
+import com.jogamp.opengl.GLContext;
 
 public class Texture
 {
@@ -35,11 +39,31 @@ public class Texture
 	//   2. textures will be used sequentially
 	//            --> the flags will be cleared again
 	public boolean usedByCurrentRenderPass = false;
+	
+	//set while a decoder works on this texture ahead of time. the texture
+	//must neither be used nor reassigned until the flag is cleared.
+	public volatile boolean reservedForPrefetch = false;
+	
+	//the content was decoded ahead of time and hasn't been used yet
+	public boolean prefetched = false;
 
 	//this may be used to hold temporary data, that will be uploaded
 	//to this texture
 	public @Nullable ByteBuffer uploadBuffer;
 	
+	//direct buffers are expensive to allocate, so they are recycled between
+	//all textures. buffers are bucketed by their (power of two) capacity.
+	private static final int MAX_POOLED_BUFFERS_PER_SIZE = 2;
+	private static final HashMap<Integer,ArrayDeque<ByteBuffer>> uploadBufferPool = new HashMap<>();
+	
+	//when decoding on a GL worker, the upload buffer can be a mapped pixel buffer
+	//object instead. the texture is then uploaded by the worker, and the render
+	//thread only has to wait for the upload fence.
+	private static @Nullable Boolean pixelBuffersSupported;
+	private int pixelBuffer;
+	private boolean pixelBufferMapped;
+	private long uploadFence;
+	
 	
 	public Texture(GL2 gl)
 	{
@@ -149,6 +173,57 @@ public class Texture
 	    return buffer;
 	}
 
+	/**
+	 * Has to be called after the upload buffer was filled. If it is a mapped
+	 * pixel buffer, the texture gets uploaded right away. Otherwise the upload
+	 * is deferred to the next time the texture gets rendered.
+	 */
+	public void uploadBufferFilled(ImageLayer _source, long _timeMS, ImageRegion _imageRegion)
+	{
+		if(pixelBufferMapped)
+			uploadByteBuffer(GLContext.getCurrentGL().getGL2(), _source, _timeMS, _imageRegion);
+		else
+			setPendingUpload(_source, _timeMS, _imageRegion);
+	}
+	
+	/**
+	 * Has to be called if the upload buffer couldn't be filled.
+	 */
+	public void discardUploadBuffer()
+	{
+		if(!pixelBufferMapped)
+			return;
+		
+		GL2 gl=GLContext.getCurrentGL().getGL2();
+		gl.glBindBuffer(GL2.GL_PIXEL_UNPACK_BUFFER, pixelBuffer);
+		gl.glUnmapBuffer(GL2.GL_PIXEL_UNPACK_BUFFER);
+		gl.glBindBuffer(GL2.GL_PIXEL_UNPACK_BUFFER, 0);
+		pixelBufferMapped=false;
+		uploadBuffer=null;
+	}
+	
+	/**
+	 * Makes sure that a texture uploaded by a GL worker is ready to be used
+	 * by the current context.
+	 */
+	public void waitForUpload(GL2 gl)
+	{
+		if(uploadFence==0)
+			return;
+		
+		gl.getGL3ES3().glWaitSync(uploadFence, 0, GL2.GL_TIMEOUT_IGNORED);
+		gl.getGL3ES3().glDeleteSync(uploadFence);
+		uploadFence=0;
+	}
+	
+	private static boolean arePixelBuffersSupported(GL2 gl)
+	{
+		if(pixelBuffersSupported==null)
+			pixelBuffersSupported=gl.isExtensionAvailable("GL_ARB_pixel_buffer_object") && gl.isFunctionAvailable("glMapBuffer");
+		
+		return pixelBuffersSupported;
+	}
+	
 	public void uploadByteBuffer(GL2 gl, ImageLayer _source, long _timeMS, ImageRegion _imageRegion)
 	{
 		source = _source;
@@ -179,7 +254,29 @@ public class Texture
 		b.flip();
 		gl.glTexSubImage2D(GL.GL_TEXTURE_2D, 0, 0, 0, width, height, GL2.GL_ABGR_EXT, GL2.GL_UNSIGNED_BYTE, b);*/
 		
-		gl.glTexSubImage2D(GL.GL_TEXTURE_2D, 0, 0, 0, _imageRegion.texels.width, _imageRegion.texels.height, /*GL2.GL_ABGR_EXT*/ GL2.GL_RED, GL2.GL_UNSIGNED_BYTE, uploadBuffer);
+		if(pixelBufferMapped)
+		{
+			gl.glBindBuffer(GL2.GL_PIXEL_UNPACK_BUFFER, pixelBuffer);
+			gl.glUnmapBuffer(GL2.GL_PIXEL_UNPACK_BUFFER);
+			pixelBufferMapped=false;
+			uploadBuffer=null;
+			
+			gl.glTexSubImage2D(GL.GL_TEXTURE_2D, 0, 0, 0, _imageRegion.texels.width, _imageRegion.texels.height, GL2.GL_RED, GL2.GL_UNSIGNED_BYTE, 0);
+			gl.glBindBuffer(GL2.GL_PIXEL_UNPACK_BUFFER, 0);
+			
+			//other contexts must not use the texture before the upload has finished
+			if(gl.isGL3ES3())
+			{
+				if(uploadFence!=0)
+					gl.getGL3ES3().glDeleteSync(uploadFence);
+				uploadFence=gl.getGL3ES3().glFenceSync(GL3ES3.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+				gl.glFlush();
+			}
+			else
+				gl.glFinish();
+		}
+		else
+			gl.glTexSubImage2D(GL.GL_TEXTURE_2D, 0, 0, 0, _imageRegion.texels.width, _imageRegion.texels.height, /*GL2.GL_ABGR_EXT*/ GL2.GL_RED, GL2.GL_UNSIGNED_BYTE, uploadBuffer);
 		
 		textureWidth=_imageRegion.texels.width / (float)width;
 		textureHeight=_imageRegion.texels.height / (float)height;
@@ -261,6 +358,7 @@ public class Texture
 
 	public void invalidate()
 	{
+		prefetched=false;
 		if(imageRegion==null)
 			return;
 		
@@ -268,6 +366,18 @@ public class Texture
 		needsUpload=false;
 	}
 	
+	/**
+	 * Marks the content of the upload buffer as the given image, which will
+	 * be uploaded whenever the texture gets rendered.
+	 */
+	public void setPendingUpload(Object _source, long _timeMS, ImageRegion _imageRegion)
+	{
+		source = _source;
+		timeMS = _timeMS;
+		imageRegion = _imageRegion;
+		needsUpload = true;
+	}
+	
 	public void allocateTexture(GL2 gl, int _width, int _height, int _internalFormat)
 	{
 		width = _width;
@@ -302,8 +412,85 @@ public class Texture
 
 	public void prepareUploadBuffer(int _width, int _height)
 	{
-		//39s
-		if(uploadBuffer==null || uploadBuffer.limit()<_width*_height)
-			uploadBuffer=ByteBuffer.allocateDirect(_width*_height); //.order(ByteOrder.nativeOrder());
+		GLContext context=GLContext.getCurrent();
+		if(context!=null && arePixelBuffersSupported(context.getGL().getGL2()))
+		{
+			mapPixelBuffer(context.getGL().getGL2(), _width*_height);
+			return;
+		}
+		
+		int capacity=MathUtils.nextPowerOfTwo(_width*_height);
+		if(uploadBuffer!=null && uploadBuffer.capacity()==capacity)
+		{
+			uploadBuffer.clear();
+			return;
+		}
+		
+		if(uploadBuffer!=null)
+			releaseUploadBuffer(uploadBuffer);
+		uploadBuffer=acquireUploadBuffer(capacity);
+	}
+	
+	private void mapPixelBuffer(GL2 gl, int _size)
+	{
+		if(uploadBuffer!=null && !pixelBufferMapped)
+			releaseUploadBuffer(uploadBuffer);
+		
+		if(pixelBuffer==0)
+		{
+			int tmp[] = new int[1];
+			gl.glGenBuffers(1, tmp, 0);
+			pixelBuffer = tmp[0];
+		}
+		
+		gl.glBindBuffer(GL2.GL_PIXEL_UNPACK_BUFFER, pixelBuffer);
+		if(pixelBufferMapped)
+			gl.glUnmapBuffer(GL2.GL_PIXEL_UNPACK_BUFFER);
+		
+		//orphan the previous storage, so we don't have to wait for pending uploads
+		gl.glBufferData(GL2.GL_PIXEL_UNPACK_BUFFER, _size, null, GL2.GL_STREAM_DRAW);
+		uploadBuffer=gl.glMapBuffer(GL2.GL_PIXEL_UNPACK_BUFFER, GL2.GL_WRITE_ONLY);
+		gl.glBindBuffer(GL2.GL_PIXEL_UNPACK_BUFFER, 0);
+		pixelBufferMapped=true;
+	}
+	
+	/**
+	 * Returns a view of the given part of the upload buffer. Views of disjoint
+	 * parts can be filled concurrently without any synchronization.
+	 */
+	public ByteBuffer getUploadBufferSlice(int _offset, int _length)
+	{
+		ByteBuffer slice=uploadBuffer.duplicate();
+		slice.limit(_offset+_length);
+		slice.position(_offset);
+		return slice.slice();
+	}
+	
+	private static ByteBuffer acquireUploadBuffer(int _capacity)
+	{
+		synchronized(uploadBufferPool)
+		{
+			ArrayDeque<ByteBuffer> bucket=uploadBufferPool.get(_capacity);
+			if(bucket!=null && !bucket.isEmpty())
+				return bucket.pop();
+		}
+		
+		return ByteBuffer.allocateDirect(_capacity);
+	}
+	
+	private static void releaseUploadBuffer(ByteBuffer _buffer)
+	{
+		synchronized(uploadBufferPool)
+		{
+			ArrayDeque<ByteBuffer> bucket=uploadBufferPool.get(_buffer.capacity());
+			if(bucket==null)
+				uploadBufferPool.put(_buffer.capacity(), bucket=new ArrayDeque<>());
+			
+			if(bucket.size()<MAX_POOLED_BUFFERS_PER_SIZE)
+			{
+				_buffer.clear();
+				bucket.push(_buffer);
+			}
+		}
 	}
 }
\ No newline at end of file
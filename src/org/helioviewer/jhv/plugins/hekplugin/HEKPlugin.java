@@ -5,22 +5,22 @@ import java.awt.Cursor;
 import java.awt.Point;
 import java.awt.event.MouseEvent;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
-import org.helioviewer.jhv.base.coordinates.HeliographicCoordinate;
 import org.helioviewer.jhv.base.math.Matrix4d;
-import org.helioviewer.jhv.base.math.SphericalCoord;
 import org.helioviewer.jhv.base.math.Vector3d;
-import org.helioviewer.jhv.base.physics.DifferentialRotation;
 import org.helioviewer.jhv.layers.PluginLayer;
 import org.helioviewer.jhv.plugins.Plugin;
 import org.helioviewer.jhv.plugins.Plugins;
 import org.helioviewer.jhv.plugins.hekplugin.cache.HEKCache;
 import org.helioviewer.jhv.plugins.hekplugin.cache.HEKEvent;
-import org.helioviewer.jhv.plugins.hekplugin.cache.HEKEvent.GenericTriangle;
+import org.helioviewer.jhv.plugins.hekplugin.cache.HEKEvent.SceneGeometry;
 import org.helioviewer.jhv.plugins.hekplugin.cache.HEKPath;
 import org.helioviewer.jhv.plugins.hekplugin.cache.gui.HEKEventInformationDialog;
 import org.helioviewer.jhv.plugins.hekplugin.settings.HEKConstants;
@@ -28,6 +28,7 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import com.jogamp.common.nio.Buffers;
 import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL2;
 
@@ -46,6 +47,11 @@ public class HEKPlugin extends Plugin
 
 	private HEKPluginPanel hekPluginPanel;
 
+	// reused between frames, only touched by the render thread
+	private FloatBuffer triangleVertices = Buffers.newDirectFloatBuffer(0);
+	private ByteBuffer triangleColors = Buffers.newDirectByteBuffer(0);
+	private FloatBuffer outlineVertices = Buffers.newDirectFloatBuffer(0);
+
 	public HEKPlugin()
 	{
 		super("HEK", "HEK", RenderMode.MAIN_PANEL);
@@ -66,13 +72,25 @@ public class HEKPlugin extends Plugin
 				List<HEKEvent> toDraw = HEKCache.getSingletonInstance().getModel().getActiveEvents(currentDate);
 				if (toDraw != null && toDraw.size() > 0)
 				{
+					double bzero = HEKEvent.getBZero(currentDate);
+					ArrayList<HEKEvent> visible = new ArrayList<>(toDraw.size());
+					ArrayList<SceneGeometry> geometries = new ArrayList<>(toDraw.size());
+					for (HEKEvent evt : toDraw)
+					{
+						SceneGeometry geometry = evt.getSceneGeometry(currentDate, bzero);
+						if (geometry.visible)
+						{
+							visible.add(evt);
+							geometries.add(geometry);
+						}
+					}
+
 					gl.glDisable(GL2.GL_TEXTURE_2D);
 					gl.glEnable(GL2.GL_CULL_FACE);
 					gl.glEnable(GL2.GL_LINE_SMOOTH);
 					gl.glEnable(GL2.GL_BLEND);
 
-					for (HEKEvent evt : toDraw)
-						drawPolygon(gl, evt, currentDate);
+					drawPolygons(gl, visible, geometries);
 
 					gl.glDisable(GL2.GL_LINE_SMOOTH);
 
@@ -81,8 +99,8 @@ public class HEKPlugin extends Plugin
 					gl.glEnable(GL2.GL_TEXTURE_2D);
 					gl.glColor4f(1.0f, 1.0f, 1.0f, 1);
 
-					for (HEKEvent evt : toDraw)
-						drawIcon(gl, evt, currentDate);
+					for (int i = 0; i < visible.size(); i++)
+						drawIcon(gl, visible.get(i), geometries.get(i));
 
 					gl.glDisable(GL2.GL_TEXTURE_2D);
 					gl.glDisable(GL2.GL_BLEND);
@@ -100,14 +118,11 @@ public class HEKPlugin extends Plugin
 	 *            - PhysicalRenderGraphics to render to
 	 * @param evt
 	 *            - Event to draw
-	 * @param now
-	 *            - Current point in time
+	 * @param geometry
+	 *            - Geometry of the event at the current point in time
 	 */
-	public void drawIcon(GL2 gl, HEKEvent evt, Date now)
+	public void drawIcon(GL2 gl, HEKEvent evt, SceneGeometry geometry)
 	{
-		if (evt == null || !evt.isVisible(now))
-			return;
-
 		boolean large = evt.getShowEventInfo();
 		String type = evt.getString("event_type");
 		int offSetFactor = -1;
@@ -121,8 +136,7 @@ public class HEKPlugin extends Plugin
 		}
 		if (offSetFactor >= 0)
 		{
-			SphericalCoord heliographicCoordinate = evt.getStony(now);
-			Vector3d coords = HEKEvent.convertToSceneCoordinates(heliographicCoordinate, now);
+			Vector3d coords = geometry.position;
 			double x = coords.x;
 			double y = coords.y;
 			double z = coords.z;
@@ -172,63 +186,107 @@ public class HEKPlugin extends Plugin
 		}
 	}
 
-	public void drawPolygon(GL2 gl, HEKEvent evt, Date now)
+	/**
+	 * Draws the triangulations and outlines of all events with one draw call
+	 * each. The geometry is already rotated differentially, so no matrix has
+	 * to be set up per event.
+	 */
+	private void drawPolygons(GL2 gl, List<HEKEvent> events, List<SceneGeometry> geometries)
 	{
-		if (evt == null || !evt.isVisible(now))
-			return;
-
-		List<HEKEvent.GenericTriangle<Vector3d>> triangles = evt.getTriangulation3D(now);
-		List<SphericalCoord> outerBound = evt.getStonyBound(now);
-		if (outerBound == null && triangles == null)
-			return;
-
-		String type = evt.getString("event_type");
-		Color eventColor = HEKConstants.getSingletonInstance().acronymToColor(type, 128);
+		int triangleFloats = 0;
+		int outlineFloats = 0;
+		int outlines = 0;
+		for (SceneGeometry geometry : geometries)
+		{
+			if (geometry.triangles != null)
+				triangleFloats += geometry.triangles.length;
+			if (geometry.outline != null && geometry.outline.length > 0)
+			{
+				outlineFloats += geometry.outline.length;
+				outlines++;
+			}
+		}
 
-		HeliographicCoordinate heliographicCoordinate = evt.getHeliographicCoordinate(now);
-		if (heliographicCoordinate == null)
+		if (triangleFloats == 0 && outlines == 0)
 			return;
 
-		gl.glPushMatrix();
-		gl.glRotated(DifferentialRotation.calculateRotationInDegrees(heliographicCoordinate.latitude,
-				(now.getTime() - evt.getStart().getTime()) / 1000d), 0, 1, 0);
+		// client side arrays, some other plugins leave a buffer bound
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+		gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
 
-		if (triangles != null)
+		if (triangleFloats > 0)
 		{
-			gl.glColor4ub((byte) eventColor.getRed(), (byte) eventColor.getGreen(), (byte) eventColor.getBlue(),
-					(byte) eventColor.getAlpha());
+			triangleVertices = ensureCapacity(triangleVertices, triangleFloats);
+			triangleColors = ensureCapacity(triangleColors, triangleFloats / 3 * 4);
+			for (int i = 0; i < geometries.size(); i++)
+			{
+				float[] triangles = geometries.get(i).triangles;
+				if (triangles == null)
+					continue;
+
+				Color eventColor = HEKConstants.getSingletonInstance().acronymToColor(events.get(i).getString("event_type"), 128);
+				triangleVertices.put(triangles);
+				for (int j = 0; j < triangles.length; j += 3)
+					triangleColors.put((byte) eventColor.getRed()).put((byte) eventColor.getGreen()).put((byte) eventColor.getBlue())
+							.put((byte) eventColor.getAlpha());
+			}
+			triangleVertices.flip();
+			triangleColors.flip();
 
 			gl.glEnable(GL2.GL_CULL_FACE);
 			gl.glDisable(GL2.GL_DEPTH_TEST);
 			gl.glBlendFunc(GL2.GL_SRC_ALPHA, GL2.GL_ONE_MINUS_SRC_ALPHA);
 
-			gl.glBegin(GL2.GL_TRIANGLES);
-			for (GenericTriangle<Vector3d> triangle : triangles)
-			{
-				gl.glVertex3d(triangle.A.x, triangle.A.y, triangle.A.z);
-				gl.glVertex3d(triangle.B.x, triangle.B.y, triangle.B.z);
-				gl.glVertex3d(triangle.C.x, triangle.C.y, triangle.C.z);
-			}
-			gl.glEnd();
+			gl.glEnableClientState(GL2.GL_COLOR_ARRAY);
+			gl.glVertexPointer(3, GL.GL_FLOAT, 0, triangleVertices);
+			gl.glColorPointer(4, GL.GL_UNSIGNED_BYTE, 0, triangleColors);
+			gl.glDrawArrays(GL.GL_TRIANGLES, 0, triangleFloats / 3);
+			gl.glDisableClientState(GL2.GL_COLOR_ARRAY);
 		}
 
 		// draw bounds
 		gl.glColor4f(1, 1, 1, 1);
-		if (outerBound != null)
+		if (outlines > 0)
 		{
+			outlineVertices = ensureCapacity(outlineVertices, outlineFloats);
+			int[] first = new int[outlines];
+			int[] count = new int[outlines];
+			int n = 0;
+			for (SceneGeometry geometry : geometries)
+				if (geometry.outline != null && geometry.outline.length > 0)
+				{
+					first[n] = outlineVertices.position() / 3;
+					count[n++] = geometry.outline.length / 3;
+					outlineVertices.put(geometry.outline);
+				}
+			outlineVertices.flip();
+
 			gl.glBlendFunc(GL2.GL_SRC_ALPHA, GL2.GL_ONE_MINUS_SRC_ALPHA);
 			gl.glEnable(GL2.GL_DEPTH_TEST);
 
-			gl.glBegin(GL.GL_LINE_LOOP);
-			for (SphericalCoord boundaryPoint : outerBound)
-			{
-				Vector3d boundaryPoint3d = HEKEvent.convertToSceneCoordinates(boundaryPoint, now).scaled(1.005);
-				gl.glVertex3d(boundaryPoint3d.x, boundaryPoint3d.y, boundaryPoint3d.z);
-			}
-			gl.glEnd();
+			gl.glVertexPointer(3, GL.GL_FLOAT, 0, outlineVertices);
+			gl.glMultiDrawArrays(GL.GL_LINE_LOOP, first, 0, count, 0, outlines);
 		}
 
-		gl.glPopMatrix();
+		gl.glDisableClientState(GL2.GL_VERTEX_ARRAY);
+	}
+
+	private static FloatBuffer ensureCapacity(FloatBuffer buffer, int floats)
+	{
+		if (buffer.capacity() < floats)
+			return Buffers.newDirectFloatBuffer(Math.max(floats, buffer.capacity() * 2));
+
+		buffer.clear();
+		return buffer;
+	}
+
+	private static ByteBuffer ensureCapacity(ByteBuffer buffer, int bytes)
+	{
+		if (buffer.capacity() < bytes)
+			return Buffers.newDirectByteBuffer(Math.max(bytes, buffer.capacity() * 2));
+
+		buffer.clear();
+		return buffer;
 	}
 
 	@Override
@@ -330,10 +388,10 @@ public class HEKPlugin extends Plugin
 			List<HEKEvent> toDraw = HEKCache.getSingletonInstance().getModel().getActiveEvents(currentDate);
 			if (toDraw.size() > 0)
 			{
+				double bzero = HEKEvent.getBZero(currentDate);
 				for (HEKEvent evt : toDraw)
 				{
-					SphericalCoord stony = evt.getStony(currentDate);
-					Vector3d coords = HEKEvent.convertToSceneCoordinates(stony, currentDate);
+					Vector3d coords = evt.getSceneGeometry(currentDate, bzero).position;
 
 					double deltaX = Math.abs(point.x - coords.x);
 					double deltaY = Math.abs(-point.y - coords.y);
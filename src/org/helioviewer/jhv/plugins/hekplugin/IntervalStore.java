@@ -1,7 +1,9 @@
 package org.helioviewer.jhv.plugins.hekplugin;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map.Entry;
@@ -18,13 +20,58 @@ public class IntervalStore<TimeFormat extends Comparable<TimeFormat>, ItemFormat
 	 */
 	private HashMap<Interval<TimeFormat>, IntervalContainer<TimeFormat, ItemFormat>> data = new HashMap<>();
 
+	/**
+	 * The keys of data, for overlap queries
+	 */
+	private IntervalTree<TimeFormat> intervals = new IntervalTree<>();
+
+	/**
+	 * All intervals each item is stored in
+	 */
+	private HashMap<ItemFormat, HashSet<Interval<TimeFormat>>> itemIntervals = new HashMap<>();
+
 	public IntervalStore()
 	{
 	}
 
 	public IntervalStore(Interval<TimeFormat> interval)
 	{
-		data.put(interval, new IntervalContainer<TimeFormat, ItemFormat>());
+		put(interval, new IntervalContainer<TimeFormat, ItemFormat>());
+	}
+
+	/**
+	 * Stores the container and indexes all of its items
+	 */
+	private void put(Interval<TimeFormat> interval, IntervalContainer<TimeFormat, ItemFormat> container)
+	{
+		removeInterval(interval);
+
+		data.put(interval, container);
+		intervals.add(interval);
+		for (ItemFormat item : container.getItems())
+			index(item, interval);
+	}
+
+	private void index(ItemFormat item, Interval<TimeFormat> interval)
+	{
+		HashSet<Interval<TimeFormat>> itemIn = itemIntervals.get(item);
+		if (itemIn == null)
+			itemIntervals.put(item, itemIn = new HashSet<>());
+		itemIn.add(interval);
+	}
+
+	/**
+	 * Adds the item to the container stored for the interval, unless it's
+	 * already in there
+	 */
+	private void addItem(Interval<TimeFormat> interval, IntervalContainer<TimeFormat, ItemFormat> container, ItemFormat item)
+	{
+		HashSet<Interval<TimeFormat>> itemIn = itemIntervals.get(item);
+		if (itemIn != null && itemIn.contains(interval))
+			return;
+
+		container.getItems().add(item);
+		index(item, interval);
 	}
 
 	/**
@@ -49,6 +96,7 @@ public class IntervalStore<TimeFormat extends Comparable<TimeFormat>, ItemFormat
 	{
 		boolean merged = false;
 		int newItems = newIntervalContainer.getItems().size();
+		HashSet<ItemFormat> containedItems = new HashSet<>(newIntervalContainer.getItems());
 
 		List<Interval<TimeFormat>> overlappingIntervals = this.getOverlappingIntervals(newInterval);
 
@@ -64,7 +112,7 @@ public class IntervalStore<TimeFormat extends Comparable<TimeFormat>, ItemFormat
 
 			for (ItemFormat item : toAdd.getItems())
 			{
-				if (!newIntervalContainer.getItems().contains(item))
+				if (containedItems.add(item))
 				{
 					newIntervalContainer.getItems().add(item);
 				}
@@ -76,7 +124,7 @@ public class IntervalStore<TimeFormat extends Comparable<TimeFormat>, ItemFormat
 
 			// move over downloadable events
 
-			this.data.remove(overlappingInterval);
+			removeInterval(overlappingInterval);
 		}
 
 		// Log.info("Added "+ newItems + " new Items to container with " +
@@ -92,24 +140,19 @@ public class IntervalStore<TimeFormat extends Comparable<TimeFormat>, ItemFormat
 		// newIntervalContainer.downloadableEvents);
 
 		// and finally store the new interval
-		data.put(newInterval, newIntervalContainer);
+		put(newInterval, newIntervalContainer);
 
 		// loop to make sure that all events are registered to all possible
-		// buckets
-
-		for (Interval<TimeFormat> curInterval : this.data.keySet())
-		{
-
-			IntervalContainer<TimeFormat, ItemFormat> curContainer = this.data.get(curInterval);
+		// buckets. the items are not indexed by their own duration, so all of
+		// them have to be checked, but each one only once.
+		List<ItemFormat> overlappingItems = new ArrayList<>();
+		for (ItemFormat curItem : itemIntervals.keySet())
+			// if it overlaps the newInterval, add the item there, too
+			if (curItem.overlaps(newInterval))
+				overlappingItems.add(curItem);
 
-			// this is currently not the interval we just created
-			if (!curInterval.equals(newInterval))
-				// loop over all items
-				for (ItemFormat curItem : curContainer.getItems())
-					// if it overlaps the newInterval, add the item there, too
-					if (curItem.overlaps(newInterval) && !newIntervalContainer.getItems().contains(curItem))
-						newIntervalContainer.getItems().add(curItem);
-		}
+		for (ItemFormat curItem : overlappingItems)
+			addItem(newInterval, newIntervalContainer, curItem);
 
 		return merged;
 
@@ -125,7 +168,7 @@ public class IntervalStore<TimeFormat extends Comparable<TimeFormat>, ItemFormat
 	{
 		ArrayList<Interval<TimeFormat>> result = new ArrayList<>();
 
-		for (Interval<TimeFormat> key : data.keySet())
+		for (Interval<TimeFormat> key : intervals.getIntersecting(interval))
 			if (key.overlaps(interval) || key.equals(interval))
 				result.add(key);
 
@@ -142,7 +185,7 @@ public class IntervalStore<TimeFormat extends Comparable<TimeFormat>, ItemFormat
 	{
 		ArrayList<Interval<TimeFormat>> result = new ArrayList<>();
 
-		for (Interval<TimeFormat> key : this.data.keySet())
+		for (Interval<TimeFormat> key : intervals.getIntersecting(interval))
 			if (key.containsInclusive(interval) || key.equals(interval))
 				result.add(key);
 		
@@ -163,8 +206,8 @@ public class IntervalStore<TimeFormat extends Comparable<TimeFormat>, ItemFormat
 
 		result.add(interval);
 
-		// loop over the intervals in this cache
-		for (Interval<TimeFormat> curStoreInterval : this.data.keySet())
+		// loop over the intervals in this cache, the others can't overlap
+		for (Interval<TimeFormat> curStoreInterval : intervals.getIntersecting(interval))
 		{
 			IntervalContainer<TimeFormat, ItemFormat> curStoreContainer = this.data.get(curStoreInterval);
 
@@ -297,15 +340,15 @@ public class IntervalStore<TimeFormat extends Comparable<TimeFormat>, ItemFormat
 		// System.out.println("Adding " + newEvent + " to " + interval);
 		if (!this.data.containsKey(interval))
 		{
-			this.data.put(interval, new IntervalContainer<TimeFormat, ItemFormat>());
+			put(interval, new IntervalContainer<TimeFormat, ItemFormat>());
 		}
 
 		IntervalContainer<TimeFormat, ItemFormat> curContainer = this.data.get(interval);
 
 		// do not add the event if it is already in there
-		if (newEvent != null && !curContainer.getItems().contains(newEvent))
+		if (newEvent != null)
 		{
-			curContainer.getItems().add(newEvent);
+			addItem(interval, curContainer, newEvent);
 		}
 
 	}
@@ -335,9 +378,8 @@ public class IntervalStore<TimeFormat extends Comparable<TimeFormat>, ItemFormat
 	 */
 	public boolean contains(Interval<TimeFormat> request, ItemFormat hek)
 	{
-		if (!data.containsKey(request))
-			return false;
-		return data.get(request).getItems().contains(hek);
+		HashSet<Interval<TimeFormat>> itemIn = itemIntervals.get(hek);
+		return itemIn != null && itemIn.contains(request);
 	}
 
 	/**
@@ -349,7 +391,7 @@ public class IntervalStore<TimeFormat extends Comparable<TimeFormat>, ItemFormat
 	 */
 	public boolean contains(ItemFormat item)
 	{
-		return findItem(item).size() > 0;
+		return itemIntervals.containsKey(item);
 	}
 
 	/**
@@ -361,18 +403,11 @@ public class IntervalStore<TimeFormat extends Comparable<TimeFormat>, ItemFormat
 	 */
 	public List<Interval<TimeFormat>> findItem(ItemFormat item)
 	{
-		List<Interval<TimeFormat>> result = new ArrayList<>();
+		HashSet<Interval<TimeFormat>> itemIn = itemIntervals.get(item);
+		if (itemIn == null)
+			return new ArrayList<>();
 
-		for (Interval<TimeFormat> interval : this.data.keySet())
-		{
-			if (this.data.get(interval).getItems().contains(item))
-			{
-				result.add(interval);
-			}
-
-		}
-
-		return result;
+		return new ArrayList<>(itemIn);
 
 	}
 
@@ -390,7 +425,7 @@ public class IntervalStore<TimeFormat extends Comparable<TimeFormat>, ItemFormat
 
 	public Set<Interval<TimeFormat>> getKeys()
 	{
-		return this.data.keySet();
+		return Collections.unmodifiableSet(this.data.keySet());
 	}
 
 	/**
@@ -408,7 +443,17 @@ public class IntervalStore<TimeFormat extends Comparable<TimeFormat>, ItemFormat
 
 	public void removeInterval(Interval<TimeFormat> interval)
 	{
-		this.data.remove(interval);
+		IntervalContainer<TimeFormat, ItemFormat> container = this.data.remove(interval);
+		if (container == null)
+			return;
+
+		intervals.remove(interval);
+		for (ItemFormat item : container.getItems())
+		{
+			HashSet<Interval<TimeFormat>> itemIn = itemIntervals.get(item);
+			if (itemIn != null && itemIn.remove(interval) && itemIn.isEmpty())
+				itemIntervals.remove(item);
+		}
 	}
 
 	@Override
@@ -0,0 +1,208 @@
+package org.helioviewer.jhv.plugins.hekplugin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Balanced (AVL) tree of intervals, ordered by start and end. Every node also
+ * knows the smallest and largest bound within its subtree, so all intervals
+ * intersecting a range are found in O(log n + k).
+ * <p>
+ * Intervals are treated as closed, so the result is a superset for every
+ * predicate of {@link IntervalComparison}. Callers have to filter it with the
+ * exact predicate they need.
+ */
+public class IntervalTree<TimeFormat extends Comparable<TimeFormat>>
+{
+	private static class Node<TimeFormat extends Comparable<TimeFormat>>
+	{
+		final Interval<TimeFormat> interval;
+		final TimeFormat lo;
+		final TimeFormat hi;
+		TimeFormat minLo;
+		TimeFormat maxHi;
+		int height = 1;
+		Node<TimeFormat> left;
+		Node<TimeFormat> right;
+
+		Node(Interval<TimeFormat> _interval)
+		{
+			interval = _interval;
+			lo = min(_interval.start, _interval.end);
+			hi = max(_interval.start, _interval.end);
+			minLo = lo;
+			maxHi = hi;
+		}
+	}
+
+	private Node<TimeFormat> root;
+
+	public void add(Interval<TimeFormat> interval)
+	{
+		root = insert(root, interval);
+	}
+
+	public void remove(Interval<TimeFormat> interval)
+	{
+		root = delete(root, interval);
+	}
+
+	public void clear()
+	{
+		root = null;
+	}
+
+	/**
+	 * @return all intervals sharing at least one point with the given one, both
+	 *         taken as closed intervals, ordered by start
+	 */
+	public List<Interval<TimeFormat>> getIntersecting(Interval<TimeFormat> interval)
+	{
+		List<Interval<TimeFormat>> result = new ArrayList<>();
+		collect(root, min(interval.start, interval.end), max(interval.start, interval.end), result);
+		return result;
+	}
+
+	private static <TimeFormat extends Comparable<TimeFormat>> void collect(Node<TimeFormat> node, TimeFormat lo, TimeFormat hi, List<Interval<TimeFormat>> result)
+	{
+		if (node == null || node.maxHi.compareTo(lo) < 0 || node.minLo.compareTo(hi) > 0)
+			return;
+
+		collect(node.left, lo, hi, result);
+		if (node.lo.compareTo(hi) <= 0 && node.hi.compareTo(lo) >= 0)
+			result.add(node.interval);
+		collect(node.right, lo, hi, result);
+	}
+
+	private static <TimeFormat extends Comparable<TimeFormat>> int compare(Interval<TimeFormat> a, Interval<TimeFormat> b)
+	{
+		int result = a.start.compareTo(b.start);
+		return result != 0 ? result : a.end.compareTo(b.end);
+	}
+
+	private static <TimeFormat extends Comparable<TimeFormat>> TimeFormat min(TimeFormat a, TimeFormat b)
+	{
+		return a.compareTo(b) <= 0 ? a : b;
+	}
+
+	private static <TimeFormat extends Comparable<TimeFormat>> TimeFormat max(TimeFormat a, TimeFormat b)
+	{
+		return a.compareTo(b) >= 0 ? a : b;
+	}
+
+	private static <TimeFormat extends Comparable<TimeFormat>> Node<TimeFormat> insert(Node<TimeFormat> node, Interval<TimeFormat> interval)
+	{
+		if (node == null)
+			return new Node<>(interval);
+
+		int c = compare(interval, node.interval);
+		if (c < 0)
+			node.left = insert(node.left, interval);
+		else if (c > 0)
+			node.right = insert(node.right, interval);
+		else
+			return node;
+
+		return balance(node);
+	}
+
+	private static <TimeFormat extends Comparable<TimeFormat>> Node<TimeFormat> delete(Node<TimeFormat> node, Interval<TimeFormat> interval)
+	{
+		if (node == null)
+			return null;
+
+		int c = compare(interval, node.interval);
+		if (c < 0)
+			node.left = delete(node.left, interval);
+		else if (c > 0)
+			node.right = delete(node.right, interval);
+		else
+		{
+			if (node.left == null)
+				return node.right;
+			if (node.right == null)
+				return node.left;
+
+			// replace by the successor
+			Node<TimeFormat> successor = node.right;
+			while (successor.left != null)
+				successor = successor.left;
+
+			successor.right = deleteMin(node.right);
+			successor.left = node.left;
+			return balance(successor);
+		}
+
+		return balance(node);
+	}
+
+	private static <TimeFormat extends Comparable<TimeFormat>> Node<TimeFormat> deleteMin(Node<TimeFormat> node)
+	{
+		if (node.left == null)
+			return node.right;
+
+		node.left = deleteMin(node.left);
+		return balance(node);
+	}
+
+	private static int height(Node<?> node)
+	{
+		return node == null ? 0 : node.height;
+	}
+
+	private static <TimeFormat extends Comparable<TimeFormat>> void update(Node<TimeFormat> node)
+	{
+		node.height = 1 + Math.max(height(node.left), height(node.right));
+		node.minLo = node.lo;
+		node.maxHi = node.hi;
+		if (node.left != null)
+		{
+			node.minLo = min(node.minLo, node.left.minLo);
+			node.maxHi = max(node.maxHi, node.left.maxHi);
+		}
+		if (node.right != null)
+		{
+			node.minLo = min(node.minLo, node.right.minLo);
+			node.maxHi = max(node.maxHi, node.right.maxHi);
+		}
+	}
+
+	private static <TimeFormat extends Comparable<TimeFormat>> Node<TimeFormat> balance(Node<TimeFormat> node)
+	{
+		update(node);
+		int balance = height(node.left) - height(node.right);
+		if (balance > 1)
+		{
+			if (height(node.left.left) < height(node.left.right))
+				node.left = rotateLeft(node.left);
+			return rotateRight(node);
+		}
+		if (balance < -1)
+		{
+			if (height(node.right.right) < height(node.right.left))
+				node.right = rotateRight(node.right);
+			return rotateLeft(node);
+		}
+		return node;
+	}
+
+	private static <TimeFormat extends Comparable<TimeFormat>> Node<TimeFormat> rotateRight(Node<TimeFormat> node)
+	{
+		Node<TimeFormat> left = node.left;
+		node.left = left.right;
+		left.right = node;
+		update(node);
+		update(left);
+		return left;
+	}
+
+	private static <TimeFormat extends Comparable<TimeFormat>> Node<TimeFormat> rotateLeft(Node<TimeFormat> node)
+	{
+		Node<TimeFormat> right = node.right;
+		node.right = right.left;
+		right.left = node;
+		update(node);
+		update(right);
+		return right;
+	}
+}
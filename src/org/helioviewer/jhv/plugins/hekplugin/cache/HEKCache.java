@@ -37,6 +37,9 @@ public class HEKCache {
 
     private ReentrantReadWriteLock rwl = new ReentrantReadWriteLock();
 
+    // number of times the cache was locked for writing
+    private volatile int modifications = 0;
+
     /**
      * The private constructor to support the singleton pattern.
      * */
@@ -67,6 +70,15 @@ public class HEKCache {
     public void lockWrite() {
         // Log.info(rwl);
         this.getLock().writeLock().lock();
+        modifications++;
+    }
+
+    /**
+     * @return a counter which changes whenever the cache might have been
+     *         modified
+     */
+    public int getModifications() {
+        return modifications;
     }
 
     public void unlockWrite() {
@@ -11,6 +11,7 @@ import java.util.Map.Entry;
 import org.helioviewer.jhv.plugins.hekplugin.Interval;
 import org.helioviewer.jhv.plugins.hekplugin.IntervalContainer;
 import org.helioviewer.jhv.plugins.hekplugin.IntervalStore;
+import org.helioviewer.jhv.plugins.hekplugin.IntervalTree;
 import org.helioviewer.jhv.plugins.hekplugin.settings.HEKSettings;
 
 /**
@@ -34,6 +35,11 @@ public class HEKCacheModel {
     private Interval<Date> curInterval;
 
     private List<HEKCacheListener> cacheModelListeners = new ArrayList<>();
+
+    // durations of all events in the cache, rebuilt when the cache was modified
+    private IntervalTree<Date> eventDurations = new IntervalTree<>();
+    private HashMap<Interval<Date>, List<HEKEvent>> eventsByDuration = new HashMap<>();
+    private int indexedModifications = -1;
     
     public HEKCacheModel(HEKCache cache) {
         this.cache = cache;
@@ -396,30 +402,48 @@ public class HEKCacheModel {
         cache.lockRead();
 
         try {
-        	List<HEKEvent> result = new ArrayList<>();
-
-            for (Entry<HEKPath, IntervalStore<Date, HEKEvent>> hekPathIntervalStoreEntry : cache.getTracks().entrySet())
-            {
-                IntervalStore<Date, HEKEvent> intervalCache = hekPathIntervalStoreEntry.getValue();
-                for (Interval<Date> hek : intervalCache.getIntervals())
-                {
-                    for (HEKEvent evts : intervalCache.getItem(hek).getItems())
-                    {
-                        Interval<Date> duration = evts.getDuration();
-                        if (duration != null && duration.overlapsInclusive(interval))
-                        {
-                            result.add(evts);
+            return queryEventIndex(interval);
+        } finally {
+            cache.unlockRead();
+        }
+    }
+
+    /**
+     * Rebuilds the index if the cache was modified since, has to be called
+     * with the cache locked
+     */
+    private synchronized List<HEKEvent> queryEventIndex(Interval<Date> interval) {
+        int modifications = cache.getModifications();
+        if (modifications != indexedModifications) {
+            eventDurations.clear();
+            eventsByDuration.clear();
+
+            // the same event may be stored in several intervals
+            for (IntervalStore<Date, HEKEvent> intervalStore : cache.getTracks().values())
+                for (Interval<Date> storeInterval : intervalStore.getIntervals())
+                    for (HEKEvent evt : intervalStore.getItem(storeInterval).getItems()) {
+                        Interval<Date> duration = evt.getDuration();
+                        if (duration == null || duration.start == null || duration.end == null)
+                            continue;
+
+                        List<HEKEvent> events = eventsByDuration.get(duration);
+                        if (events == null) {
+                            eventsByDuration.put(duration, events = new ArrayList<>(1));
+                            eventDurations.add(duration);
                         }
+                        if (!events.contains(evt))
+                            events.add(evt);
                     }
-                }
-            }
 
-            return result;
-
-        } finally {
-            cache.unlockRead();
+            indexedModifications = modifications;
         }
 
+        List<HEKEvent> result = new ArrayList<>();
+        for (Interval<Date> duration : eventDurations.getIntersecting(interval))
+            if (duration.overlapsInclusive(interval))
+                result.addAll(eventsByDuration.get(duration));
+
+        return result;
     }
 
     /**
@@ -17,6 +17,7 @@ import org.helioviewer.jhv.base.math.Vector2d;
 import org.helioviewer.jhv.base.math.Vector3d;
 import org.helioviewer.jhv.base.physics.Astronomy;
 import org.helioviewer.jhv.base.physics.Constants;
+import org.helioviewer.jhv.base.physics.DifferentialRotation;
 import org.helioviewer.jhv.gui.IconBank;
 import org.helioviewer.jhv.plugins.hekplugin.HEKCoordinateTransform;
 import org.helioviewer.jhv.plugins.hekplugin.Interval;
@@ -457,39 +458,35 @@ public class HEKEvent implements IntervalComparison<Date> {
         return new Vector2d(result.x, -result.y);
     }
 
+    /**
+     * @return the tilt of the solar rotation axis towards the observer at the
+     *         given time, in degrees
+     */
+    public static double getBZero(Date now)
+    {
+        GregorianCalendar c = new GregorianCalendar();
+        c.setTime(now);
+        return Astronomy.getB0InDegree(c);
+    }
+
     /**
      * Converts Stonyhurst coordinates to 3d scenecoordinates with a normalized
      * radius == 1
      * 
      * @param stony
      *            - coordinates (stonyhurst) to be converted
-     * @param now
-     *            - time for which the transformation should be done
+     * @param bzero
+     *            - B0 angle at the time of the transformation, see
+     *            {@link #getBZero(Date)}
      * @return converted screen coordinates, (0.0,0.0) if an error occurs
      */
-    
-    private static Date lastDate;
-    private static double lastBZero;
-    public static Vector3d convertToSceneCoordinates(SphericalCoord stony, Date now)
+    public static Vector3d convertToSceneCoordinates(SphericalCoord stony, double bzero)
     {
         //see http://jgiesen.de/sunrot/index.html
         
         if (stony == null)
             return new Vector3d(0, 0, 0);
 
-        double bzero;
-        if(lastDate==null || !now.equals(lastDate))
-        {
-            GregorianCalendar c = new GregorianCalendar();
-            c.setTime(now);
-            lastBZero = bzero = Astronomy.getB0InDegree(c);
-            lastDate=now;
-        }
-        else
-        {
-            bzero=lastBZero;
-        }
-        
         double phizero = 0.0; // do we have a value for this?
         SphericalCoord normalizedStony = new SphericalCoord(stony);
         normalizedStony.r = Constants.SUN_RADIUS;
@@ -626,37 +623,12 @@ public class HEKEvent implements IntervalComparison<Date> {
         return null;
     }
 
-    /**
-     * Caluclates a triangulation once - for the original position. Then
-     * interpolates this triangultion by moving the points
-     * 
-     * @param now
-     * @return
-     */
-    public List<GenericTriangle<Vector3d>> getTriangulation3D(Date now) {
-        if (!cacheValid)
-            return null;
-
-        if (cachedTriangles == null)
-            return null;
-
-        List<GenericTriangle<Vector3d>> result = new ArrayList<>();
-        for (GenericTriangle<SphericalCoord> triangle : cachedTriangles)
-        {
-        	Vector3d A = convertToSceneCoordinates(triangle.A, now).scaled(1.005);
-        	Vector3d B = convertToSceneCoordinates(triangle.B, now).scaled(1.005);
-        	Vector3d C = convertToSceneCoordinates(triangle.C, now).scaled(1.005);
-			
-            result.add(new GenericTriangle<>(A, B, C));
-        }
-        return result;
-    }
-
     private void cacheTriangulation() {
         Date now = this.getStart();
 
         if (now != null) {
             List<SphericalCoord> outerBound = this.getStonyBound(now);
+            double bzero = getBZero(now);
 
             if (outerBound != null) {
                 // if we have less than three points, do nothing
@@ -674,7 +646,7 @@ public class HEKEvent implements IntervalComparison<Date> {
                 {
                     int i=0;
                     for (SphericalCoord boundaryPoint : outerBound) {
-                        Vector3d boundaryPointCartesian = HEKEvent.convertToSceneCoordinates(boundaryPoint, now);
+                        Vector3d boundaryPointCartesian = HEKEvent.convertToSceneCoordinates(boundaryPoint, bzero);
                         outerBoundCartesian.add(boundaryPointCartesian);
                         coordinates[i++]=new Vector2d(boundaryPointCartesian.x/Constants.SUN_RADIUS, boundaryPointCartesian.y/Constants.SUN_RADIUS);
                     }
@@ -687,7 +659,7 @@ public class HEKEvent implements IntervalComparison<Date> {
                 List<Vector3d> sunBorderCartesian = new ArrayList<>();
                 for (SphericalCoord sunBoundaryPoint : sunBorder)
                 {
-                    Vector3d sunBoundaryPointCartesian = HEKEvent.convertToSceneCoordinates(sunBoundaryPoint, now);
+                    Vector3d sunBoundaryPointCartesian = HEKEvent.convertToSceneCoordinates(sunBoundaryPoint, bzero);
                     sunBorderCartesian.add(sunBoundaryPointCartesian);
                 }
                 
@@ -841,6 +813,98 @@ public class HEKEvent implements IntervalComparison<Date> {
         cacheTriangulation();
     }
 
+    /**
+     * Position, outline and triangulation of an event in scene coordinates at
+     * one point in time, including the differential rotation since the start
+     * of the event
+     */
+    public static class SceneGeometry {
+        /**
+         * Whether the event is on the visible side of the sun
+         */
+        public final boolean visible;
+
+        /**
+         * Position of the event, not rotated differentially
+         */
+        public final Vector3d position;
+
+        /**
+         * x, y, z of every outline point, null if there is nothing to draw
+         */
+        public final float[] outline;
+
+        /**
+         * x, y, z of every triangle corner, null if there is nothing to draw
+         */
+        public final float[] triangles;
+
+        private final long time;
+
+        private SceneGeometry(long time, boolean visible, Vector3d position, float[] outline, float[] triangles) {
+            this.time = time;
+            this.visible = visible;
+            this.position = position;
+            this.outline = outline;
+            this.triangles = triangles;
+        }
+    }
+
+    private SceneGeometry sceneGeometry;
+
+    /**
+     * Returns the geometry of the event at the given time. The last result is
+     * kept, so repeated calls during one frame are cheap.
+     * 
+     * @param bzero
+     *            - B0 angle at the given time, see {@link #getBZero(Date)}
+     */
+    public synchronized SceneGeometry getSceneGeometry(Date now, double bzero) {
+        if (sceneGeometry != null && sceneGeometry.time == now.getTime())
+            return sceneGeometry;
+
+        SphericalCoord stony = getStony(now);
+        boolean visible = stony == null || HEKCoordinateTransform.stonyIsVisible(stony);
+        Vector3d position = convertToSceneCoordinates(stony, bzero);
+
+        float[] outline = null;
+        float[] triangles = null;
+        HeliographicCoordinate heliographicCoordinate = visible ? getHeliographicCoordinate(now) : null;
+        if (heliographicCoordinate != null) {
+            double angle = DifferentialRotation.calculateRotationInRadians(heliographicCoordinate.latitude, (now.getTime() - getStart().getTime()) / 1000d);
+            double cos = Math.cos(angle);
+            double sin = Math.sin(angle);
+
+            List<SphericalCoord> outerBound = getStonyBound(now);
+            if (outerBound != null) {
+                outline = new float[outerBound.size() * 3];
+                int i = 0;
+                for (SphericalCoord boundaryPoint : outerBound)
+                    i = putRotated(outline, i, convertToSceneCoordinates(boundaryPoint, bzero).scaled(1.005), cos, sin);
+            }
+
+            if (cacheValid && cachedTriangles != null) {
+                triangles = new float[cachedTriangles.size() * 9];
+                int i = 0;
+                for (GenericTriangle<SphericalCoord> triangle : cachedTriangles) {
+                    i = putRotated(triangles, i, convertToSceneCoordinates(triangle.A, bzero).scaled(1.005), cos, sin);
+                    i = putRotated(triangles, i, convertToSceneCoordinates(triangle.B, bzero).scaled(1.005), cos, sin);
+                    i = putRotated(triangles, i, convertToSceneCoordinates(triangle.C, bzero).scaled(1.005), cos, sin);
+                }
+            }
+        }
+
+        return sceneGeometry = new SceneGeometry(now.getTime(), visible, position, outline, triangles);
+    }
+
+    // rotation around the y axis, like glRotated(angle, 0, 1, 0)
+    private static int putRotated(float[] dst, int i, Vector3d v, double cos, double sin) {
+        dst[i++] = (float) (v.x * cos + v.z * sin);
+        dst[i++] = (float) v.y;
+        dst[i++] = (float) (-v.x * sin + v.z * cos);
+        return i;
+    }
+
 	@Override
 	public int hashCode()
 	{
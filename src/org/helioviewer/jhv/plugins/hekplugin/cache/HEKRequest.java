@@ -2,6 +2,8 @@ package org.helioviewer.jhv.plugins.hekplugin.cache;
 
 import java.util.Date;
 
+import org.helioviewer.jhv.base.downloadmanager.HTTPRequest;
+import org.helioviewer.jhv.plugins.Plugins;
 import org.helioviewer.jhv.plugins.hekplugin.Interval;
 
 abstract class HEKRequest {
@@ -19,7 +21,12 @@ abstract class HEKRequest {
     /**
      * Flag showing if this request should be canceled
      */
-    protected boolean cancel = false;
+    protected volatile boolean cancel = false;
+
+    /**
+     * The download currently waited for, if any
+     */
+    protected volatile HTTPRequest httpRequest;
 
     /**
      * Sets the cancel flag to true and closes the currently used InputStream
@@ -27,11 +34,22 @@ abstract class HEKRequest {
     public void cancel() {
 
         cancel = true;
+        cancelHTTPRequest();
 
         // we are not loading anymore
         this.finishRequest();
     }
 
+    /**
+     * Cancels the current download, which also wakes up the waiting thread
+     */
+    protected void cancelHTTPRequest() {
+
+        HTTPRequest h = httpRequest;
+        if (h != null)
+            Plugins.cancelHTTPRequest(h);
+    }
+
     /**
      * Method to be called when the request is finished
      */
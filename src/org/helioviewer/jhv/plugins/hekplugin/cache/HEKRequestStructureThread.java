@@ -2,6 +2,7 @@ package org.helioviewer.jhv.plugins.hekplugin.cache;
 
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import org.helioviewer.jhv.base.Telemetry;
 import org.helioviewer.jhv.base.downloadmanager.DownloadPriority;
@@ -27,6 +28,7 @@ class HEKRequestStructureThread extends HEKRequest implements Runnable
 	public void cancel()
 	{
 		cancel = true;
+		cancelHTTPRequest();
 
 		// we are not loading anymore
 		this.finishRequest();
@@ -85,22 +87,12 @@ class HEKRequestStructureThread extends HEKRequest implements Runnable
 						+ "&temporalmode=overlap&result_limit=" + HEKSettings.REQUEST_STRUCTURE_PAGESIZE + "&page="
 						+ page;
 
-				HTTPRequest httpRequest = Plugins.startHTPPRequest(uri, DownloadPriority.MEDIUM);
+				httpRequest = Plugins.startHTPPRequest(uri, DownloadPriority.MEDIUM);
+				httpRequest.getCompletion().get();
 
-				while (!httpRequest.isFinished())
-				{
-					try
-					{
-						Thread.sleep(20);
-						// return if the current operation was canceled
-						if (cancel)
-							return;
-					}
-					catch (InterruptedException e)
-					{
-						Telemetry.trackException(e);
-					}
-				}
+				// return if the current operation was canceled
+				if (cancel)
+					return;
 
 				JSONObject json;
 				try
@@ -127,6 +119,15 @@ class HEKRequestStructureThread extends HEKRequest implements Runnable
 			System.err.println("");
 			Telemetry.trackException(e);
 		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return;
+		}
+		catch (ExecutionException e)
+		{
+			Telemetry.trackException(e);
+		}
 	}
 
 	public void parseFeedAndUpdateGUI(JSONObject json, Interval<Date> timeRange)
@@ -117,22 +117,12 @@ class HEKRequestThread extends HEKRequest implements Runnable
 				System.out.println("Requesting Page " + page + " of HEK Events: " + uri);
 
 				// this might take a while
-				HTTPRequest httpRequest = Plugins.startHTPPRequest(uri, DownloadPriority.MEDIUM);
-				// return if the current operation was canceled
+				httpRequest = Plugins.startHTPPRequest(uri, DownloadPriority.MEDIUM);
+				httpRequest.getCompletion().get();
 
-				while (!httpRequest.isFinished())
-				{
-					try
-					{
-						Thread.sleep(20);
-						if (cancel)
-							return;
-					}
-					catch (InterruptedException e)
-					{
-						Telemetry.trackException(e);
-					}
-				}
+				// return if the current operation was canceled
+				if (cancel)
+					return;
 
 				JSONObject json = new JSONObject(httpRequest.getDataAsString());
 				parseAndFeed(json, interval);
@@ -144,6 +134,8 @@ class HEKRequestThread extends HEKRequest implements Runnable
 		}
 		catch (InterruptedException e)
 		{
+			Thread.currentThread().interrupt();
+			return;
 		}
 		catch (Throwable e)
 		{
@@ -21,6 +21,17 @@ public class PfssSettings {
 	 * Number of Preloaded PFSSdata
 	 */
 	public final static int DATA_READ_AHEAD_SIZE = 200;
+	
+	/**
+	 * Number of decompressed frames kept in memory and on the graphics card
+	 */
+	public final static int FRAME_CACHE_SIZE = 12;
+	
+	/**
+	 * Number of frames decompressed ahead of the current one, in the direction
+	 * the timeline moves
+	 */
+	public final static int FRAME_READ_AHEAD_SIZE = 4;
 
 	
 	/**
@@ -170,6 +170,22 @@ public class FileDescriptorManager
 		}
 	}
 
+	/**
+	 * Returns the preceding FileDescriptor
+	 * 
+	 * @param current
+	 * @return
+	 */
+	public FileDescriptor getPrevious(FileDescriptor current)
+	{
+		synchronized (descriptors)
+		{
+			int index = descriptors.indexOf(current);
+			index = (index - 1 + descriptors.size()) % descriptors.size();
+			return descriptors.get(index);
+		}
+	}
+
 	void showErrorMessages()
 	{
 		if (!parent.isVisible())
@@ -2,84 +2,162 @@ package org.helioviewer.jhv.plugins.pfssplugin.data;
 
 import java.io.IOException;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
 
 import javax.annotation.Nullable;
 
 import org.helioviewer.jhv.base.Telemetry;
+import org.helioviewer.jhv.plugins.Plugins;
 import org.helioviewer.jhv.plugins.pfssplugin.PfssPlugin;
+import org.helioviewer.jhv.plugins.pfssplugin.PfssSettings;
 import org.helioviewer.jhv.plugins.pfssplugin.data.caching.DataCache;
+import org.helioviewer.jhv.plugins.pfssplugin.data.caching.LRUCache;
 import org.helioviewer.jhv.plugins.pfssplugin.data.decompression.PfssDecompressor;
 
 import com.jogamp.opengl.GL2;
 
 /**
- * This class is responsible for managing frames. it Tries to have all frames
- * pre-loaded and pre-initialized before they are requested
+ * This class is responsible for managing frames. It keeps the most recently
+ * used frames decompressed and decompresses the next frames in the direction
+ * the timeline moves in the background, so stepping and playback don't have
+ * to wait for them.
  */
 public class FrameManager
 {
 	private final FileDescriptorManager descriptorManager;
-
-	private @Nullable PfssDecompressed curFrame;
 	private final DataCache dataCache;
 
+	private final LRUCache<PfssDecompressed> frames;
+
+	//evicted frames still have to be removed from the graphics card
+	private final ArrayList<PfssDecompressed> evictedFrames = new ArrayList<>();
+
+	//frames whose decompression was started, failed ones aren't retried on every repaint
+	private final HashSet<PfssDecompressed> scheduled = new HashSet<>();
+
+	private @Nullable LocalDateTime lastDate;
+	private boolean forward = true;
+
 	public FrameManager(PfssPlugin _parent)
 	{
 		descriptorManager = new FileDescriptorManager(_parent);
 		dataCache = new DataCache(descriptorManager, _parent);
+		frames = new LRUCache<>(PfssSettings.FRAME_CACHE_SIZE, evicted ->
+			{
+				evictedFrames.add(evicted);
+				scheduled.remove(evicted);
+			});
 	}
 
 	/**
-	 * Get Frame which represents the Date
+	 * Get Frame which represents the Date. This never waits for decompression:
+	 * until the frame is ready, the nearest frame which is ready is returned.
+	 * 
 	 * @param date
 	 * @return Frame or null if there is no frame for the requested date
 	 */
-	public @Nullable PfssDecompressed getFrame(@Nullable GL2 _gl, LocalDateTime date)
+	public synchronized @Nullable PfssDecompressed getFrame(@Nullable GL2 _gl, LocalDateTime date)
 	{
+		if(_gl!=null)
+		{
+			for(PfssDecompressed f:evictedFrames)
+				f.dispose(_gl);
+			evictedFrames.clear();
+		}
+		
 		//outside of loaded frames
 		if(!descriptorManager.isDateInRange(date))
 			return null;
 		
-		//still the same frame
-		if (curFrame!=null && curFrame.getDescriptor().isDateInRange(date))
+		FileDescriptor fd=descriptorManager.getFileDescriptor(date);
+		if(fd==null)
+			return null;
+		
+		if(lastDate!=null && !date.isEqual(lastDate))
+			forward=date.isAfter(lastDate);
+		lastDate=date;
+		
+		PfssDecompressed frame=getOrCreate(fd);
+		decompressAsync(frame);
+		
+		FileDescriptor next=fd;
+		for(int i=0;i<PfssSettings.FRAME_READ_AHEAD_SIZE;i++)
 		{
-		    if(!curFrame.isDataAssigned())
-		    {
-		        FileDescriptor fd=descriptorManager.getFileDescriptor(date);
-		        if(fd!=null)
-		        {
-		            PfssCompressed comp = dataCache.get(fd);
-		            comp.loadDataAsync();
-		            
-		            try
-		            {
-		            	PfssDecompressor.decompress(comp,curFrame);
-		            }
-		            catch(NullPointerException _npe)
-		            {
-		            	Telemetry.trackException(_npe);
-		            	return null;
-		            }
-		        }
-		    }
-			return curFrame;
+			next=forward ? descriptorManager.getNext(next) : descriptorManager.getPrevious(next);
+			if(next==fd)
+				break;
+			
+			decompressAsync(getOrCreate(next));
 		}
-
-		if(curFrame!=null && _gl!=null)
-		    curFrame.dispose(_gl);
 		
-        FileDescriptor fd=descriptorManager.getFileDescriptor(date);
-        if(fd!=null)
-        {
-            curFrame = new PfssDecompressed(fd);
-            
-            PfssCompressed comp = dataCache.get(fd);
-            comp.loadDataAsync();
-            PfssDecompressor.decompress(comp,curFrame);
-            return curFrame;
-        }
-        
-        return null;
+		//keep the requested frame the most recently used one
+		frames.get(fd);
+		
+		if(frame.isDataAssigned())
+			return frame;
+		
+		return getNearestReadyFrame(date);
+	}
+	
+	private PfssDecompressed getOrCreate(FileDescriptor _fd)
+	{
+		PfssDecompressed frame=frames.get(_fd);
+		if(frame==null)
+		{
+			frame=new PfssDecompressed(_fd);
+			frames.put(_fd, frame);
+		}
+		return frame;
+	}
+	
+	private void decompressAsync(PfssDecompressed _frame)
+	{
+		if(_frame.isDataAssigned() || scheduled.contains(_frame))
+			return;
+		
+		PfssCompressed comp = dataCache.get(_frame.getDescriptor());
+		comp.loadDataAsync();
+		
+		//finished downloads trigger a repaint, which gets here again
+		if(!comp.isLoaded())
+			return;
+		
+		scheduled.add(_frame);
+		PfssPlugin.pool.execute(() ->
+			{
+				try
+				{
+					PfssDecompressor.decompress(comp,_frame);
+				}
+				catch(NullPointerException _npe)
+				{
+					Telemetry.trackException(_npe);
+				}
+				
+				if(_frame.isDataAssigned())
+					Plugins.repaintMainPanel();
+			});
+	}
+	
+	private @Nullable PfssDecompressed getNearestReadyFrame(LocalDateTime _date)
+	{
+		PfssDecompressed nearest=null;
+		long nearestDistance=Long.MAX_VALUE;
+		for(PfssDecompressed f:frames.values())
+		{
+			if(!f.isDataAssigned())
+				continue;
+			
+			long distance=Math.abs(ChronoUnit.MILLIS.between(f.getDescriptor().getStartDate(), _date));
+			if(distance<nearestDistance)
+			{
+				nearest=f;
+				nearestDistance=distance;
+			}
+		}
+		return nearest;
 	}
 	
     /**
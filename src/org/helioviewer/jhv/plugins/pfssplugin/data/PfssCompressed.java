@@ -114,15 +114,12 @@ public class PfssCompressed implements Cacheable
 		
 		isLoading = true;
 
-		PfssPlugin.pool.execute(new Runnable()
-		{
-			@Override
-			public void run()
+		//only occupy the pool once the download finished, so decompression doesn't queue up behind downloads
+		httpRequest.getCompletion().addListener(() ->
 			{
 				loadData();
 				Plugins.repaintMainPanel();
-			}
-		});
+			}, PfssPlugin.pool);
 	}
 
 	public static class ByteArrayVolumeManager implements VolumeManager
@@ -10,6 +10,7 @@ import javax.annotation.Nullable;
 import org.helioviewer.jhv.base.math.Vector3d;
 import org.helioviewer.jhv.base.physics.DifferentialRotation;
 import org.helioviewer.jhv.plugins.pfssplugin.PfssSettings;
+import org.helioviewer.jhv.plugins.pfssplugin.data.caching.Cacheable;
 
 import com.jogamp.common.nio.Buffers;
 import com.jogamp.opengl.GL;
@@ -22,7 +23,7 @@ import com.jogamp.opengl.GL2;
  * 
  * this class is threadsafe
  */
-public class PfssDecompressed
+public class PfssDecompressed implements Cacheable
 {
 	private volatile boolean isDataAssigned = false;
 	private volatile boolean uploadedVBOs = false;
@@ -211,6 +212,7 @@ public class PfssDecompressed
 		return isDataAssigned;
 	}
 	
+	@Override
 	public FileDescriptor getDescriptor()
 	{
 		return descriptor;
@@ -31,19 +31,15 @@ public class DataCache
 
 	public PfssCompressed get(FileDescriptor d)
 	{
-		if (cache.contains(d))
-			return cache.get(d);
-
-		if (readAheadCache.contains(d))
-		{
-			PfssCompressed data = readAheadCache.get(d);
-			cache.put(d, data);
-			readAhead(d);
+		PfssCompressed data = cache.get(d);
+		if (data != null)
 			return data;
-		}
 
-		// cache miss
-		PfssCompressed data = getDataAsync(d);
+		data = readAheadCache.get(d);
+		if (data == null)
+			// cache miss
+			data = getDataAsync(d);
+
 		cache.put(d, data);
 		readAhead(d);
 		return data;
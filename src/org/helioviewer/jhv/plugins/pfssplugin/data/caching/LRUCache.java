@@ -1,60 +1,76 @@
 package org.helioviewer.jhv.plugins.pfssplugin.data.caching;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
 
 import org.helioviewer.jhv.plugins.pfssplugin.data.FileDescriptor;
 
 /**
- * Implementation of a simple First-in-First-out Cache. In this usecase this cache uses the LRU algorithm.
+ * Implementation of a least-recently-used cache: every get() or put() makes an
+ * entry the most recent one, and the least recent entry is dropped once the
+ * cache is full.
  * 
  * This class is not threadsafe
  */
-class LRUCache<T extends Cacheable> {
-	private final HashMap<FileDescriptor, Integer> cacheIndices;
-	private final ArrayList<T> cache;
-	private int oldestIndex;
+public class LRUCache<T extends Cacheable> {
+	private final LinkedHashMap<FileDescriptor, T> cache;
+	private final int capacity;
 	
 	/**
 	 * 
 	 * @param size total size of the cache
 	 */
 	public LRUCache(int size) {
-		oldestIndex = 0;
-		cacheIndices = new HashMap<>(size,1);
-		cache = new ArrayList<>(size);
-		
-		//init cache
-		for(int i = 0; i < size;i++) {
-			cache.add(null);
-		}
+		this(size, evicted -> {});
+	}
+	
+	/**
+	 * 
+	 * @param size total size of the cache
+	 * @param onEvict called with every entry dropped from the cache
+	 */
+	public LRUCache(int size, Consumer<T> onEvict) {
+		capacity = size;
+		cache = new LinkedHashMap<FileDescriptor, T>(size * 4 / 3 + 1, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(@Nullable Map.Entry<FileDescriptor, T> eldest) {
+				if(eldest == null || size() <= capacity)
+					return false;
+				
+				onEvict.accept(eldest.getValue());
+				return true;
+			}
+		};
 	}
 	
 	public void put(FileDescriptor key, T value) {
-		T oldest = cache.get(oldestIndex);
-		if(oldest != null) {
-			//unload
-			FileDescriptor d = oldest.getDescriptor();
-			cacheIndices.remove(d);
-		}
-		
-		//move index
-		cacheIndices.put(key, oldestIndex);
-		cache.set(oldestIndex, value);
-		
-		oldestIndex = ++oldestIndex % cache.size();
+		cache.put(key, value);
 	}
 	
-	public T get(FileDescriptor key) {
-		Integer index = cacheIndices.get(key);
-		return cache.get(index);
+	public @Nullable T get(FileDescriptor key) {
+		return cache.get(key);
 	}
 	
 	public boolean contains(FileDescriptor key) {
-		return this.cacheIndices.containsKey(key);
+		return cache.containsKey(key);
 	}
 	
+	/**
+	 * @return the entries, least recently used first. Iterating doesn't change the order.
+	 */
+	public Iterable<T> values() {
+		return cache.values();
+	}
+	
+	/**
+	 * @return the maximum number of entries
+	 */
 	public int size() {
-		return cache.size();
+		return capacity;
 	}
 }
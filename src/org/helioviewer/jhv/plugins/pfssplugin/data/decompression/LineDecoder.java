@@ -0,0 +1,131 @@
+package org.helioviewer.jhv.plugins.pfssplugin.data.decompression;
+
+import java.nio.FloatBuffer;
+
+import org.helioviewer.jhv.base.physics.Constants;
+
+/**
+ * Undoes the quantization and prediction coding of the fieldlines. Every line
+ * is decoded straight into its part of the vertex buffer, so independent lines
+ * can be decoded concurrently.
+ */
+class LineDecoder
+{
+	private final int[] x;
+	private final int[] y;
+	private final int[] z;
+	private final float q1;
+	private final float q2;
+	private final float q3;
+
+	LineDecoder(int[] _x, int[] _y, int[] _z, float _Q1, float _Q2, float _Q3)
+	{
+		x = _x;
+		y = _y;
+		z = _z;
+		q1 = _Q1;
+		q2 = _Q2;
+		q3 = _Q3;
+	}
+
+	/**
+	 * Multiplies a prediction error, depending on its position within the line
+	 */
+	private float dequantize(int _value, int _index)
+	{
+		if (_index < 5)
+			return _value * q1;
+		if (_index < 16)
+			return _value * q2;
+		return _value * q3;
+	}
+
+	/**
+	 * Determines the type of a line from its first and last point, which are
+	 * stored without prediction.
+	 * 
+	 * @param _offset index of the first point in the channels
+	 */
+	LineType getType(int _offset)
+	{
+		float x0 = dequantize(x[_offset], 0);
+		float y0 = dequantize(y[_offset], 0);
+		float z0 = dequantize(z[_offset], 0);
+		if (magnitude(x0, y0, z0) >= Constants.SUN_RADIUS * 1.05)
+			return LineType.OUTSIDE_TO_SUN;
+
+		float x1 = x0 + dequantize(x[_offset + 1], 1);
+		float y1 = y0 + dequantize(y[_offset + 1], 1);
+		float z1 = z0 + dequantize(z[_offset + 1], 1);
+		if (magnitude(x1, y1, z1) > Constants.SUN_RADIUS * 1.05)
+			return LineType.SUN_TO_OUTSIDE;
+		return LineType.SUN_TO_SUN;
+	}
+
+	private static double magnitude(double _x, double _y, double _z)
+	{
+		return Math.sqrt(_x * _x + _y * _y + _z * _z);
+	}
+
+	/**
+	 * Decodes a line into <code>_vertices</code>, using only absolute puts.
+	 * 
+	 * The points are encoded breadth first: after both end points, every value
+	 * is the error of the linear prediction from the two points enclosing it,
+	 * halving the intervals level by level.
+	 * 
+	 * @param _offset index of the first point in the channels
+	 * @param _size number of points of the line
+	 * @param _vertex index of the first point in the vertex buffer
+	 */
+	void decode(int _offset, int _size, FloatBuffer _vertices, int _vertex)
+	{
+		int first = _vertex * 3;
+		int last = (_vertex + _size - 1) * 3;
+		float x0 = dequantize(x[_offset], 0);
+		float y0 = dequantize(y[_offset], 0);
+		float z0 = dequantize(z[_offset], 0);
+		_vertices.put(first, x0);
+		_vertices.put(first + 1, y0);
+		_vertices.put(first + 2, z0);
+		_vertices.put(last, x0 + dequantize(x[_offset + 1], 1));
+		_vertices.put(last + 1, y0 + dequantize(y[_offset + 1], 1));
+		_vertices.put(last + 2, z0 + dequantize(z[_offset + 1], 1));
+
+		if (_size <= 2)
+			return;
+
+		//pairs of start and end index, every interval yields one point and at most two new intervals
+		int[] queue = new int[2 * (_size - 1)];
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = 0;
+		queue[tail++] = _size - 1;
+		for (int i = 2; head < tail; i++)
+		{
+			int start = queue[head++];
+			int end = queue[head++];
+			int mid = (start + end) / 2;
+
+			float factor = (mid - start) / (float) (end - start);
+			int s = (_vertex + start) * 3;
+			int e = (_vertex + end) * 3;
+			int m = (_vertex + mid) * 3;
+			_vertices.put(m, (1 - factor) * _vertices.get(s) + factor * _vertices.get(e) - dequantize(x[_offset + i], i));
+			_vertices.put(m + 1, (1 - factor) * _vertices.get(s + 1) + factor * _vertices.get(e + 1) - dequantize(y[_offset + i], i));
+			_vertices.put(m + 2, (1 - factor) * _vertices.get(s + 2) + factor * _vertices.get(e + 2) - dequantize(z[_offset + i], i));
+
+			if (start + 1 != mid)
+			{
+				queue[tail++] = start;
+				queue[tail++] = mid;
+			}
+
+			if (end - 1 != mid)
+			{
+				queue[tail++] = mid;
+				queue[tail++] = end;
+			}
+		}
+	}
+}
@@ -1,11 +1,11 @@
 package org.helioviewer.jhv.plugins.pfssplugin.data.decompression;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 import org.helioviewer.jhv.base.Telemetry;
 import org.helioviewer.jhv.plugins.pfssplugin.data.PfssCompressed;
@@ -35,7 +35,8 @@ public class PfssDecompressor
 		if (_dest.isDataAssigned())
 			return;
 		
-		try (InputStream is = new ByteArrayInputStream(UnRar.unrarData(_src).toByteArray()))
+		long start = System.nanoTime();
+		try (InputStream is = UnRar.unrarData(_src))
 		{
 			Fits fits = new Fits(is, false);
 			BasicHDU hdus[] = fits.read();
@@ -53,19 +54,10 @@ public class PfssDecompressor
 			byte[] zRaw = ((byte[][]) bhdu.getColumn("Z"))[0];
 
 			int[] lengths = ByteDecoder.decodeAdaptiveUnsigned(line_length);
-			int[] xInt = ByteDecoder.decodeAdaptive(xRaw);
-			int[] yInt = ByteDecoder.decodeAdaptive(yRaw);
-			int[] zInt = ByteDecoder.decodeAdaptive(zRaw);
+			int[][] xyz = Arrays.stream(new byte[][] { xRaw, yRaw, zRaw }).parallel().map(ByteDecoder::decodeAdaptive).toArray(int[][]::new);
 
-			IntermediateLineData[] lines = IntermediateLineData.splitToLines(lengths, xInt, yInt, zInt);
-			for (IntermediateLineData l : lines)
-				l.decodePrediction(Q1, Q2, Q3);
-
-			ArrayList<DecompressedLine> decompressedLines = new ArrayList<>(lines.length);
-			for (IntermediateLineData line : lines)
-				decompressedLines.add(new DecompressedLine(line));
-
-			convertToBuffers(decompressedLines, l0, b0, _dest);
+			decodeLines(lengths, new LineDecoder(xyz[0], xyz[1], xyz[2], Q1, Q2, Q3), l0, b0, _dest);
+			Telemetry.trackMetric("PFSS decompression ms", (System.nanoTime() - start) / 1000000d);
 		}
 		catch (FitsException | IOException e)
 		{
@@ -74,77 +66,63 @@ public class PfssDecompressor
 	}
 
 	/**
-	 * subsamples and converts the data to the buffer representation needed for
-	 * the graphics card.
-	 * 
-	 * Also does average filtering.
-	 * 
-	 * @param lines
+	 * Decodes all lines straight into the buffer representation needed for
+	 * the graphics card. The sizes of all buffers are known upfront, because
+	 * the type of a line only depends on its end points.
 	 */
-	private static void convertToBuffers(ArrayList<DecompressedLine> lines, float _l0, float _b0, PfssDecompressed _frame)
+	private static void decodeLines(int[] _lengths, LineDecoder _decoder, float _l0, float _b0, PfssDecompressed _frame)
 	{
+		LineType[] types = new LineType[_lengths.length];
+		int[] offsets = new int[_lengths.length];
+		int[] indexOffsets = new int[_lengths.length];
 		int stoSize = 0;
 		int stsSize = 0;
 		int otsSize = 0;
 		int totalSize = 0;
-		for (int i = 0; i < lines.size(); i++)
+		for (int i = 0; i < _lengths.length; i++)
 		{
-			DecompressedLine currentLine = lines.get(i);
-
-			DecompressedLine subsampledLine = new DecompressedLine(currentLine.points, currentLine.getType());
-			lines.set(i, subsampledLine);
-			switch (subsampledLine.getType())
+			offsets[i] = totalSize;
+			types[i] = _decoder.getType(totalSize);
+			switch (types[i])
 			{
 				case OUTSIDE_TO_SUN:
-					otsSize += subsampledLine.getSize() - 1;
+					indexOffsets[i] = otsSize * 2;
+					otsSize += _lengths[i] - 1;
 					break;
 				case SUN_TO_OUTSIDE:
-					stoSize += subsampledLine.getSize() - 1;
+					indexOffsets[i] = stoSize * 2;
+					stoSize += _lengths[i] - 1;
 					break;
 				case SUN_TO_SUN:
-					stsSize += subsampledLine.getSize() - 1;
+					indexOffsets[i] = stsSize * 2;
+					stsSize += _lengths[i] - 1;
 					break;
 				default:
 					break;
 			}
 
-			totalSize += subsampledLine.getSize();
+			totalSize += _lengths[i];
 		}
 
-		// copy to buffers
 		FloatBuffer vertices = Buffers.newDirectFloatBuffer(totalSize * 3);
 		IntBuffer indicesSunToOutside = Buffers.newDirectIntBuffer(stoSize * 2);
 		IntBuffer indicesSunToSun = Buffers.newDirectIntBuffer(stsSize * 2);
 		IntBuffer indicesOutsideToSun = Buffers.newDirectIntBuffer(otsSize * 2);
 
-		int vertexIndex = 0;
-		for (DecompressedLine line : lines)
-		{
-			IntBuffer indexBuffer = getLineType(line.getType(), indicesSunToOutside, indicesSunToSun, indicesOutsideToSun);
-
-			int pointIndex = 0;
-			while (pointIndex + 1 < line.getSize())
+		//lines write disjoint parts of the buffers
+		IntStream.range(0, _lengths.length).parallel().forEach(i ->
 			{
-				DecompressedPoint point = line.getPoint(pointIndex);
-				vertices.put(point.getX());
-				vertices.put(point.getY());
-				vertices.put(point.getZ());
-				indexBuffer.put(vertexIndex);
-				indexBuffer.put(vertexIndex + 1);
-				vertexIndex++;
-				pointIndex++;
-			}
-			DecompressedPoint point = line.getPoint(pointIndex);
-			vertices.put(point.getX());
-			vertices.put(point.getY());
-			vertices.put(point.getZ());
-			vertexIndex++;
-		}
+				_decoder.decode(offsets[i], _lengths[i], vertices, offsets[i]);
+
+				IntBuffer indexBuffer = getLineType(types[i], indicesSunToOutside, indicesSunToSun, indicesOutsideToSun);
+				int index = indexOffsets[i];
+				for (int v = offsets[i]; v + 1 < offsets[i] + _lengths[i]; v++)
+				{
+					indexBuffer.put(index++, v);
+					indexBuffer.put(index++, v + 1);
+				}
+			});
 
-		vertices.flip();
-		indicesSunToOutside.flip();
-		indicesOutsideToSun.flip();
-		indicesSunToSun.flip();
 		_frame.setLoadedData(vertices, indicesSunToOutside, indicesSunToSun, indicesOutsideToSun, _l0, _b0);
 	}
 
@@ -1,7 +1,9 @@
 package org.helioviewer.jhv.plugins.pfssplugin.data.decompression;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 import org.helioviewer.jhv.plugins.pfssplugin.data.PfssCompressed;
 
@@ -20,14 +22,14 @@ class UnRar
 	 * 
 	 * @param data
 	 *            to unrar
-	 * @return raw byte stream of unrar data
+	 * @return raw byte stream of unrar data, backed by the extracted buffer
 	 * @throws IOException
 	 *             The jUnrar library seems unable to decompress a
 	 *             byteArrayInputStream and needs to have a file on the local
 	 *             filesystem. Throws an IOException if it was unable to write
 	 *             the temp file.
 	 */
-	public static ByteArrayOutputStream unrarData(PfssCompressed data) throws IOException
+	public static InputStream unrarData(PfssCompressed data) throws IOException
 	{
 		Archive archive = null;
 
@@ -43,9 +45,9 @@ class UnRar
 
 				if ("v1.fits".equals(fh.getFileNameString()))
 				{
-					ByteArrayOutputStream stream = new ByteArrayOutputStream();
+					ExtractedStream stream = new ExtractedStream((int) Math.min(fh.getFullUnpackSize(), Integer.MAX_VALUE - 8));
 					archive.extractFile(fh, stream);
-					return stream;
+					return stream.toInputStream();
 				}
 			}
 		}
@@ -61,4 +63,19 @@ class UnRar
 		}
 	}
 
+	/**
+	 * Avoids copying the extracted data before parsing it
+	 */
+	private static class ExtractedStream extends ByteArrayOutputStream
+	{
+		ExtractedStream(int _size)
+		{
+			super(Math.max(32, _size));
+		}
+
+		InputStream toInputStream()
+		{
+			return new ByteArrayInputStream(buf, 0, count);
+		}
+	}
 }
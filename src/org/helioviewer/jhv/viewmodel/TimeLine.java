@@ -3,6 +3,7 @@ package org.helioviewer.jhv.viewmodel;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import javax.annotation.Nullable;
 import javax.swing.Timer;
@@ -333,6 +334,51 @@ public class TimeLine implements LayerListener
 		animationMode = _animationMode;
 	}
 	
+	/**
+	 * Predicts which frames will be shown next during playback, taking the
+	 * animation mode and direction into account.
+	 * 
+	 * @return Start times of the upcoming frames, in the order they will be shown
+	 */
+	public long[] getNextFramesMS(int _count)
+	{
+		long[] next=new long[_count];
+		int found=0;
+		
+		long cur=currentTimeMS;
+		boolean fwd=forward;
+		for(int i=0;i<2*_count+2 && found<_count;i++)
+		{
+			long prev=cur;
+			switch(animationMode)
+			{
+				case LOOP:
+					cur=cur+cadenceMS>endTimeMS ? startTimeMS : cur+cadenceMS;
+					break;
+				case STOP:
+					if(cur+cadenceMS>endTimeMS)
+						return Arrays.copyOf(next, found);
+					cur+=cadenceMS;
+					break;
+				case SWING:
+					if(fwd && cur+cadenceMS>endTimeMS)
+						fwd=false;
+					else if(!fwd && cur-cadenceMS<startTimeMS)
+						fwd=true;
+					else
+						cur+=fwd ? cadenceMS : -cadenceMS;
+					break;
+				default:
+					break;
+			}
+			
+			if(cur!=prev && cur!=currentTimeMS)
+				next[found++]=cur;
+		}
+		
+		return Arrays.copyOf(next, found);
+	}
+	
 	private void loop()
 	{
 		long next=currentTimeMS+cadenceMS;
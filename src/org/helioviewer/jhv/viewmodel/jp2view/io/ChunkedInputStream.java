@@ -95,17 +95,30 @@ public class ChunkedInputStream extends InputStream
 				try
 				{
 					chunkLength = Integer.parseInt(line, 16);
-					if (chunkLength <= 0)
-						eof = true;
 				}
 				catch (NumberFormatException ex)
 				{
 					throw new ProtocolException("Invalid chunk length format.");
 				}
+				
+				if (chunkLength <= 0)
+					readTrailer();
 			}
 		}
 	}
 
+	/**
+	 * Skips the trailer after the last chunk, so the connection can be used
+	 * for the next message.
+	 */
+	private void readTrailer() throws IOException
+	{
+		eof = true;
+		while (readLine().length() > 0)
+		{
+		}
+	}
+
 	@Override
 	public int read(@Nullable byte[] b, int off, int len) throws IOException
 	{
@@ -135,13 +148,14 @@ public class ChunkedInputStream extends InputStream
 				try
 				{
 					chunkLength = Integer.parseInt(line, 16);
-					if (chunkLength <= 0)
-						eof = true;
 				}
 				catch (NumberFormatException ex)
 				{
 					throw new ProtocolException("Invalid chunk length format.");
 				}
+				
+				if (chunkLength <= 0)
+					readTrailer();
 			}
 		}
 	}
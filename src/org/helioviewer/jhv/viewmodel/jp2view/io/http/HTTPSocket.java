@@ -1,5 +1,6 @@
 package org.helioviewer.jhv.viewmodel.jp2view.io.http;
 
+import java.io.BufferedInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -22,9 +23,20 @@ public class HTTPSocket extends Socket
 	public URI uri;
 	public final int timeout;
 	public final String host;
+	
+	/** Whether the connection was already used for an earlier request */
+	public boolean reused;
+	
+	/** When the connection was given back to the <code>HTTPSocketPool</code> */
+	volatile long lastUsed;
+	
+	/** Whether the server allows further requests on this connection */
+	private boolean keepAlive = true;
+	
+	private @Nullable InputStream bufferedInput;
 
 	/** The default port for the HTTP socket */
-	static private final int DEFAULT_PORT = 80;
+	static final int DEFAULT_PORT = 80;
 
 	/** The maximum HTTP version supported */
 	static private final double VERSION = 1.1;
@@ -44,6 +56,46 @@ public class HTTPSocket extends Socket
 		setSoTimeout(timeout);
 		setKeepAlive(false);
 	}
+	
+	/**
+	 * Returns the buffered input stream of this connection. Response headers
+	 * and bodies have to be read through it, so no bytes get lost in between.
+	 */
+	public InputStream getBufferedInputStream() throws IOException
+	{
+		InputStream input = bufferedInput;
+		if (input == null)
+			bufferedInput = input = new BufferedInputStream(getInputStream(), 65536);
+		
+		return input;
+	}
+	
+	/**
+	 * Returns whether another request may be sent over this connection.
+	 */
+	public boolean isReusable()
+	{
+		if (!keepAlive || isClosed() || !isConnected() || isInputShutdown() || isOutputShutdown())
+			return false;
+		
+		//leftovers of the previous response
+		try
+		{
+			return getBufferedInputStream().available() == 0;
+		}
+		catch (IOException _e)
+		{
+			return false;
+		}
+	}
+	
+	/**
+	 * Has to be called if the response was not read completely.
+	 */
+	public void preventReuse()
+	{
+		keepAlive = false;
+	}
 
 	/**
 	 * Receives a HTTP message from the socket. Currently it is only supported
@@ -58,7 +110,7 @@ public class HTTPSocket extends Socket
 		int code;
 		double ver;
 
-		InputStream input = getInputStream();
+		InputStream input = getBufferedInputStream();
 		String line = LineReader.readLine(input);
 		if (line == null)
 			return null;
@@ -114,6 +166,12 @@ public class HTTPSocket extends Socket
 
 			res.setHeader(parts[0], parts[1]);
 		}
+		
+		String connection = res.getHeader("Connection");
+		if (connection == null)
+			keepAlive &= ver >= 1.1;
+		else
+			keepAlive &= "keep-alive".equalsIgnoreCase(connection.trim());
 
 		return res;
 	}
@@ -0,0 +1,107 @@
+package org.helioviewer.jhv.viewmodel.jp2view.io.http;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+import org.helioviewer.jhv.base.Telemetry;
+
+/**
+ * Keeps idle HTTP/1.1 connections open per host and port, so subsequent
+ * requests to the same server don't have to pay for the TCP setup again.
+ */
+public class HTTPSocketPool
+{
+	/** Idle connections are closed after this time, before the server does */
+	private static final long MAX_IDLE_MS = 10000;
+
+	private static final int MAX_IDLE_PER_HOST = 4;
+
+	//most recently released connection last
+	private static final HashMap<String,ArrayDeque<HTTPSocket>> idle = new HashMap<>();
+
+	private static String key(String _host, int _port)
+	{
+		return _host + ":" + _port;
+	}
+
+	/**
+	 * Returns a connected socket for the given uri, reusing an idle connection
+	 * if possible. Sockets have to be given back with <code>release()</code>
+	 * or be closed.
+	 */
+	public static HTTPSocket acquire(URI _uri, int _timeout) throws IOException
+	{
+		long now = System.currentTimeMillis();
+		synchronized (idle)
+		{
+			ArrayDeque<HTTPSocket> sockets = idle.get(key(_uri.getHost(), _uri.getPort() <= 0 ? HTTPSocket.DEFAULT_PORT : _uri.getPort()));
+			while (sockets != null && !sockets.isEmpty())
+			{
+				HTTPSocket s = sockets.pollLast();
+				if (now - s.lastUsed < MAX_IDLE_MS && s.isReusable())
+				{
+					s.uri = _uri;
+					s.reused = true;
+					s.setSoTimeout(_timeout);
+					return s;
+				}
+
+				close(s);
+			}
+		}
+
+		//only create a new socket on a miss, it already allocates a native one
+		HTTPSocket socket = new HTTPSocket(_uri, _timeout);
+		try
+		{
+			socket.connect(new InetSocketAddress(socket.host, socket.port), _timeout);
+		}
+		catch (IOException _e)
+		{
+			close(socket);
+			throw _e;
+		}
+		return socket;
+	}
+
+	/**
+	 * Gives a socket back to the pool. The response has to be read completely
+	 * beforehand.
+	 */
+	public static void release(HTTPSocket _socket)
+	{
+		if (!_socket.isReusable())
+		{
+			close(_socket);
+			return;
+		}
+
+		_socket.lastUsed = System.currentTimeMillis();
+		synchronized (idle)
+		{
+			String key = key(_socket.host, _socket.port);
+			ArrayDeque<HTTPSocket> sockets = idle.get(key);
+			if (sockets == null)
+				idle.put(key, sockets = new ArrayDeque<>());
+
+			sockets.addLast(_socket);
+			while (sockets.size() > MAX_IDLE_PER_HOST)
+				close(sockets.pollFirst());
+		}
+	}
+
+	private static void close(HTTPSocket _socket)
+	{
+		try
+		{
+			_socket.close();
+		}
+		catch (IOException _e)
+		{
+			Telemetry.trackException(_e);
+		}
+	}
+}
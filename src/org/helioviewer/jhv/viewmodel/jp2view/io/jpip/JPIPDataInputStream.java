@@ -4,13 +4,22 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nullable;
 
 /**
  * The class <code>JpipDataInputStream</code> allows to read JPIP data-bin
  * segments, as it is defined in the Part 9 of the the JPEG2000 standard.
+ *
+ * The stream is read through an internal buffer, so the underlying
+ * <code>InputStream</code> doesn't need to be buffered. The same
+ * <code>JPIPDataSegment</code> is returned for every segment, so its contents
+ * are only valid until the next call to <code>readSegment()</code>.
  */
 class JPIPDataInputStream
 {
+	private static final int BUFFER_SIZE = 65536;
 
 	/** The last class identifier read. */
 	private long classId = 0;
@@ -27,17 +36,57 @@ class JPIPDataInputStream
 	/** The <code>InputStream</code> base. */
 	private InputStream in;
 
+	/** Bytes read from <code>in</code>, but not yet parsed. */
+	private final ByteBuffer window = ByteBuffer.allocate(BUFFER_SIZE);
+
+	/** The segment returned by every call of <code>readSegment()</code>. */
+	private final JPIPDataSegment seg = new JPIPDataSegment();
+
 	/** Constructs a object based on the indicated <code>InputStream</code>. */
 	public JPIPDataInputStream(InputStream in)
 	{
 		this.in = in;
+		window.limit(0);
+	}
+
+	/**
+	 * Refills the window, keeping the bytes not parsed yet.
+	 *
+	 * @return <code>false</code> if the end of the stream was reached
+	 */
+	private boolean fill() throws IOException
+	{
+		window.compact();
+		try
+		{
+			int read = in.read(window.array(), window.position(), window.remaining());
+			if (read < 0)
+				return false;
+
+			window.position(window.position() + read);
+			return true;
+		}
+		finally
+		{
+			window.flip();
+		}
+	}
+
+	/** Reads a single byte, or returns -1 at the end of the stream. */
+	private int readByte() throws IOException
+	{
+		while (!window.hasRemaining())
+			if (!fill())
+				return -1;
+
+		return window.get() & 0xFF;
 	}
 
 	/**
 	 * Reads an VBAS integer from the stream. The length in bytes of the VBAS is
 	 * stored in the <code>vbasLength</code>variable, and the first byte of the
 	 * VBAS is stored in the <code>vbasFstByte</code> variable.
-	 * 
+	 *
 	 * @throws java.io.IOException
 	 */
 	private long readVBAS() throws IOException
@@ -52,7 +101,7 @@ class JPIPDataInputStream
 			if (vbasLength >= 9)
 				throw new ProtocolException("VBAS length not supported");
 
-			if ((c = in.read()) < 0)
+			if ((c = readByte()) < 0)
 			{
 				if (vbasLength > 0)
 					throw new EOFException("EOF reached before completing VBAS");
@@ -72,32 +121,30 @@ class JPIPDataInputStream
 	}
 
 	/**
-	 * Reads the next data segment from the stream, and stores its information
-	 * in the <code>JpipDataSegment</code> object passed as parameter. The data
-	 * buffer is not reallocated every time. It is only reallocated if the next
-	 * data length is bigger than the previous one.
-	 * 
+	 * Reads the next data segment from the stream. The returned object and its
+	 * data buffer are reused by the next call. The data buffer is only
+	 * reallocated if the next data length is bigger than the previous one.
+	 *
 	 * @throws java.io.IOException
-	 * @return Returns <code>true</code> if a new data segment was read, or
-	 *         <code>false</code> if the end of stream was reached.
+	 * @return Returns the data segment, or <code>null</code> if the end of
+	 *         stream was reached.
 	 */
-	@SuppressWarnings({ "null", "unused" })
-	public JPIPDataSegment readSegment() throws IOException
+	public @Nullable JPIPDataSegment readSegment() throws IOException
 	{
 		int m;
 		long id;
 		if ((id = readVBAS()) < 0)
 			return null;
 
-		JPIPDataSegment seg = new JPIPDataSegment();
-
 		seg.binID = id;
+		seg.aux = 0;
 
 		if (vbasFstByte == 0)
 		{
 			seg.isEOR = true;
+			seg.isFinal = false;
 
-			if ((seg.binID = in.read()) < 0)
+			if ((seg.binID = readByte()) < 0)
 				throw new EOFException("EOF reached before completing EOR message");
 
 			seg.length = (int) readVBAS();
@@ -121,11 +168,10 @@ class JPIPDataInputStream
 			}
 			seg.codestreamID = codestream;
 
-			for (JPIPDatabinClass idEnum : JPIPDatabinClass.values())
-				if (classId == idEnum.getStandardClassID())
-					seg.classID = idEnum;
-			if (seg.classID == null)
+			JPIPDatabinClass databinClass = JPIPDatabinClass.fromStandardClassID(classId);
+			if (databinClass == null)
 				throw new ProtocolException("Invalid databin classID");
+			seg.classID = databinClass;
 
 			seg.offset = (int)readVBAS();
 			seg.length = (int)readVBAS();
@@ -137,23 +183,21 @@ class JPIPDataInputStream
 
 		if (seg.length > 0)
 		{
-			// Assign new array if it was null
-			if (seg.data == null)
-				seg.data = new byte[seg.length];
-			
 			// Assign larger array if needed.
-			seg.data = seg.data.length < seg.length ? new byte[seg.length] : seg.data;
+			byte[] data = seg.data;
+			if (data == null || data.length < seg.length)
+				seg.data = data = new byte[seg.length];
 
-			int offset = 0;
-			int len = seg.length;
+			int offset = Math.min(seg.length, window.remaining());
+			window.get(data, 0, offset);
 
-			while (len != 0)
+			// bypass the window for the rest of large segments
+			while (offset < seg.length)
 			{
-				int read = in.read(seg.data, offset, len);
+				int read = in.read(data, offset, seg.length - offset);
 				if (read == -1)
 					throw new EOFException("Unexpected EOF");
 
-				len -= read;
 				offset += read;
 			}
 		}
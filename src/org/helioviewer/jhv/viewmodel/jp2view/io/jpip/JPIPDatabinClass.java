@@ -1,5 +1,7 @@
 package org.helioviewer.jhv.viewmodel.jp2view.io.jpip;
 
+import javax.annotation.Nullable;
+
 /**
  * Enum describing the databin class ID's. Methods exist for getting the
  * KakaduClassID and the StandardClassID. I have also included the string
@@ -25,6 +27,28 @@ public enum JPIPDatabinClass
 	 */
 	private String jpipString;
 	
+	/** Lookup table from the standard classID to the databin class. */
+	private static final JPIPDatabinClass[] byStandardClassID;
+	
+	static
+	{
+		int max=0;
+		for(JPIPDatabinClass c:values())
+			max=Math.max(max, c.standardClassID);
+		
+		byStandardClassID=new JPIPDatabinClass[max+1];
+		for(JPIPDatabinClass c:values())
+			byStandardClassID[c.standardClassID]=c;
+	}
+	
+	public static @Nullable JPIPDatabinClass fromStandardClassID(long _standardClassID)
+	{
+		if(_standardClassID<0 || _standardClassID>=byStandardClassID.length)
+			return null;
+		
+		return byStandardClassID[(int)_standardClassID];
+	}
+	
 	public static JPIPDatabinClass fromKduClassID(int _kakaduClassID)
 	{
 		for(JPIPDatabinClass c:values())
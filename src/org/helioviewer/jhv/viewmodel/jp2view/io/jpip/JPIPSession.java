@@ -0,0 +1,177 @@
+package org.helioviewer.jhv.viewmodel.jp2view.io.jpip;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import org.helioviewer.jhv.base.Telemetry;
+
+/**
+ * Keeps track of the JPIP channel of a single image. As long as the channel
+ * is open, the server knows which databins were already sent, so requests
+ * don't have to describe the client cache again. If the server doesn't
+ * support channels, every request has to be stateless.
+ */
+public class JPIPSession
+{
+	private static final AtomicLong statefulRequests = new AtomicLong();
+	private static final AtomicLong statelessRequests = new AtomicLong();
+	private static final AtomicLong modelBytesSent = new AtomicLong();
+	private static final AtomicLong modelBytesSaved = new AtomicLong();
+
+	private @Nullable String channelID;
+	private @Nullable URI channelURI;
+	private boolean stateless;
+	private int failedChannels;
+	
+	//whether a request is using the channel right now
+	private boolean channelInUse;
+
+	//approximate size of a cache model describing what the server sent within the channel
+	private long knownModelLength;
+
+	/**
+	 * Reserves the channel for the next request. Requests must not use a
+	 * channel concurrently, so it has to be given back with
+	 * <code>releaseChannel()</code> afterwards.
+	 * 
+	 * @return <code>null</code> if a new channel has to be requested, because
+	 *         there is none, it is in use by another request or the server
+	 *         doesn't support channels
+	 */
+	public synchronized @Nullable String acquireChannel()
+	{
+		if (channelID == null || channelInUse)
+			return null;
+		
+		channelInUse = true;
+		return channelID;
+	}
+	
+	public synchronized void releaseChannel(String _cid)
+	{
+		if (_cid.equals(channelID))
+			channelInUse = false;
+	}
+
+	/**
+	 * Returns the uri to send requests of the current channel to.
+	 */
+	public synchronized URI getURI(URI _default)
+	{
+		URI uri = channelURI;
+		return channelID == null || uri == null ? _default : uri;
+	}
+
+	public synchronized boolean isStateless()
+	{
+		return stateless;
+	}
+
+	/**
+	 * Has to be called with the response of every request which asked for a
+	 * new channel.
+	 */
+	public synchronized void channelRequested(URI _uri, JPIPResponse _response, int _modelLength)
+	{
+		statelessRequests.incrementAndGet();
+		modelBytesSent.addAndGet(_modelLength);
+		//keep the channel another request is using right now
+		if (stateless || channelInUse)
+			return;
+
+		String cnew = _response.getHeader("JPIP-cnew");
+		if (cnew == null)
+		{
+			stateless = true;
+			return;
+		}
+
+		String cid = null;
+		String path = null;
+		for (String token : cnew.split(","))
+		{
+			String[] kv = token.trim().split("=", 2);
+			if (kv.length != 2)
+				continue;
+			if ("cid".equals(kv[0]))
+				cid = kv[1];
+			else if ("path".equals(kv[0]))
+				path = kv[1];
+		}
+
+		if (cid == null)
+		{
+			stateless = true;
+			return;
+		}
+
+		try
+		{
+			channelURI = path == null ? _uri : new URI(_uri.getScheme(), _uri.getUserInfo(), _uri.getHost(), _uri.getPort(), "/" + path, null, null);
+		}
+		catch (URISyntaxException _e)
+		{
+			Telemetry.trackException(_e);
+			stateless = true;
+			return;
+		}
+
+		channelID = cid;
+		knownModelLength = _modelLength;
+	}
+
+	/**
+	 * Has to be called after every successful request over the channel.
+	 */
+	public synchronized void channelUsed()
+	{
+		statefulRequests.incrementAndGet();
+		modelBytesSaved.addAndGet(knownModelLength);
+	}
+
+	/**
+	 * Has to be called for every databin segment received over the channel.
+	 */
+	public synchronized void segmentReceived(@Nullable String _cid, JPIPDataSegment _seg)
+	{
+		if (_cid == null || !_cid.equals(channelID))
+			return;
+
+		//class, bin id and separator. this ignores codestream qualifiers.
+		knownModelLength += _seg.classID.getJpipString().length() + 1 + (_seg.binID == 0 ? 1 : (long)Math.log10(_seg.binID) + 1);
+	}
+
+	/**
+	 * Forgets the channel, e.g. after the server refused a request on it. If
+	 * this happens again, every further request will be stateless.
+	 */
+	public synchronized void channelFailed(String _cid)
+	{
+		if (!_cid.equals(channelID))
+			return;
+		
+		if (++failedChannels >= 2)
+			stateless = true;
+
+		channelID = null;
+		channelInUse = false;
+		channelURI = null;
+		knownModelLength = 0;
+	}
+
+	public static void trackStatistics()
+	{
+		long stateful = statefulRequests.getAndSet(0);
+		long statelessCount = statelessRequests.getAndSet(0);
+		if (stateful + statelessCount == 0)
+			return;
+
+		Telemetry.trackMetric("JPIP stateful requests", stateful);
+		Telemetry.trackMetric("JPIP stateless requests", statelessCount);
+		Telemetry.trackMetric("JPIP model bytes sent", modelBytesSent.getAndSet(0));
+		Telemetry.trackMetric("JPIP model bytes saved", modelBytesSaved.getAndSet(0));
+	}
+}
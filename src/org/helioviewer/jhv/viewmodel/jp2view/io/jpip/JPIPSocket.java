@@ -1,9 +1,8 @@
 package org.helioviewer.jhv.viewmodel.jp2view.io.jpip;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.util.function.Consumer;
@@ -17,8 +16,12 @@ import org.helioviewer.jhv.viewmodel.jp2view.io.ChunkedInputStream;
 import org.helioviewer.jhv.viewmodel.jp2view.io.FixedSizedInputStream;
 import org.helioviewer.jhv.viewmodel.jp2view.io.http.HTTPResponse;
 import org.helioviewer.jhv.viewmodel.jp2view.io.http.HTTPSocket;
+import org.helioviewer.jhv.viewmodel.jp2view.io.http.HTTPSocketPool;
 
-public class JPIPSocket extends HTTPSocket
+/**
+ * Sends JPIP requests over pooled keep-alive connections.
+ */
+public class JPIPSocket
 {
 	/**
 	 * The path supplied on the uri line of the HTTP message. Generally for the
@@ -26,16 +29,31 @@ public class JPIPSocket extends HTTPSocket
 	 * could change it. The Kakadu server seems to change it to /jpip.
 	 */
 	private @Nullable String jpipPath;
+	
+	public URI uri;
+	private final int timeout;
+	
+	/** The connection of the request currently in progress */
+	private volatile @Nullable HTTPSocket socket;
+	
+	/** Set by <code>close()</code>, no further connection will be tried afterwards */
+	private volatile boolean closed;
 
-	public JPIPSocket(URI _uri, int _timeout) throws IOException
+	public JPIPSocket(URI _uri, int _timeout)
 	{
-		super(_uri, _timeout);
+		uri = _uri;
+		timeout = _timeout;
 	}
 
+	/**
+	 * Aborts the request currently in progress, if any.
+	 */
 	public void close() throws IOException
 	{
-		if (!isClosed())
-			super.close();
+		closed = true;
+		HTTPSocket s = socket;
+		if (s != null && !s.isClosed())
+			s.close();
 	}
 
 	private String getResponseHeadersAsString(HTTPResponse res)
@@ -52,117 +70,195 @@ public class JPIPSocket extends HTTPSocket
 	@SuppressWarnings({ "resource" })
 	public @Nullable JPIPResponse send(String _query, Consumer<JPIPDataSegment> _callback) throws IOException
 	{
-		StringBuilder str = new StringBuilder();
-
-		// Adds the URI line.
-		str.append("GET "+uri.getPath()+"?"+_query);
-		str.append(" "+VERSION_TEXT+CRLF);
-
-		str.append("Cache-Control: no-cache"+CRLF);
-		str.append("Accept-Encoding: gzip, deflate"+CRLF);
-		str.append("Host: "+host+":"+port+CRLF);
-		str.append(CRLF);
-
-		try
+		for (;;)
 		{
-			connect(new InetSocketAddress(host, port), timeout);
-	
-			getOutputStream().write(str.toString().getBytes(StandardCharsets.UTF_8));
-			
-			//System.err.println("JPIP request for http://" + host + ":" + port + uri.getPath() + "?"+_query);
-			HTTPResponse httpRes = (HTTPResponse) super.receive();
-			if (httpRes == null)
-				return null;
-	
-			JPIPResponse res = new JPIPResponse(httpRes);
-			InputStream input = new BufferedInputStream(getInputStream(),65536);
+			if (closed)
+				throw new IOException("Request was aborted");
 			
-			String contentEncoding = res.getHeader("Content-Encoding");
-			//System.out.println("Content encoding JPIP: "+contentEncoding);
-			if(contentEncoding!=null)
-				switch(contentEncoding.toLowerCase())
+			HTTPSocket s = HTTPSocketPool.acquire(uri, timeout);
+			socket = s;
+			boolean completed = false;
+			try
+			{
+				//close() might have missed the socket
+				if (closed)
+					throw new IOException("Request was aborted");
+				
+				boolean responseStarted;
+				try
 				{
-					case "gzip":
-						input=new GZIPInputStream(input,8192);
-						break;
-					case "deflate":
-						input=new DeflateInputStream(input);
-						break;
-					default:
-						throw new IOException("Unknown encoding: "+contentEncoding);
+					sendRequest(s, _query);
+					responseStarted = awaitResponse(s);
 				}
-	
-			if (res.status != 200)
-			{
-				byte[] buf = new byte[8192];
-				try (InputStream is = input)
+				catch (SocketTimeoutException _e)
 				{
-					int off = 0;
-					for (;;)
-					{
-						int read = is.read(buf, off, buf.length - off);
-						off += read;
-						if (read == -1 || off == buf.length)
-							break;
-					}
+					throw _e;
 				}
-				catch (Exception _e)
+				catch (IOException _e)
 				{
+					//the server might have closed the idle connection in the meantime
+					if (s.reused && !closed)
+						continue;
+					throw _e;
 				}
-	
-				throw new IOException("Invalid status code returned (" + res.status + ") " + res.reason + "\n"
-						+ new String(buf, StandardCharsets.UTF_8).trim());
+				
+				if (!responseStarted)
+				{
+					if (s.reused && !closed)
+						continue;
+					return null;
+				}
+				
+				HTTPResponse httpRes = (HTTPResponse) s.receive();
+				if (httpRes == null)
+					return null;
+				
+				JPIPResponse res = receive(s, httpRes, _callback);
+				completed = true;
+				return res;
 			}
-			
-			if (res.getHeader("Content-Type") != null && !"image/jpp-stream".equals(res.getHeader("Content-Type")))
-				throw new IOException("Expected image/jpp-stream content!\n" + getResponseHeadersAsString(res));
-	
-			String transferEncoding = res.getHeader("Transfer-Encoding") == null ? "" : res.getHeader("Transfer-Encoding").trim();
-			switch (transferEncoding)
+			finally
 			{
-				case "":
-				case "identity":
-					String contentLengthString = res.getHeader("Content-Length") == null ? "" : res.getHeader("Content-Length").trim();
+				socket = null;
+				if (completed)
+					HTTPSocketPool.release(s);
+				else
 					try
 					{
-						int contentLength = Integer.parseInt(contentLengthString);
-						input = new FixedSizedInputStream(input, contentLength);
+						s.close();
 					}
-					catch (NumberFormatException _nfe)
+					catch(Throwable _t)
 					{
-						throw new IOException("Invalid Content-Length header: " + contentLengthString + "\n"
-								+ getResponseHeadersAsString(res));
+						Telemetry.trackException(_t);
 					}
-					break;
-				case "chunked":
-					input = new ChunkedInputStream(input);
-					break;
-				default:
-					throw new IOException(
-							"Unsupported transfer encoding: " + transferEncoding + "\n" + getResponseHeadersAsString(res));
 			}
+		}
+	}
+	
+	private void sendRequest(HTTPSocket _socket, String _query) throws IOException
+	{
+		StringBuilder str = new StringBuilder();
+
+		// Adds the URI line.
+		str.append("GET "+uri.getPath()+"?"+_query);
+		str.append(" "+HTTPSocket.VERSION_TEXT+HTTPSocket.CRLF);
+
+		str.append("Cache-Control: no-cache"+HTTPSocket.CRLF);
+		str.append("Accept-Encoding: gzip, deflate"+HTTPSocket.CRLF);
+		str.append("Connection: keep-alive"+HTTPSocket.CRLF);
+		str.append("Host: "+_socket.host+":"+_socket.port+HTTPSocket.CRLF);
+		str.append(HTTPSocket.CRLF);
+
+		_socket.getOutputStream().write(str.toString().getBytes(StandardCharsets.UTF_8));
+		
+		//System.err.println("JPIP request for http://" + host + ":" + port + uri.getPath() + "?"+_query);
+	}
 	
-			JPIPDataInputStream jpip = new JPIPDataInputStream(new BufferedInputStream(input,8192));
+	/**
+	 * Waits for the first byte of the response. Only if there is none, the
+	 * request can safely be sent again on another connection.
+	 * 
+	 * @return false if the server closed the connection instead of answering
+	 */
+	private static boolean awaitResponse(HTTPSocket _socket) throws IOException
+	{
+		InputStream input = _socket.getBufferedInputStream();
+		input.mark(1);
+		if (input.read() == -1)
+			return false;
+		
+		input.reset();
+		return true;
+	}
 	
-			JPIPDataSegment seg;
-			while ((seg = jpip.readSegment()) != null)
-				if(seg.isEOR)
-					res.statusI = seg.binID;
-				else
-					_callback.accept(seg);
-			
-			return res;
+	/** Reads the body of the response, which has to be read completely before the connection can be reused */
+	@SuppressWarnings({ "resource" })
+	private JPIPResponse receive(HTTPSocket _socket, HTTPResponse _httpRes, Consumer<JPIPDataSegment> _callback) throws IOException
+	{
+		JPIPResponse res = new JPIPResponse(_httpRes);
+		InputStream body;
+		
+		String transferEncoding = res.getHeader("Transfer-Encoding") == null ? "" : res.getHeader("Transfer-Encoding").trim();
+		switch (transferEncoding)
+		{
+			case "":
+			case "identity":
+				String contentLengthString = res.getHeader("Content-Length") == null ? "" : res.getHeader("Content-Length").trim();
+				try
+				{
+					int contentLength = Integer.parseInt(contentLengthString);
+					body = new FixedSizedInputStream(_socket.getBufferedInputStream(), contentLength);
+				}
+				catch (NumberFormatException _nfe)
+				{
+					throw new IOException("Invalid Content-Length header: " + contentLengthString + "\n"
+							+ getResponseHeadersAsString(res));
+				}
+				break;
+			case "chunked":
+				body = new ChunkedInputStream(_socket.getBufferedInputStream());
+				break;
+			default:
+				throw new IOException(
+						"Unsupported transfer encoding: " + transferEncoding + "\n" + getResponseHeadersAsString(res));
 		}
-		finally
+		
+		InputStream input = body;
+		String contentEncoding = res.getHeader("Content-Encoding");
+		//System.out.println("Content encoding JPIP: "+contentEncoding);
+		if(contentEncoding!=null)
+			switch(contentEncoding.toLowerCase())
+			{
+				case "gzip":
+					input=new GZIPInputStream(input,8192);
+					break;
+				case "deflate":
+					input=new DeflateInputStream(input);
+					break;
+				default:
+					throw new IOException("Unknown encoding: "+contentEncoding);
+			}
+
+		if (res.status != 200)
 		{
-			try
+			byte[] buf = new byte[8192];
+			try (InputStream is = input)
 			{
-				close();
+				int off = 0;
+				for (;;)
+				{
+					int read = is.read(buf, off, buf.length - off);
+					off += read;
+					if (read == -1 || off == buf.length)
+						break;
+				}
 			}
-			catch(Throwable _t)
+			catch (Exception _e)
 			{
-				Telemetry.trackException(_t);
 			}
+
+			throw new IOException("Invalid status code returned (" + res.status + ") " + res.reason + "\n"
+					+ new String(buf, StandardCharsets.UTF_8).trim());
+		}
+		
+		if (res.getHeader("Content-Type") != null && !"image/jpp-stream".equals(res.getHeader("Content-Type")))
+			throw new IOException("Expected image/jpp-stream content!\n" + getResponseHeadersAsString(res));
+
+		JPIPDataInputStream jpip = new JPIPDataInputStream(input);
+
+		@Nullable JPIPDataSegment seg;
+		while ((seg = jpip.readSegment()) != null)
+			if(seg.isEOR)
+				res.statusI = seg.binID;
+			else
+				_callback.accept(seg);
+		
+		//skip whatever the decoder didn't need, e.g. the end of the chunked encoding
+		byte[] rest = new byte[256];
+		while (body.read(rest) != -1)
+		{
 		}
+		
+		return res;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,269 @@
+package org.helioviewer.jhv.viewmodel.jp2view.newjpx;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+
+import org.helioviewer.jhv.layers.Movie;
+import org.helioviewer.jhv.layers.Movie.Match;
+import org.helioviewer.jhv.layers.MovieKduCacheBacked;
+
+/**
+ * Time index over all cached frames of a single source. Each timestamp maps
+ * to the frames available for it, sorted by quality (best first), so lookups
+ * don't have to scan every frame of every movie.
+ */
+class FrameIndex
+{
+	private static class Frame
+	{
+		final Movie movie;
+		final int index;
+
+		Frame(Movie _movie, int _index)
+		{
+			movie=_movie;
+			index=_index;
+		}
+	}
+
+	/**
+	 * A cached frame which could be evicted. Frames hidden by a better frame
+	 * with the same timestamp are never shown, so they are evicted first.
+	 */
+	static class EvictionCandidate
+	{
+		final MovieKduCacheBacked movie;
+		final int index;
+		final boolean hidden;
+		final long accessedMS;
+
+		EvictionCandidate(MovieKduCacheBacked _movie, int _index, boolean _hidden)
+		{
+			movie=_movie;
+			index=_index;
+			hidden=_hidden;
+			accessedMS=_movie.getFrameAccessedMS(_index);
+		}
+	}
+
+	private final LinkedHashSet<Movie> movies=new LinkedHashSet<>();
+	private final TreeMap<Long,ArrayList<Frame>> frames=new TreeMap<>();
+
+	synchronized boolean add(Movie _movie)
+	{
+		if(!movies.add(_movie))
+			return false;
+
+		for(int i=0;i<_movie.getFrameCount();i++)
+			insert(new Frame(_movie, i), _movie.getTimeMS(i));
+
+		return true;
+	}
+
+	synchronized boolean remove(Movie _movie)
+	{
+		if(!movies.remove(_movie))
+			return false;
+
+		for(int i=0;i<_movie.getFrameCount();i++)
+			erase(_movie, i, _movie.getTimeMS(i));
+
+		return true;
+	}
+
+	synchronized List<Movie> getMovies()
+	{
+		return new ArrayList<>(movies);
+	}
+
+	synchronized void updateTimeMS(Movie _movie, int _index, long _oldTimeMS)
+	{
+		if(!movies.contains(_movie))
+			return;
+
+		erase(_movie, _index, _oldTimeMS);
+		insert(new Frame(_movie, _index), _movie.getTimeMS(_index));
+	}
+
+	synchronized void addFrame(Movie _movie, int _index)
+	{
+		if(!movies.contains(_movie))
+			return;
+
+		erase(_movie, _index, _movie.getTimeMS(_index));
+		insert(new Frame(_movie, _index), _movie.getTimeMS(_index));
+	}
+
+	synchronized void removeFrame(Movie _movie, int _index)
+	{
+		erase(_movie, _index, _movie.getTimeMS(_index));
+	}
+
+	synchronized void addEvictionCandidates(List<EvictionCandidate> _candidates)
+	{
+		for(ArrayList<Frame> candidates:frames.values())
+			for(int i=0;i<candidates.size();i++)
+			{
+				Frame f=candidates.get(i);
+				if(f.movie instanceof MovieKduCacheBacked)
+					_candidates.add(new EvictionCandidate((MovieKduCacheBacked)f.movie, f.index, i>0));
+			}
+	}
+
+	synchronized void updateQuality(Movie _movie)
+	{
+		if(!movies.contains(_movie))
+			return;
+
+		for(int i=0;i<_movie.getFrameCount();i++)
+			if(erase(_movie, i, _movie.getTimeMS(i)))
+				insert(new Frame(_movie, i), _movie.getTimeMS(i));
+	}
+
+	private void insert(Frame _frame, long _timeMS)
+	{
+		//timestamp not known yet, frame can't be matched anyway
+		if(_timeMS==0 || !_frame.movie.isFrameAvailable(_frame.index))
+			return;
+
+		ArrayList<Frame> candidates=frames.get(_timeMS);
+		if(candidates==null)
+			frames.put(_timeMS, candidates=new ArrayList<>(1));
+
+		int pos=0;
+		while(pos<candidates.size() && !_frame.movie.isBetterQualityThan(candidates.get(pos).movie))
+			pos++;
+
+		candidates.add(pos, _frame);
+	}
+
+	private boolean erase(Movie _movie, int _index, long _timeMS)
+	{
+		ArrayList<Frame> candidates=frames.get(_timeMS);
+		if(candidates==null)
+			return false;
+
+		for(int i=0;i<candidates.size();i++)
+			if(candidates.get(i).movie==_movie && candidates.get(i).index==_index)
+			{
+				candidates.remove(i);
+				if(candidates.isEmpty())
+					frames.remove(_timeMS);
+				return true;
+			}
+
+		return false;
+	}
+
+	/**
+	 * Movies opened from the cache have to be loaded before their frames can
+	 * be decoded.
+	 */
+	static boolean isLoaded(Movie _movie)
+	{
+		return !(_movie instanceof MovieKduCacheBacked) || ((MovieKduCacheBacked)_movie).isLoaded();
+	}
+
+	private static @Nullable Frame best(ArrayList<Frame> _candidates, boolean _loadedOnly)
+	{
+		for(Frame f:_candidates)
+			if(!_loadedOnly || isLoaded(f.movie))
+				return f;
+		return null;
+	}
+
+	/**
+	 * @param _loadedOnly whether to skip frames of movies which weren't loaded yet
+	 */
+	synchronized @Nullable Match findBestFrame(long _minTimeMSInclusive, long _maxTimeMSExclusive, boolean _loadedOnly)
+	{
+		if(_minTimeMSInclusive>=_maxTimeMSExclusive)
+			return null;
+
+		long middle = (_minTimeMSInclusive + _maxTimeMSExclusive)/2;
+		Frame bestFrame=null;
+		long bestDiff=Long.MAX_VALUE;
+		for(Entry<Long,ArrayList<Frame>> e:frames.subMap(_minTimeMSInclusive, true, _maxTimeMSExclusive, false).entrySet())
+		{
+			Frame cur=best(e.getValue(), _loadedOnly);
+			if(cur==null)
+				continue;
+			long curDiff=Math.abs(e.getKey()-middle);
+
+			if(bestFrame==null
+					|| cur.movie.isBetterQualityThan(bestFrame.movie)
+					|| (curDiff<bestDiff && !bestFrame.movie.isBetterQualityThan(cur.movie)))
+			{
+				bestFrame=cur;
+				bestDiff=curDiff;
+			}
+		}
+
+		if(bestFrame==null)
+			return null;
+
+		return bestFrame.movie.createMatch(bestFrame.index, -1);
+	}
+
+	/**
+	 * @param _loadedOnly whether to skip frames of movies which weren't loaded yet
+	 */
+	synchronized @Nullable Match findBestFrame(long _currentTimeMS, boolean _loadedOnly)
+	{
+		Frame before=null;
+		long beforeMS=0;
+		for(Entry<Long,ArrayList<Frame>> e:frames.headMap(_currentTimeMS, true).descendingMap().entrySet())
+			if((before=best(e.getValue(), _loadedOnly))!=null)
+			{
+				beforeMS=e.getKey();
+				break;
+			}
+
+		Frame after=null;
+		long afterMS=0;
+		for(Entry<Long,ArrayList<Frame>> e:frames.tailMap(_currentTimeMS, true).entrySet())
+			if((after=best(e.getValue(), _loadedOnly))!=null)
+			{
+				afterMS=e.getKey();
+				break;
+			}
+
+		Frame best;
+		long bestMS;
+		if(before==null)
+		{
+			best=after;
+			bestMS=afterMS;
+		}
+		else if(after==null)
+		{
+			best=before;
+			bestMS=beforeMS;
+		}
+		else
+		{
+			long diffBefore=_currentTimeMS-beforeMS;
+			long diffAfter=afterMS-_currentTimeMS;
+			if(diffAfter<diffBefore || diffAfter==diffBefore && after.movie.isBetterQualityThan(before.movie))
+			{
+				best=after;
+				bestMS=afterMS;
+			}
+			else
+			{
+				best=before;
+				bestMS=beforeMS;
+			}
+		}
+
+		if(best==null)
+			return null;
+
+		return best.movie.createMatch(best.index, Math.abs(bestMS-_currentTimeMS));
+	}
+}
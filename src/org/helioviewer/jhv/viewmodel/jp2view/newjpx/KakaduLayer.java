@@ -1,6 +1,8 @@
 package org.helioviewer.jhv.viewmodel.jp2view.newjpx;
 
 import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
@@ -10,8 +12,13 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nullable;
 import javax.swing.SwingUtilities;
@@ -46,6 +53,7 @@ import org.json.JSONObject;
 
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
 import com.jogamp.opengl.GLContext;
 
@@ -77,11 +85,6 @@ public class KakaduLayer extends ImageLayer
 		return MovieCache.findBestFrame(sourceId, _minTimeMSInclusive, _maxTimeMSExclusive);
 	}
 	
-	private @Nullable Match findBestFrame(long _timeMS)
-	{
-		return MovieCache.findBestFrame(sourceId, _timeMS);
-	}
-	
 	@Override
 	public boolean isDataAvailableOnServer(long _minTimeMSInclusive, long _maxTimeMSExclusive)
 	{
@@ -207,8 +210,47 @@ public class KakaduLayer extends ImageLayer
 	private final ArrayList<Long> startTimes = new ArrayList<Long>();
 	private final ArrayList<Long> endTimes = new ArrayList<Long>();
 	
-	private void startPendingDownloads()
+	//batches start at JPIP_BATCH_SIZE frames, so the first frames arrive quickly, and
+	//then grow up to this size, so long ranges don't end up in hundreds of small movies
+	private static final int MAX_BATCH_SIZE = 256;
+	
+	//batches are only grown as long as the server is expected to answer them within this time
+	private static final long TARGET_BATCH_MS = 3000;
+	
+	//server time per requested frame of metadata requests, shared by all layers
+	private static volatile double metadataMSPerFrame = Double.NaN;
+	
+	private volatile long loadStartedMS;
+	private final AtomicBoolean firstFrameLoaded = new AtomicBoolean();
+	
+	/**
+	 * Doubles the size of metadata batches, up to the number of frames the
+	 * server answered within <code>TARGET_BATCH_MS</code> so far.
+	 */
+	private static int nextBatchSize(int _batchSize)
+	{
+		int limit = MAX_BATCH_SIZE;
+		double msPerFrame = metadataMSPerFrame;
+		if(msPerFrame > 0)
+			limit = MathUtils.clip((int)(TARGET_BATCH_MS / msPerFrame), SETTINGS_JPIP_BATCH_SIZE, MAX_BATCH_SIZE);
+		
+		return Math.max(_batchSize, Math.min(_batchSize * 2, limit));
+	}
+	
+	private static void observeMetadataLatency(HTTPRequest _request, int _frames)
+	{
+		if(_frames == 0 || _request.getStartedMS() == 0)
+			return;
+		
+		double msPerFrame = (System.currentTimeMillis() - _request.getStartedMS()) / (double)_frames;
+		double old = metadataMSPerFrame;
+		metadataMSPerFrame = Double.isNaN(old) ? msPerFrame : old * 0.75 + msPerFrame * 0.25;
+		Telemetry.trackMetric("Metadata ms per frame", msPerFrame);
+	}
+	
+	private void startPendingDownloads(LinkedBlockingQueue<MetadataDownload> _completed)
 	{
+		int batchSize=SETTINGS_JPIP_BATCH_SIZE;
 		while(!startTimes.isEmpty())
 		{
 			MetadataDownload md=new MetadataDownload();
@@ -216,7 +258,6 @@ public class KakaduLayer extends ImageLayer
 			StringBuilder currentStarts = new StringBuilder();
 			StringBuilder currentEnds = new StringBuilder();
 			
-			int batchSize=Settings.getInt(IntKey.JPIP_BATCH_SIZE);
 			for(int i=0;i<batchSize && !startTimes.isEmpty(); i++) 
 			{
 				Long a = startTimes.remove(0);
@@ -251,6 +292,9 @@ public class KakaduLayer extends ImageLayer
 			
 			pendingMetadata.add(md);
 			DownloadManager.addRequest(md.metadata);
+			md.metadata.getCompletion().addListener(() -> _completed.add(md), MoreExecutors.directExecutor());
+			
+			batchSize=nextBatchSize(batchSize);
 		}
 	}
 	
@@ -308,6 +352,8 @@ public class KakaduLayer extends ImageLayer
 		loaderThread = new Thread(() ->
 		{
 			LinkedList<JPIPRequest> pendingJPIP = new LinkedList<>();
+			loadStartedMS = System.currentTimeMillis();
+			firstFrameLoaded.set(false);
 			
 			try
 			{
@@ -336,21 +382,21 @@ public class KakaduLayer extends ImageLayer
 					
 					System.out.println("Using "+((fEndMS-fStartMS)/fCadence)+" frames total, downloading "+startTimes.size()+" at cadence "+fCadence);
 					
-					startPendingDownloads();
+					LinkedBlockingQueue<MetadataDownload> completedMetadata = new LinkedBlockingQueue<>();
+					LinkedBlockingQueue<JPIPRequest> completedJPIP = new LinkedBlockingQueue<>();
+					ArrayList<MovieKduCacheBacked> startedMovies = new ArrayList<>();
+					startPendingDownloads(completedMetadata);
 					while(!pendingMetadata.isEmpty())
 					{
-						MetadataDownload download = pendingMetadata.removeFirst();
-						if(!download.metadata.isFinished())
-						{
-							Thread.sleep(250);
-							pendingMetadata.addLast(download);
-							continue;
-						}
+						MetadataDownload download = completedMetadata.take();
+						pendingMetadata.remove(download);
 						
 						try
 						{
 							download.metadata.checkException();
 							
+							observeMetadataLatency(download.metadata, download.from.size());
+							
 							JSONObject jsonObject = new JSONObject(download.metadata.getDataAsString());
 							if (jsonObject.has("error"))
 								throw new JSONException("JSON error: "+download.metadata.getDataAsString());
@@ -406,6 +452,10 @@ public class KakaduLayer extends ImageLayer
 								final MovieKduCacheBacked m = new MovieKduCacheBacked(sourceId, validFrames, new URI(jsonObject.getString("uri")));
 								pendingMovies.add(m);
 								SwingUtilities.invokeLater(() -> MovieCache.add(m));
+								
+								//fetch the preview of this batch while the metadata of the others is still loading
+								startMovieDownload(m, completedJPIP, pendingJPIP, Integer.MAX_VALUE, SETTINGS_PREVIEW_SPATIAL_START, SETTINGS_PREVIEW_SPATIAL_START);
+								startedMovies.add(m);
 							}
 						}
 						catch(Throwable _e)
@@ -416,7 +466,10 @@ public class KakaduLayer extends ImageLayer
 						}
 					}
 					
-					downloadMoreMovieData(pendingJPIP, pendingMovies, Integer.MAX_VALUE, SETTINGS_PREVIEW_SPATIAL_START, SETTINGS_PREVIEW_SPATIAL_START);
+					for(MovieKduCacheBacked m:pendingMovies)
+						if(!startedMovies.contains(m))
+							startMovieDownload(m, completedJPIP, pendingJPIP, Integer.MAX_VALUE, SETTINGS_PREVIEW_SPATIAL_START, SETTINGS_PREVIEW_SPATIAL_START);
+					awaitMovieData(completedJPIP, pendingJPIP, pendingMovies);
 					
 					if(curCadenceMS==_cadenceMS)
 						break;
@@ -426,16 +479,33 @@ public class KakaduLayer extends ImageLayer
 						curCadenceMS=_cadenceMS;
 				}
 				
-				//download actual movies, increasing resolution
-				for(int res = SETTINGS_PREVIEW_SPATIAL_START; ; res<<=1)
+				//download actual movies, refining whatever is most visible per byte first
+				RefinementScheduler scheduler = new RefinementScheduler(SETTINGS_PREVIEW_SPATIAL_START);
+				while(!pendingMovies.isEmpty())
 				{
-					downloadMoreMovieData(pendingJPIP, pendingMovies, Integer.MAX_VALUE, res, res);
-					if(pendingMovies.isEmpty())
+					//the panel size and current time are Swing state
+					final int[] displayResolution = new int[1];
+					final long[] currentTimeMS = new long[1];
+					SwingUtilities.invokeAndWait(() ->
 					{
-						//TODO: slowly increase number of quality layers at the end
-						break;
-					}
+						MainPanel panel = MainFrame.SINGLETON.MAIN_PANEL;
+						displayResolution[0] = Math.max(SETTINGS_PREVIEW_SPATIAL_START, Math.max(panel.getWidth(), panel.getHeight()));
+						currentTimeMS[0] = TimeLine.SINGLETON.getCurrentFrameMiddleTimeMS();
+					});
+					
+					LinkedBlockingQueue<JPIPRequest> completedJPIP = new LinkedBlockingQueue<>();
+					for(RefinementScheduler.Step s:scheduler.nextSteps(pendingMovies, displayResolution[0], currentTimeMS[0]))
+						startMovieDownload(s.movie, completedJPIP, pendingJPIP, s.qualityLayers, s.resolution, s.resolution);
+					
+					awaitMovieData(completedJPIP, pendingJPIP, pendingMovies);
+					
+					//movies which still aren't complete after their last request won't get better
+					if(pendingMovies.removeIf(m -> scheduler.isExhausted(m)))
+						incomplete = true;
 				}
+				
+				if(!incomplete)
+					Telemetry.trackMetric("Layer time to full range ms", System.currentTimeMillis()-loadStartedMS);
 			}
 			catch (InterruptedException _e)
 			{
@@ -460,6 +530,7 @@ public class KakaduLayer extends ImageLayer
 				
 				for(MetadataDownload md:pendingMetadata)
 					DownloadManager.remove(md.metadata);
+				pendingMetadata.clear();
 				
 				for(JPIPRequest j:pendingJPIP)
 					DownloadManager.remove(j);
@@ -475,22 +546,32 @@ public class KakaduLayer extends ImageLayer
 		loaderThread.start();
 	}
 	
-	private void downloadMoreMovieData(LinkedList<JPIPRequest> pendingJPIP, ArrayList<MovieKduCacheBacked> pendingMovies, int _qualityLayers, int _width, int _height) throws InterruptedException
+	private void startMovieDownload(MovieKduCacheBacked _movie, LinkedBlockingQueue<JPIPRequest> _completed, LinkedList<JPIPRequest> _pending, int _qualityLayers, int _width, int _height)
+	{
+		JPIPRequest jpip = new JPIPRequest(DownloadPriority.MEDIUM, _qualityLayers, _width, _height, _movie);
+		DownloadManager.addRequest(jpip);
+		jpip.getCompletion().addListener(() ->
+			{
+				if(jpip.isSuccessful() && firstFrameLoaded.compareAndSet(false, true))
+					Telemetry.trackMetric("Layer time to first frame ms", System.currentTimeMillis()-loadStartedMS);
+				_completed.add(jpip);
+			}, MoreExecutors.directExecutor());
+		_pending.add(jpip);
+	}
+	
+	/**
+	 * Waits for all pending JPIP requests, and drops the movies which are
+	 * complete afterwards.
+	 */
+	private void awaitMovieData(LinkedBlockingQueue<JPIPRequest> completedJPIP, LinkedList<JPIPRequest> pendingJPIP, ArrayList<MovieKduCacheBacked> pendingMovies) throws InterruptedException
 	{
-		for(MovieKduCacheBacked m:pendingMovies)
-		{
-			JPIPRequest jpip = new JPIPRequest(DownloadPriority.MEDIUM, _qualityLayers, _width, _height, m);
-			DownloadManager.addRequest(jpip);
-			pendingJPIP.add(jpip);
-		}
-		
 		boolean pendingRefresh = false;
 		while(!pendingJPIP.isEmpty())
 		{
-			JPIPRequest cur = pendingJPIP.removeFirst();
-			
-			if(!cur.isFinished())
+			JPIPRequest cur = completedJPIP.poll();
+			if(cur==null)
 			{
+				//refresh once before waiting for the remaining requests
 				if(pendingRefresh)
 				{
 					SwingUtilities.invokeLater(() ->
@@ -502,10 +583,9 @@ public class KakaduLayer extends ImageLayer
 					pendingRefresh=false;
 				}
 				
-				Thread.sleep(250);
-				pendingJPIP.addLast(cur);
-				continue;
+				cur = completedJPIP.take();
 			}
+			pendingJPIP.remove(cur);
 			
 			try
 			{
@@ -567,10 +647,16 @@ public class KakaduLayer extends ImageLayer
 	
 	public @Nullable Match getCurrentMatch()
 	{
-		@Nullable Match match = findBestFrame(TimeLine.SINGLETON.getCurrentFrameStartTimeMS(), TimeLine.SINGLETON.getCurrentFrameEndTimeMS());
+		return findMatch(TimeLine.SINGLETON.getCurrentFrameStartTimeMS());
+	}
+	
+	private @Nullable Match findMatch(long _frameStartTimeMS)
+	{
+		long frameCadenceMS = TimeLine.SINGLETON.getCadenceMS();
+		@Nullable Match match = MovieCache.findLoadedFrame(sourceId, _frameStartTimeMS, _frameStartTimeMS+frameCadenceMS-1);
 		if (match == null)
 		{
-			match = findBestFrame(TimeLine.SINGLETON.getCurrentFrameMiddleTimeMS());
+			match = MovieCache.findLoadedFrame(sourceId, _frameStartTimeMS+frameCadenceMS/2);
 			if(match == null)
 				return null;
 		}
@@ -620,17 +706,31 @@ public class KakaduLayer extends ImageLayer
 		if (requiredMinimumRegion == null)
 			return Futures.immediateFuture(null);
 		
+		if(_panel==MainFrame.SINGLETON.MAIN_PANEL)
+			requestRegionOfInterest(match, metaData, requiredMinimumRegion, _quality, _panel, _size);
+		
 		for(Texture t:textures)
-			if(t.contains(this, _quality, requiredMinimumRegion, metaData.timeMS))
+			if(!t.reservedForPrefetch && t.contains(this, _quality, requiredMinimumRegion, metaData.timeMS))
 			{
+				if(t.prefetched)
+				{
+					t.prefetched=false;
+					prefetchHits.incrementAndGet();
+				}
+				
 				t.usedByCurrentRenderPass=true;
+				if(t.needsUpload)
+					return Futures.immediateFuture(new PreparedImage(this,t,t.getImageRegion()));
 				return Futures.immediateFuture(new PreparedImage(this,t));
 			}
 		
+		if(TimeLine.SINGLETON.isPlaying() && _panel==MainFrame.SINGLETON.MAIN_PANEL)
+			prefetchMisses.incrementAndGet();
+		
 		//search an empty spot, starting at the end (=oldest)
 		int textureNr;
 		for(textureNr=textures.size()-1;textureNr>=0;textureNr--)
-			if(!textures.get(textureNr).usedByCurrentRenderPass)
+			if(!textures.get(textureNr).usedByCurrentRenderPass && !textures.get(textureNr).reservedForPrefetch)
 				break;
 		
 		if(textureNr<0)
@@ -659,16 +759,12 @@ public class KakaduLayer extends ImageLayer
 			
 			if(match.decodeImage(_quality, requiredSafeRegion.decodeZoomFactor, requiredSafeRegion.texels, tex))
 			{
-				tex.needsUpload=true;
-				/*
-				tex.uploadByteBuffer(GLContext.getCurrentGL().getGL2(), KakaduLayer.this, bestMatch.getMetaData().localDateTime, requiredSafeRegion);
-				if(Globals.isOSX())
-					GLContext.getCurrentGL().glFlush();*/
-				
+				tex.uploadBufferFilled(KakaduLayer.this, metaData.timeMS, requiredSafeRegion);
 				future.set(new PreparedImage(KakaduLayer.this,tex,requiredSafeRegion));
 				return;
 			}
 
+			tex.discardUploadBuffer();
 			tex.usedByCurrentRenderPass=false;
 			future.set(null);
 		});
@@ -676,6 +772,209 @@ public class KakaduLayer extends ImageLayer
 		return future;
 	}
 	
+	//the region of interest request in flight, only one per layer
+	private @Nullable JPIPRequest regionRequest;
+	
+	/**
+	 * Fetches the visible part of the image (plus a margin) at the resolution
+	 * it is shown at, ahead of the whole images downloaded in the background.
+	 * Nothing is requested if the movie already received that region.
+	 */
+	private void requestRegionOfInterest(Match _match, MetaData _metaData, ImageRegion _visible, DecodeQualityLevel _quality, MainPanel _panel, Dimension _size)
+	{
+		if(!(_match.movie instanceof MovieKduCacheBacked))
+			return;
+		
+		MovieKduCacheBacked movie=(MovieKduCacheBacked)_match.movie;
+		ImageRegion roi = new ImageRegion(
+				_visible.areaOfSourceImage,
+				_quality,
+				_panel.getTranslationCurrent().z,
+				_metaData,
+				_size,
+				1.2);
+		
+		int width = (int)Math.ceil(_metaData.resolution.x * roi.decodeZoomFactor);
+		int height = (int)Math.ceil(_metaData.resolution.y * roi.decodeZoomFactor);
+		
+		//whole images at this resolution are requested by the loader anyway
+		if(roi.texels.width >= width && roi.texels.height >= height)
+			return;
+		
+		if(movie.isRegionCached(roi.areaOfSourceImage, width, height, Integer.MAX_VALUE))
+			return;
+		
+		JPIPRequest previous=regionRequest;
+		if(previous!=null && !previous.isFinished())
+		{
+			Rectangle previousRegion=previous.region;
+			if(previous.m==movie && previous.width==width && previous.height==height && previousRegion!=null && previousRegion.contains(roi.texels))
+				return;
+			
+			DownloadManager.remove(previous);
+		}
+		
+		double visibleFraction = Math.min(1, (_visible.areaOfSourceImage.getWidth() * _visible.areaOfSourceImage.getHeight())
+				/ (roi.areaOfSourceImage.getWidth() * roi.areaOfSourceImage.getHeight()));
+		
+		JPIPRequest request = new JPIPRequest(DownloadPriority.HIGH, Integer.MAX_VALUE, width, height, roi.texels, visibleFraction, movie);
+		regionRequest = request;
+		DownloadManager.addRequest(request);
+		request.getCompletion().addListener(() ->
+			{
+				if(request.isSuccessful())
+					SwingUtilities.invokeLater(() ->
+					{
+						for(Texture t:ImageLayer.textures)
+							t.invalidate();
+						MainFrame.SINGLETON.repaintLazy();
+					});
+			}, MoreExecutors.directExecutor());
+	}
+	
+	private static final AtomicInteger prefetchHits = new AtomicInteger();
+	private static final AtomicInteger prefetchMisses = new AtomicInteger();
+	private static final AtomicInteger prefetchCancelled = new AtomicInteger();
+	
+	public static void trackPrefetchStatistics()
+	{
+		int hits=prefetchHits.getAndSet(0);
+		int misses=prefetchMisses.getAndSet(0);
+		int cancelled=prefetchCancelled.getAndSet(0);
+		if(hits+misses==0)
+			return;
+		
+		Telemetry.trackMetric("Prefetch frames", PREFETCH_FRAMES);
+		Telemetry.trackMetric("Prefetch hits", hits);
+		Telemetry.trackMetric("Prefetch misses", misses);
+		Telemetry.trackMetric("Prefetch cancelled", cancelled);
+		Telemetry.trackMetric("Prefetch hit ratio", hits/(double)(hits+misses));
+	}
+	
+	//frames for which a prefetch is in flight, by their timestamp
+	private final Set<Long> prefetching = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger prefetchGeneration = new AtomicInteger();
+	
+	private @Nullable Rectangle2D lastPrefetchArea;
+	private float lastPrefetchZoomFactor;
+	private @Nullable DecodeQualityLevel lastPrefetchQuality;
+	private long lastPrefetchFirstMS;
+	private long lastPrefetchLastMS;
+	private long lastPrefetchCadenceMS;
+	
+	@Override
+	public void prefetchImageData(final MainPanel _panel, final DecodeQualityLevel _quality, final Dimension _size)
+	{
+		if(PREFETCH_FRAMES<=0)
+			return;
+		
+		final @Nullable Match currentMatch = getCurrentMatch();
+		if (currentMatch == null)
+			return;
+		
+		final @Nullable MetaData currentMetaData = currentMatch.getMetaData();
+		if(currentMetaData==null)
+			return;
+		
+		final ImageRegion requiredRegion = calculateRegion(_panel, _quality, currentMetaData, _size);
+		if (requiredRegion == null)
+			return;
+		
+		//frames that are being decoded for a different view or time range are useless
+		if(!requiredRegion.areaOfSourceImage.equals(lastPrefetchArea)
+				|| requiredRegion.decodeZoomFactor!=lastPrefetchZoomFactor
+				|| _quality!=lastPrefetchQuality
+				|| TimeLine.SINGLETON.getFirstTimeMS()!=lastPrefetchFirstMS
+				|| TimeLine.SINGLETON.getLastTimeMS()!=lastPrefetchLastMS
+				|| TimeLine.SINGLETON.getCadenceMS()!=lastPrefetchCadenceMS)
+		{
+			lastPrefetchArea=requiredRegion.areaOfSourceImage;
+			lastPrefetchZoomFactor=requiredRegion.decodeZoomFactor;
+			lastPrefetchQuality=_quality;
+			lastPrefetchFirstMS=TimeLine.SINGLETON.getFirstTimeMS();
+			lastPrefetchLastMS=TimeLine.SINGLETON.getLastTimeMS();
+			lastPrefetchCadenceMS=TimeLine.SINGLETON.getCadenceMS();
+			prefetchGeneration.incrementAndGet();
+		}
+		
+		final int generation=prefetchGeneration.get();
+		for(long frameStartTimeMS:TimeLine.SINGLETON.getNextFramesMS(PREFETCH_FRAMES))
+		{
+			if(prefetching.size()>=PREFETCH_FRAMES)
+				return;
+			
+			final @Nullable Match match = findMatch(frameStartTimeMS);
+			if(match == null || match.equals(currentMatch))
+				continue;
+			
+			final @Nullable MetaData metaData = match.getMetaData();
+			if(metaData == null || prefetching.contains(metaData.timeMS))
+				continue;
+			
+			final ImageRegion prefetchRegion = new ImageRegion(
+					requiredRegion.areaOfSourceImage,
+					_quality,
+					_panel.getTranslationCurrent().z,
+					metaData,
+					_size,
+					1.05);
+			
+			boolean alreadyDecoded=false;
+			for(Texture t:textures)
+				if(!t.reservedForPrefetch && t.contains(this, _quality, prefetchRegion, metaData.timeMS))
+				{
+					alreadyDecoded=true;
+					break;
+				}
+			if(alreadyDecoded)
+				continue;
+			
+			//search an empty spot, starting at the end (=oldest)
+			int textureNr;
+			for(textureNr=textures.size()-1;textureNr>=0;textureNr--)
+				if(!textures.get(textureNr).usedByCurrentRenderPass && !textures.get(textureNr).reservedForPrefetch)
+					break;
+			
+			if(textureNr<0)
+				return;
+			
+			final Texture tex=textures.remove(textureNr);
+			textures.add(0, tex);
+			tex.invalidate();
+			tex.reservedForPrefetch=true;
+			prefetching.add(metaData.timeMS);
+			
+			Globals.runWithGLContext(() ->
+			{
+				try
+				{
+					if(generation!=prefetchGeneration.get())
+					{
+						prefetchCancelled.incrementAndGet();
+						return;
+					}
+					
+					if(match.decodeImage(_quality, prefetchRegion.decodeZoomFactor, prefetchRegion.texels, tex))
+					{
+						tex.uploadBufferFilled(KakaduLayer.this, metaData.timeMS, prefetchRegion);
+						tex.prefetched=true;
+					}
+					else
+						tex.discardUploadBuffer();
+				}
+				catch(Exception _e)
+				{
+					Telemetry.trackException(_e);
+				}
+				finally
+				{
+					prefetching.remove(metaData.timeMS);
+					tex.reservedForPrefetch=false;
+				}
+			});
+		}
+	}
+	
 	@Override
 	public boolean retryNeeded()
 	{
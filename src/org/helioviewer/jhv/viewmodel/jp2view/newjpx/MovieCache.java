@@ -5,8 +5,15 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 
@@ -15,39 +22,172 @@ import org.helioviewer.jhv.base.Settings;
 import org.helioviewer.jhv.base.Settings.IntKey;
 import org.helioviewer.jhv.base.ShutdownManager;
 import org.helioviewer.jhv.base.Telemetry;
+import org.helioviewer.jhv.gui.MainFrame;
 import org.helioviewer.jhv.layers.Movie;
 import org.helioviewer.jhv.layers.Movie.Match;
 import org.helioviewer.jhv.layers.MovieKduCacheBacked;
+import org.helioviewer.jhv.viewmodel.jp2view.newjpx.FrameIndex.EvictionCandidate;
 
 import com.google.common.io.Files;
 
 public class MovieCache
 {
-	private static HashMap<Integer,List<Movie>> cache = new HashMap<>();
+	private static ConcurrentHashMap<Integer,FrameIndex> cache = new ConcurrentHashMap<>();
+	
+	public interface CacheListener
+	{
+		/**
+		 * Gets called whenever frames within the given time range were added,
+		 * upgraded or removed. Might be called from any thread.
+		 */
+		void cacheChanged(long _fromMS, long _toMS);
+	}
+	
+	private static final CopyOnWriteArrayList<CacheListener> listeners = new CopyOnWriteArrayList<>();
 
 	private static final long MAX_CACHE_SIZE = 1024l*1024l*Settings.getInt(IntKey.CACHE_SIZE);
 	
+	//the cache gets trimmed to the low watermark once it grows beyond the high one
+	private static final long HIGH_WATERMARK = MAX_CACHE_SIZE;
+	private static final long LOW_WATERMARK = MAX_CACHE_SIZE*9/10;
+	
+	//if a trim can't reach the low watermark because all movies are in use, the cache has to grow this much before the next try
+	private static final long RETRIM_MARGIN = MAX_CACHE_SIZE/20;
+	
+	//size beyond which the next trim gets scheduled
+	private static final AtomicLong nextTrimSize = new AtomicLong(HIGH_WATERMARK);
+	
+	//size of all files in the cache directory
+	private static final AtomicLong cacheSize = new AtomicLong();
+	private static final AtomicBoolean trimming = new AtomicBoolean();
+	
+	private static final ExecutorService evictor = Executors.newSingleThreadExecutor(new ThreadFactory()
+	{
+		@Override
+		public Thread newThread(@Nullable Runnable r)
+		{
+			Thread t = new Thread(r);
+			t.setName("Cache evictor");
+			t.setDaemon(true);
+			t.setPriority(Thread.MIN_PRIORITY);
+			return t;
+		}
+	});
+	
+	//movies opened from the cache which are queued for loading
+	private static final Set<MovieKduCacheBacked> pendingLoads = ConcurrentHashMap.newKeySet();
+	
+	private static final Object LOAD_LOCK = new Object();
+	
+	private static final ExecutorService loader = Executors.newSingleThreadExecutor(new ThreadFactory()
+	{
+		@Override
+		public Thread newThread(@Nullable Runnable r)
+		{
+			Thread t = new Thread(r);
+			t.setName("Cache loader");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	
 	public static final File CACHE_DIR = new File(System.getProperty("java.io.tmpdir"), "jhv-movie-cache");
 	
-	private static void limitCacheSize()
+	private static void persistIndices()
 	{
-		File[] files=CACHE_DIR.listFiles();
-		if(files==null)
-			return;
+		for(FrameIndex index:cache.values())
+			for(Movie m:index.getMovies())
+				if(m instanceof MovieKduCacheBacked)
+					((MovieKduCacheBacked)m).persistIndex();
+	}
+	
+	/**
+	 * Evicts single frames until the given number of bytes can be reclaimed.
+	 * Frames hidden by better frames go first, the least recently accessed
+	 * ones after them. The affected cache files get compacted afterwards.
+	 * Movies which were only registered so far get loaded to find out about
+	 * their frames.
+	 */
+	private static void evictFrames(long _bytes)
+	{
+		ArrayList<EvictionCandidate> candidates=new ArrayList<>();
+		for(FrameIndex index:cache.values())
+			index.addEvictionCandidates(candidates);
 		
-		long cacheSize = 0;
-		for(File f:files)
-			cacheSize += f.length();
+		candidates.sort((_a, _b) ->
+			{
+				if(_a.hidden!=_b.hidden)
+					return _a.hidden ? -1 : 1;
+				return Long.compare(_a.accessedMS, _b.accessedMS);
+			});
 		
-		if(cacheSize<=MAX_CACHE_SIZE)
+		LinkedHashSet<MovieKduCacheBacked> compact=new LinkedHashSet<>();
+		long evicted=0;
+		int evictedFrames=0;
+		for(EvictionCandidate c:candidates)
+		{
+			if(evicted>=_bytes)
+				break;
+			
+			if(!c.movie.isLoaded() && !load(c.movie))
+				continue;
+			
+			long bytes=c.movie.evictFrame(c.index);
+			if(bytes==0)
+				continue;
+			
+			FrameIndex index=cache.get(c.movie.sourceId);
+			if(index!=null)
+				index.removeFrame(c.movie, c.index);
+			notifyListeners(c.movie, c.index);
+			
+			compact.add(c.movie);
+			evicted+=bytes;
+			evictedFrames++;
+		}
+		
+		for(MovieKduCacheBacked m:compact)
+			m.compactCache();
+		
+		if(evictedFrames>0)
+		{
+			Telemetry.trackMetric("Cache evicted frames", evictedFrames);
+			Telemetry.trackMetric("Cache evicted frames KB", evicted/1024d);
+		}
+	}
+	
+	/**
+	 * Trims the cache to the low watermark, by evicting single frames first
+	 * and deleting the least recently used movies which aren't in use after
+	 * that.
+	 */
+	private static void trimCache()
+	{
+		long start=System.nanoTime();
+		long sizeBefore=cacheSize.get();
+		if(sizeBefore<=HIGH_WATERMARK)
+		{
+			nextTrimSize.set(HIGH_WATERMARK);
 			return;
+		}
 		
-		System.out.println("Cache: Too big, purging");
-
-		//try to close all open movies, can't delete files otherwise
-		for(List<Movie> movies:cache.values())
-			for(Movie m:movies)
-				m.dispose();
+		evictFrames(sizeBefore-LOW_WATERMARK);
+		if(cacheSize.get()>LOW_WATERMARK)
+			removeMovies();
+		
+		//everything left is in use, don't try again with every appended databin
+		nextTrimSize.set(cacheSize.get()>LOW_WATERMARK ? Math.max(HIGH_WATERMARK, cacheSize.get()+RETRIM_MARGIN) : HIGH_WATERMARK);
+		
+		Telemetry.trackMetric("Cache size MB", cacheSize.get()/1024d/1024d);
+		Telemetry.trackMetric("Cache evicted KB", Math.max(0, sizeBefore-cacheSize.get())/1024d);
+		Telemetry.trackMetric("Cache eviction ms", (System.nanoTime()-start)/1000000d);
+	}
+	
+	private static void removeMovies()
+	{
+		File[] files=CACHE_DIR.listFiles();
+		if(files==null)
+			return;
 		
 		Arrays.sort(files,0,files.length,new Comparator<File>()
 		{
@@ -65,109 +205,335 @@ public class MovieCache
 			}
 		});
 		
-		int toRemove = 0;
-		while(cacheSize>MAX_CACHE_SIZE && toRemove<files.length)
+		long now=System.currentTimeMillis();
+		for(File f:files)
 		{
-			for(List<Movie> lm:cache.values())
-				for(Movie m:lm)
-					if((m instanceof MovieKduCacheBacked) && ((MovieKduCacheBacked)m).getBackingFile().equals(files[toRemove]))
+			if(cacheSize.get()<=LOW_WATERMARK)
+				break;
+			
+			//still being compacted
+			if(f.getName().endsWith(MovieKduCacheBacked.COMPACTION_SUFFIX))
+				continue;
+			
+			MovieKduCacheBacked movie=null;
+			FrameIndex movieIndex=null;
+			for(FrameIndex index:cache.values())
+				for(Movie m:index.getMovies())
+					if((m instanceof MovieKduCacheBacked) && ((MovieKduCacheBacked)m).getBackingFile().equals(f))
 					{
-						m.dispose();
-						lm.remove(m);
-						break;
+						movie=(MovieKduCacheBacked)m;
+						movieIndex=index;
 					}
 			
-			cacheSize-=files[toRemove].length();
-			if(!files[toRemove].delete())
-				Telemetry.trackException(new IOException("Cache: Could not delete "+files[toRemove].getAbsolutePath()));
+			if(movie!=null ? movie.isInUse() : now-f.lastModified()<MovieKduCacheBacked.IN_USE_MS)
+				continue;
+			
+			if(movie!=null)
+			{
+				movieIndex.remove(movie);
+				notifyListeners(movie);
+				movie.dispose();
+			}
+			
+			long length=f.length();
+			if(!f.delete())
+				Telemetry.trackException(new IOException("Cache: Could not delete "+f.getAbsolutePath()));
 			else
-				System.out.println("Cache: Removed "+files[toRemove].getAbsolutePath());
+			{
+				notifyAboutChangedCacheSize(-length);
+				System.out.println("Cache: Removed "+f.getAbsolutePath());
+			}
+		}
+	}
+	
+	/**
+	 * Has to be called whenever a cache file grows, shrinks or gets deleted.
+	 * Schedules a trim once the cache gets bigger than the high watermark, or
+	 * grew considerably since a trim which couldn't free enough space.
+	 */
+	public static void notifyAboutChangedCacheSize(long _delta)
+	{
+		if(cacheSize.addAndGet(_delta)<=nextTrimSize.get())
+			return;
+		
+		if(trimming.compareAndSet(false, true))
+			evictor.submit(() ->
+				{
+					try
+					{
+						trimCache();
+					}
+					finally
+					{
+						trimming.set(false);
+					}
+				});
+	}
+	
+	public static void addListener(CacheListener _listener)
+	{
+		listeners.add(_listener);
+	}
+	
+	public static void removeListener(CacheListener _listener)
+	{
+		listeners.remove(_listener);
+	}
+	
+	private static void notifyListeners(long _fromMS, long _toMS)
+	{
+		for(CacheListener l:listeners)
+			l.cacheChanged(_fromMS, _toMS);
+	}
+	
+	private static void notifyListeners(Movie _movie, int _index)
+	{
+		long timeMS=_movie.getTimeMS(_index);
+		if(timeMS!=0)
+			notifyListeners(timeMS, timeMS);
+	}
+	
+	/**
+	 * Notifies about all frames of a movie. If none of their timestamps are
+	 * known yet, the movie might cover any time.
+	 */
+	private static void notifyListeners(Movie _movie)
+	{
+		long fromMS=Long.MAX_VALUE;
+		long toMS=Long.MIN_VALUE;
+		for(int i=0;i<_movie.getFrameCount();i++)
+		{
+			long timeMS=_movie.getTimeMS(i);
+			if(timeMS==0)
+				continue;
 			
-			toRemove++;
+			fromMS=Math.min(fromMS, timeMS);
+			toMS=Math.max(toMS, timeMS);
 		}
+		
+		if(fromMS>toMS)
+			notifyListeners(Long.MIN_VALUE, Long.MAX_VALUE);
+		else
+			notifyListeners(fromMS, toMS);
 	}
 	
 	public static void remove(Movie _movie)
 	{
-		List<Movie> al=cache.get(_movie.sourceId);
-		if(al==null)
+		FrameIndex index=cache.get(_movie.sourceId);
+		if(index==null)
 			return;
 		
-		if(!al.contains(_movie))
+		if(!index.remove(_movie))
 			System.out.println("Cache does not contain this movie.");
-		else
-			al.remove(_movie);
 		
+		notifyListeners(_movie);
 		_movie.dispose();
 	}
 	
 	
 	public static void add(Movie _movie)
 	{
-		List<Movie> al=cache.get(_movie.sourceId);
-		if(al==null)
-			cache.put(_movie.sourceId, al= new ArrayList<>());
-		
-		if(al.contains(_movie))
+		FrameIndex index=cache.computeIfAbsent(_movie.sourceId, id -> new FrameIndex());
+		if(!index.add(_movie))
 			System.out.println("Cache already contains this movie.");
-		else
-			al.add(_movie);
+		notifyListeners(_movie);
+	}
+	
+	public static void notifyAboutUpgradedQuality(Movie _movie)
+	{
+		FrameIndex index=cache.get(_movie.sourceId);
+		if(index!=null)
+			index.updateQuality(_movie);
+		notifyListeners(_movie);
+	}
+	
+	public static void notifyAboutAvailableFrame(Movie _movie, int _index)
+	{
+		FrameIndex index=cache.get(_movie.sourceId);
+		if(index!=null)
+			index.addFrame(_movie, _index);
+		notifyListeners(_movie, _index);
+	}
+	
+	public static void notifyAboutEvictedFrame(Movie _movie, int _index)
+	{
+		FrameIndex index=cache.get(_movie.sourceId);
+		if(index!=null)
+			index.removeFrame(_movie, _index);
+		notifyListeners(_movie, _index);
+	}
+	
+	public static void notifyAboutChangedTimestamp(Movie _movie, int _index, long _oldTimeMS)
+	{
+		FrameIndex index=cache.get(_movie.sourceId);
+		if(index!=null)
+			index.updateTimeMS(_movie, _index, _oldTimeMS);
+		if(_oldTimeMS!=0)
+			notifyListeners(_oldTimeMS, _oldTimeMS);
+		notifyListeners(_movie, _index);
 	}
 
+	/**
+	 * Finds the best cached frame within the given time range. Frames of
+	 * movies which weren't loaded yet count as well, but don't get loaded, so
+	 * this is cheap enough to tell which parts of a time range are cached.
+	 */
 	public static @Nullable Match findBestFrame(int _sourceId, long _minTimeMSInclusive, long _maxTimeMSExclusive)
 	{
-		List<Movie> al=cache.get(_sourceId);
-		if(al==null)
+		FrameIndex index=cache.get(_sourceId);
+		if(index==null)
 			return null;
 		
-		//TODO: use more efficient data structures
-		Match bestMatch=null;
-		for (Movie m : al)
+		return index.findBestFrame(_minTimeMSInclusive, _maxTimeMSExclusive, false);
+	}
+	
+	/**
+	 * Like <code>findBestFrame()</code>, but only returns frames which can be
+	 * decoded right away. If a better frame belongs to a movie which wasn't
+	 * loaded yet, the movie gets loaded in the background.
+	 */
+	public static @Nullable Match findLoadedFrame(int _sourceId, long _minTimeMSInclusive, long _maxTimeMSExclusive)
+	{
+		FrameIndex index=cache.get(_sourceId);
+		if(index==null)
+			return null;
+		
+		Match bestMatch=index.findBestFrame(_minTimeMSInclusive, _maxTimeMSExclusive, false);
+		if(bestMatch!=null && !FrameIndex.isLoaded(bestMatch.movie))
 		{
-			Match curMatch=m.findBestIdx(_minTimeMSInclusive, _maxTimeMSExclusive);
-			if(curMatch==null)
-				continue;
-			
-			if(bestMatch==null)
-				bestMatch=curMatch;
-			else if(curMatch.movie.isBetterQualityThan(bestMatch.movie))
-				bestMatch=curMatch;
+			loadAsync((MovieKduCacheBacked)bestMatch.movie);
+			bestMatch=index.findBestFrame(_minTimeMSInclusive, _maxTimeMSExclusive, true);
 		}
 		
-		if(bestMatch!=null && bestMatch.movie instanceof MovieKduCacheBacked)
-			((MovieKduCacheBacked)bestMatch.movie).touch();
-		
+		touch(bestMatch);
 		return bestMatch;
 	}
 	
-	public static @Nullable Match findBestFrame(int _sourceId, long _currentTimeMS)
+	/**
+	 * Like <code>findLoadedFrame()</code>, for the frame closest to the given
+	 * time.
+	 */
+	public static @Nullable Match findLoadedFrame(int _sourceId, long _currentTimeMS)
 	{
-		List<Movie> al=cache.get(_sourceId);
-		if(al==null)
+		FrameIndex index=cache.get(_sourceId);
+		if(index==null)
 			return null;
 		
-		//TODO: use more efficient data structures
-		Match bestMatch=null;
-		for (Movie m : al)
+		Match bestMatch=index.findBestFrame(_currentTimeMS, false);
+		if(bestMatch!=null && !FrameIndex.isLoaded(bestMatch.movie))
 		{
-			Match curMatch=m.findClosestIdx(_currentTimeMS);
-			if(curMatch==null)
-				continue;
-			
-			if(bestMatch==null)
-				bestMatch=curMatch;
-			else if(curMatch.timeDifferenceMS<bestMatch.timeDifferenceMS)
-				bestMatch=curMatch;
-			else if(curMatch.timeDifferenceMS==bestMatch.timeDifferenceMS && curMatch.movie.isBetterQualityThan(bestMatch.movie))
-				bestMatch=curMatch;
+			loadAsync((MovieKduCacheBacked)bestMatch.movie);
+			bestMatch=index.findBestFrame(_currentTimeMS, true);
 		}
 		
-		if(bestMatch!=null && bestMatch.movie instanceof MovieKduCacheBacked)
-			((MovieKduCacheBacked)bestMatch.movie).touch();
-		
+		touch(bestMatch);
 		return bestMatch;
 	}
+	
+	private static void touch(@Nullable Match _match)
+	{
+		if(_match!=null && _match.movie instanceof MovieKduCacheBacked)
+			((MovieKduCacheBacked)_match.movie).touch(_match.index);
+	}
+	
+	private static void loadAsync(MovieKduCacheBacked _movie)
+	{
+		if(pendingLoads.add(_movie))
+			loader.submit(() ->
+				{
+					try
+					{
+						if(load(_movie))
+							MainFrame.SINGLETON.repaintLazy();
+					}
+					finally
+					{
+						pendingLoads.remove(_movie);
+					}
+				});
+	}
+	
+	/**
+	 * Loads a movie which was only registered so far. Movies which can't be
+	 * loaded get removed from the cache.
+	 *
+	 * @return <code>false</code> if the movie is unusable
+	 */
+	private static boolean load(MovieKduCacheBacked _movie)
+	{
+		//loading may crash in Kakadu, the cache gets cleared on the next start then.
+		//one load at a time, so the marker isn't cleared while another load is still running.
+		synchronized(LOAD_LOCK)
+		{
+			if(_movie.isLoaded())
+				return true;
+			
+			FrameIndex index=cache.get(_movie.sourceId);
+			Settings.setBoolean(Settings.BooleanKey.CACHE_LOADING_CRASHED, true);
+			Settings.syncFlush();
+			try
+			{
+				if(_movie.load())
+				{
+					notifyListeners(_movie);
+					return true;
+				}
+				
+				if(index!=null)
+					index.remove(_movie);
+				notifyListeners(_movie);
+				return false;
+			}
+			catch(IOException _e)
+			{
+				Telemetry.trackException(new IOException("Cache: Could not load "+_movie.getBackingFile().getName(),_e));
+				if(index!=null)
+					index.remove(_movie);
+				notifyListeners(_movie);
+				_movie.dispose();
+				
+				long length=_movie.getBackingFile().length();
+				if(!_movie.getBackingFile().delete())
+					Telemetry.trackException(new Exception("Cannot remove invalid cache file "+_movie.getBackingFile()));
+				else
+					notifyAboutChangedCacheSize(-length);
+				return false;
+			}
+			finally
+			{
+				Settings.setBoolean(Settings.BooleanKey.CACHE_LOADING_CRASHED, false);
+			}
+		}
+	}
 
+	private static void register(File _file)
+	{
+		try
+		{
+			//leftover of an interrupted compaction, the original file is still intact
+			if(_file.getName().endsWith(MovieKduCacheBacked.COMPACTION_SUFFIX))
+			{
+				long length=_file.length();
+				if(!_file.delete())
+					Telemetry.trackException(new Exception("Cannot remove compacted cache file "+_file.toString()));
+				else
+					cacheSize.addAndGet(-length);
+				return;
+			}
+			
+			add(new MovieKduCacheBacked(_file));
+		}
+		catch(Exception e)
+		{
+			Telemetry.trackException(new IOException("Cache: Could not load "+_file.getName(),e));
+			long length=_file.length();
+			if(!_file.delete())
+				Telemetry.trackException(new Exception("Cannot remove invalid cache file "+_file.toString()));
+			else
+				cacheSize.addAndGet(-length);
+		}
+	}
+	
 	public static void init()
 	{
 		try
@@ -182,8 +548,7 @@ public class MovieCache
 			JHVUncaughtExceptionHandler.SINGLETON.uncaughtException(Thread.currentThread(), e);
 		}
 		
-		limitCacheSize();
-		ShutdownManager.addShutdownHook(ShutdownManager.ShutdownPhase.CLEANUP_3,() -> limitCacheSize());
+		ShutdownManager.addShutdownHook(ShutdownManager.ShutdownPhase.CLEANUP_3,() -> persistIndices());
 		
 		if(Settings.getBoolean(Settings.BooleanKey.CACHE_LOADING_CRASHED))
 		{
@@ -201,18 +566,19 @@ public class MovieCache
 		{
 			Settings.setBoolean(Settings.BooleanKey.CACHE_LOADING_CRASHED, true);
 			Settings.syncFlush();
-			for(File f:CACHE_DIR.listFiles())
-				try
-				{
-					add(new MovieKduCacheBacked(f));
-				}
-				catch(Exception e)
-				{
-					Telemetry.trackException(new IOException("Cache: Could not load "+f.getName(),e));
-					if(!f.delete())
-						Telemetry.trackException(new Exception("Cannot remove invalid cache file "+f.toString()));
-				}
+			
+			File[] files=CACHE_DIR.listFiles();
+			for(File f:files)
+				cacheSize.addAndGet(f.length());
+			
+			//only the headers are read here, the movies get loaded once they are needed
+			long start=System.nanoTime();
+			Arrays.stream(files).parallel().forEach(f -> register(f));
+			Telemetry.trackMetric("Cache startup ms", (System.nanoTime()-start)/1000000d);
 		}
 		Settings.setBoolean(Settings.BooleanKey.CACHE_LOADING_CRASHED, false);
+		
+		//after registering the cached movies, so they can be removed if necessary
+		notifyAboutChangedCacheSize(0);
 	}
 }
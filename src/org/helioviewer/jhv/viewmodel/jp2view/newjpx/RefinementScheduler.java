@@ -0,0 +1,160 @@
+package org.helioviewer.jhv.viewmodel.jp2view.newjpx;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import org.helioviewer.jhv.layers.MovieKduCacheBacked;
+import org.helioviewer.jhv.viewmodel.metadata.MetaData;
+
+/**
+ * Chooses the next JPIP request of every movie of a layer, once their
+ * previews were downloaded. Each movie is refined step by step, either by
+ * doubling the resolution or by doubling the number of quality layers,
+ * whichever promises more visual gain per byte:
+ *
+ * <ul>
+ * <li>bytes grow with the number of pixels and quality layers</li>
+ * <li>the gain is the number of pixels that can actually be shown, times a
+ * quality of <code>1-2^-layers</code>, i.e. every layer halves the remaining
+ * error</li>
+ * </ul>
+ *
+ * So all movies get a sharp but coarse image at screen resolution first,
+ * then more quality layers, and resolution beyond the screen last. Movies
+ * containing the current frame go first.
+ */
+class RefinementScheduler
+{
+	static class Step
+	{
+		final MovieKduCacheBacked movie;
+		final int resolution;
+		final int qualityLayers;
+		final double gainPerByte;
+
+		Step(MovieKduCacheBacked _movie, int _resolution, int _qualityLayers, double _gainPerByte)
+		{
+			movie=_movie;
+			resolution=_resolution;
+			qualityLayers=_qualityLayers;
+			gainPerByte=_gainPerByte;
+		}
+	}
+
+	private static final int FIRST_LAYERS = 1;
+
+	//number of layers after which the rest is requested at once, most images have about this many
+	private static final int LAYERS_ESTIMATE = 8;
+
+	private static final double CURRENT_TIME_WEIGHT = 4;
+
+	//resolution assumed to be the full one while the metadata of a movie is unknown
+	private static final int MAX_RESOLUTION = 16384;
+
+	private final int startResolution;
+
+	//resolution and quality layers requested last, per movie
+	private final HashMap<MovieKduCacheBacked,int[]> requested = new HashMap<>();
+
+	RefinementScheduler(int _startResolution)
+	{
+		startResolution=_startResolution;
+	}
+
+	private static double value(int _resolution, int _layers, int _displayResolution)
+	{
+		double shown=Math.min(_resolution, _displayResolution);
+		return shown*shown*(1-Math.pow(2, -_layers));
+	}
+
+	private static double bytes(int _resolution, int _layers)
+	{
+		return (double)_resolution*_resolution*_layers;
+	}
+
+	/**
+	 * Returns the next request of every given movie, most valuable first. The
+	 * requests count as sent, whether they succeed or not, so the refinement
+	 * always terminates.
+	 *
+	 * @param _displayResolution the number of pixels available on screen for an image
+	 */
+	List<Step> nextSteps(List<MovieKduCacheBacked> _movies, int _displayResolution, long _currentTimeMS)
+	{
+		ArrayList<Step> steps=new ArrayList<>();
+		for(MovieKduCacheBacked m:_movies)
+		{
+			Step s=nextStep(m, _displayResolution);
+			if(s==null)
+				continue;
+
+			if(containsTime(m, _currentTimeMS))
+				s=new Step(s.movie, s.resolution, s.qualityLayers, s.gainPerByte*CURRENT_TIME_WEIGHT);
+			steps.add(s);
+			requested.put(m, new int[] { s.resolution, s.qualityLayers });
+		}
+
+		steps.sort((_a, _b) -> Double.compare(_b.gainPerByte, _a.gainPerByte));
+		return steps;
+	}
+
+	/**
+	 * Returns whether a movie already got its final request, for all quality
+	 * layers at full resolution.
+	 */
+	boolean isExhausted(MovieKduCacheBacked _movie)
+	{
+		int[] r=requested.get(_movie);
+		return r!=null && r[1]==Integer.MAX_VALUE;
+	}
+
+	private @Nullable Step nextStep(MovieKduCacheBacked _movie, int _displayResolution)
+	{
+		if(isExhausted(_movie))
+			return null;
+
+		MetaData md=_movie.getAnyMetaData();
+		int fullResolution=md==null ? MAX_RESOLUTION : Math.max(md.resolution.x, md.resolution.y);
+
+		int[] r=requested.get(_movie);
+		int resolution=r==null ? startResolution : r[0];
+		int layers=r==null ? FIRST_LAYERS : r[1];
+
+		//both bounds only grow up to their limit, so this ends with the final step below
+		int sharperResolution=(int)Math.min(2L*resolution, fullResolution);
+		int moreLayers=(int)Math.min(2L*layers, Integer.MAX_VALUE);
+
+		boolean sharpen=sharperResolution>resolution;
+		boolean refine=layers<LAYERS_ESTIMATE;
+		if(!sharpen && !refine)
+			return new Step(_movie, resolution, Integer.MAX_VALUE, 0);
+
+		double current=value(resolution, layers, _displayResolution);
+		double sharpenGain=sharpen ? (value(sharperResolution, layers, _displayResolution)-current)/(bytes(sharperResolution, layers)-bytes(resolution, layers)) : -1;
+		double refineGain=refine ? (value(resolution, moreLayers, _displayResolution)-current)/(bytes(resolution, moreLayers)-bytes(resolution, layers)) : -1;
+
+		//ties go to the resolution, which completes movies sooner
+		if(sharpenGain>=refineGain)
+			return new Step(_movie, sharperResolution, layers, sharpenGain);
+		return new Step(_movie, resolution, moreLayers, refineGain);
+	}
+
+	private static boolean containsTime(MovieKduCacheBacked _movie, long _timeMS)
+	{
+		long first=Long.MAX_VALUE;
+		long last=Long.MIN_VALUE;
+		for(int i=0;i<_movie.getFrameCount();i++)
+		{
+			long t=_movie.getTimeMS(i);
+			if(t==0)
+				continue;
+
+			first=Math.min(first, t);
+			last=Math.max(last, t);
+		}
+		return first<=_timeMS && _timeMS<=last;
+	}
+}
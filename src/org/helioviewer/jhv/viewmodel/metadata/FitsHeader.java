@@ -0,0 +1,99 @@
+package org.helioviewer.jhv.viewmodel.metadata;
+
+import java.io.StringReader;
+import java.util.HashMap;
+
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * The keys of the <code>&lt;fits&gt;</code> section of a metadata document,
+ * extracted in a single streaming pass. Like the DOM lookup used before, the
+ * first element with a given name wins, and its value is the text in front of
+ * its first child element.
+ */
+public class FitsHeader
+{
+	private static final ThreadLocal<XMLInputFactory> FACTORIES = ThreadLocal.withInitial(() ->
+		{
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+			return factory;
+		});
+
+	private final HashMap<String,String> values = new HashMap<>();
+
+	private FitsHeader()
+	{
+	}
+
+	/**
+	 * @return <code>null</code> if the document has no <code>&lt;fits&gt;</code> section within <code>&lt;meta&gt;</code>
+	 */
+	public static @Nullable FitsHeader parse(String _xml) throws XMLStreamException
+	{
+		XMLStreamReader reader = FACTORIES.get().createXMLStreamReader(new StringReader(_xml));
+		try
+		{
+			//skip to the fits section
+			boolean inMeta = false;
+			for(;;)
+			{
+				if(!reader.hasNext())
+					return null;
+
+				if(reader.next() != XMLStreamConstants.START_ELEMENT)
+					continue;
+
+				if(!inMeta)
+					inMeta = "meta".equals(reader.getLocalName());
+				else if("fits".equals(reader.getLocalName()))
+					break;
+			}
+
+			FitsHeader header = new FitsHeader();
+			int depth = 1;
+			String key = null;
+			while(depth > 0 && reader.hasNext())
+				switch(reader.next())
+				{
+					case XMLStreamConstants.START_ELEMENT:
+						depth++;
+						key = reader.getLocalName();
+						if(header.values.containsKey(key))
+							key = null;
+						else
+							header.values.put(key, null);
+						break;
+					case XMLStreamConstants.CHARACTERS:
+					case XMLStreamConstants.CDATA:
+					case XMLStreamConstants.SPACE:
+						if(key != null)
+							header.values.put(key, reader.getText());
+						key = null;
+						break;
+					case XMLStreamConstants.END_ELEMENT:
+						depth--;
+						key = null;
+						break;
+					default:
+						key = null;
+				}
+
+			return header;
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	public @Nullable String get(String _key)
+	{
+		return values.get(_key);
+	}
+}
@@ -1,6 +1,9 @@
 package org.helioviewer.jhv.viewmodel.metadata;
 
 import java.awt.geom.Rectangle2D;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
@@ -15,11 +18,6 @@ import org.helioviewer.jhv.base.math.Vector2d;
 import org.helioviewer.jhv.base.math.Vector2i;
 import org.helioviewer.jhv.base.physics.Constants;
 import org.helioviewer.jhv.layers.LUT;
-import org.w3c.dom.CharacterData;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 //TODO: split into FrameMetadata & LayerMetadata, layerMetadata should be available without loading anything
 public abstract class MetaData
@@ -73,7 +71,7 @@ public abstract class MetaData
     	    
 	public final int groupForOpacity;
     
-	public MetaData(Document _doc, Vector2i _defaultResolution, @Nullable String _observatory, @Nullable String _measurement, @Nullable String _displayName, int _groupForOpacity)
+	public MetaData(FitsHeader _header, Vector2i _defaultResolution, @Nullable String _observatory, @Nullable String _measurement, @Nullable String _displayName, int _groupForOpacity)
     {
 		if(_measurement==null)
 			throw new UnsuitableMetaDataException();
@@ -86,15 +84,15 @@ public abstract class MetaData
 		measurement = _measurement;
 		observatory = _observatory;
 		displayName = _displayName;
-        detector = get(_doc, "DETECTOR");
-        String instrume = get(_doc, "INSTRUME");
+        detector = get(_header, "DETECTOR");
+        String instrume = get(_header, "INSTRUME");
         if (instrume == null)
             throw new UnsuitableMetaDataException("No instrument specified in metadata (INSTRUME)");
         
         instrument = instrume;
         
-    	int width = tryGetInt(_doc, "NAXIS1");
-    	int height = tryGetInt(_doc, "NAXIS2");
+    	int width = tryGetInt(_header, "NAXIS1");
+    	int height = tryGetInt(_header, "NAXIS2");
     	
     	if (width > 0 && height > 0)
     		resolution = new Vector2i(width, height);
@@ -102,17 +100,17 @@ public abstract class MetaData
     	{
     		System.err.println("Weird, this image has no resolution... Using default");
 
-    		Telemetry.trackEvent("Missing resolution info", "Measurement", measurement, "Detector", detector, "Instrument", instrument, "Observatory", observatory, "DATE_OBS", get(_doc, "DATE_OBS"), "TIME_OBS", get(_doc, "TIME_OBS"));
+    		Telemetry.trackEvent("Missing resolution info", "Measurement", measurement, "Detector", detector, "Instrument", instrument, "Observatory", observatory, "DATE_OBS", get(_header, "DATE_OBS"), "TIME_OBS", get(_header, "TIME_OBS"));
     		resolution = _defaultResolution;
     	}
         
-        String observedDate = get(_doc, "DATE_OBS");
+        String observedDate = get(_header, "DATE_OBS");
         if(observedDate==null || "".equals(observedDate))
-        	observedDate = get(_doc, "DATE-OBS");
+        	observedDate = get(_header, "DATE-OBS");
         
-        String observedTime = get(_doc, "TIME_OBS");
+        String observedTime = get(_header, "TIME_OBS");
         if(observedDate!=null && !observedDate.contains("T") && observedTime!=null && !"".equals(observedTime))
-        	observedDate += "T" + get(_doc, "TIME_OBS");
+        	observedDate += "T" + get(_header, "TIME_OBS");
         
         if(observedDate==null)
             throw new UnsuitableMetaDataException("No date/time specified in metadata (DATE_OBS)");
@@ -128,31 +126,31 @@ public abstract class MetaData
         }
         timeMS = MathUtils.fromLDT(ldt);
         
-        heeqX = tryGetDouble(_doc, "HEQX_OBS");
-        heeqY = tryGetDouble(_doc, "HEQY_OBS");
-        heeqZ = tryGetDouble(_doc, "HEQZ_OBS");
+        heeqX = tryGetDouble(_header, "HEQX_OBS");
+        heeqY = tryGetDouble(_header, "HEQY_OBS");
+        heeqZ = tryGetDouble(_header, "HEQZ_OBS");
         heeqAvailable = !Double.isNaN(heeqX) && !Double.isNaN(heeqY) && !Double.isNaN(heeqZ) && (heeqX != 0.0 || heeqY != 0.0 || heeqZ != 0.0);
 
-        heeX = tryGetDouble(_doc, "HEEX_OBS");
-        heeY = tryGetDouble(_doc, "HEEY_OBS");
-        heeZ = tryGetDouble(_doc, "HEEZ_OBS");
+        heeX = tryGetDouble(_header, "HEEX_OBS");
+        heeY = tryGetDouble(_header, "HEEY_OBS");
+        heeZ = tryGetDouble(_header, "HEEZ_OBS");
         heeAvailable = !Double.isNaN(heeX) && !Double.isNaN(heeY) && !Double.isNaN(heeZ) && (heeX != 0.0 || heeY != 0.0 || heeZ != 0.0);
 
-        crlt = tryGetDouble(_doc, "CRLT_OBS");
-        crln = tryGetDouble(_doc, "CRLN_OBS");
-        dobs = tryGetDouble(_doc, "DSUN_OBS"); //distanceToSun
+        crlt = tryGetDouble(_header, "CRLT_OBS");
+        crln = tryGetDouble(_header, "CRLN_OBS");
+        dobs = tryGetDouble(_header, "DSUN_OBS"); //distanceToSun
         carringtonAvailable = !Double.isNaN(crlt) && !Double.isNaN(crln) && !Double.isNaN(dobs) && (crlt != 0.0 || crln != 0.0);
 
         //FIXME: sometimes "nan", example: hmi continuum for 2014-02-25 00:40:00-00:50:00
-        stonyhurstLatitude = tryGetDouble(_doc, "HGLT_OBS");
-        stonyhurstLongitude = tryGetDouble(_doc, "HGLN_OBS");
+        stonyhurstLatitude = tryGetDouble(_header, "HGLT_OBS");
+        stonyhurstLongitude = tryGetDouble(_header, "HGLN_OBS");
         stonyhurstAvailable = !Double.isNaN(stonyhurstLatitude) && !Double.isNaN(stonyhurstLongitude) && (stonyhurstLatitude != 0.0 || stonyhurstLongitude != 0.0);
         
-        double sunX = tryGetDouble(_doc, "CRPIX1");
-        double sunY = tryGetDouble(_doc, "CRPIX2");
+        double sunX = tryGetDouble(_header, "CRPIX1");
+        double sunY = tryGetDouble(_header, "CRPIX2");
         sunPixelPosition = new Vector2d(sunX, sunY);
 
-        arcsecPerPixel = new Vector2d(tryGetDouble(_doc, "CDELT1"), tryGetDouble(_doc, "CDELT2"));
+        arcsecPerPixel = new Vector2d(tryGetDouble(_header, "CDELT1"), tryGetDouble(_header, "CDELT2"));
         
         if (!Double.isNaN(dobs) && dobs > 0)
         {
@@ -172,21 +170,144 @@ public abstract class MetaData
     		solarPixelRadius = new Vector2d(180,180);
     	}
         
-        SunPosition sunPosition = SunPosition.computeSunPos(MathUtils.toLDT(timeMS));
-        if (stonyhurstAvailable)
-        {
-        	rotation = new Quaternion(
-        			Math.toRadians( sunPosition.getLongitude() - stonyhurstLongitude),
-        			Math.toRadians(-stonyhurstLatitude)-sunPosition.getDec());
-        }
-        else
-        	rotation = new Quaternion(0, 0);
+        rotation = computeRotation(timeMS, stonyhurstAvailable, stonyhurstLongitude, stonyhurstLatitude);
         
-		maskRotation = Math.toRadians(tryGetDouble(_doc, "CROTA"));
+		maskRotation = Math.toRadians(tryGetDouble(_header, "CROTA"));
 		
 		innerRadius = 0;
 		outerRadius = Double.MAX_VALUE; //not POSITIVE_INFINITY for better glsl compat (NaN & inf undefined in glsl pre-4.1)
     }
+	
+	/**
+	 * Restores metadata written by <code>write()</code>, without parsing any XML.
+	 */
+	protected MetaData(DataInput _in) throws IOException
+	{
+		solarPixelRadius = readVector(_in);
+		defaultLUT = LUT.valueOf(_in.readUTF());
+		innerRadius = _in.readDouble();
+		outerRadius = _in.readDouble();
+		flatDistance = _in.readDouble();
+		occulterCenter = readVector(_in);
+		
+		instrument = _in.readUTF();
+		detector = readString(_in);
+		measurement = _in.readUTF();
+		observatory = _in.readUTF();
+		displayName = readString(_in);
+		sunPixelPosition = new Vector2d(_in.readDouble(), _in.readDouble());
+		timeMS = _in.readLong();
+		resolution = new Vector2i(_in.readInt(), _in.readInt());
+		arcsecPerPixel = new Vector2d(_in.readDouble(), _in.readDouble());
+		maskRotation = _in.readDouble();
+		heeqX = _in.readDouble();
+		heeqY = _in.readDouble();
+		heeqZ = _in.readDouble();
+		heeqAvailable = _in.readBoolean();
+		
+		heeX = _in.readDouble();
+		heeY = _in.readDouble();
+		heeZ = _in.readDouble();
+		heeAvailable = _in.readBoolean();
+		
+		crlt = _in.readDouble();
+		crln = _in.readDouble();
+		dobs = _in.readDouble();
+		carringtonAvailable = _in.readBoolean();
+		
+		stonyhurstLongitude = _in.readDouble();
+		stonyhurstLatitude = _in.readDouble();
+		stonyhurstAvailable = _in.readBoolean();
+		
+		groupForOpacity = _in.readInt();
+		
+		rotation = computeRotation(timeMS, stonyhurstAvailable, stonyhurstLongitude, stonyhurstLatitude);
+	}
+	
+	private static Quaternion computeRotation(long _timeMS, boolean _stonyhurstAvailable, double _stonyhurstLongitude, double _stonyhurstLatitude)
+	{
+		if (!_stonyhurstAvailable)
+			return new Quaternion(0, 0);
+		
+		SunPosition sunPosition = SunPosition.computeSunPos(MathUtils.toLDT(_timeMS));
+		return new Quaternion(
+				Math.toRadians(sunPosition.getLongitude() - _stonyhurstLongitude),
+				Math.toRadians(-_stonyhurstLatitude) - sunPosition.getDec());
+	}
+	
+	/**
+	 * Writes all fields in the order expected by <code>MetaData(DataInput)</code>.
+	 */
+	void write(DataOutput _out) throws IOException
+	{
+		writeVector(_out, solarPixelRadius);
+		_out.writeUTF(defaultLUT.name());
+		_out.writeDouble(innerRadius);
+		_out.writeDouble(outerRadius);
+		_out.writeDouble(flatDistance);
+		writeVector(_out, occulterCenter);
+		
+		_out.writeUTF(instrument);
+		writeString(_out, detector);
+		_out.writeUTF(measurement);
+		_out.writeUTF(observatory);
+		writeString(_out, displayName);
+		_out.writeDouble(sunPixelPosition.x);
+		_out.writeDouble(sunPixelPosition.y);
+		_out.writeLong(timeMS);
+		_out.writeInt(resolution.x);
+		_out.writeInt(resolution.y);
+		_out.writeDouble(arcsecPerPixel.x);
+		_out.writeDouble(arcsecPerPixel.y);
+		_out.writeDouble(maskRotation);
+		_out.writeDouble(heeqX);
+		_out.writeDouble(heeqY);
+		_out.writeDouble(heeqZ);
+		_out.writeBoolean(heeqAvailable);
+		
+		_out.writeDouble(heeX);
+		_out.writeDouble(heeY);
+		_out.writeDouble(heeZ);
+		_out.writeBoolean(heeAvailable);
+		
+		_out.writeDouble(crlt);
+		_out.writeDouble(crln);
+		_out.writeDouble(dobs);
+		_out.writeBoolean(carringtonAvailable);
+		
+		_out.writeDouble(stonyhurstLongitude);
+		_out.writeDouble(stonyhurstLatitude);
+		_out.writeBoolean(stonyhurstAvailable);
+		
+		_out.writeInt(groupForOpacity);
+	}
+	
+	private static @Nullable Vector2d readVector(DataInput _in) throws IOException
+	{
+		return _in.readBoolean() ? new Vector2d(_in.readDouble(), _in.readDouble()) : null;
+	}
+	
+	private static void writeVector(DataOutput _out, @Nullable Vector2d _v) throws IOException
+	{
+		_out.writeBoolean(_v != null);
+		if (_v != null)
+		{
+			_out.writeDouble(_v.x);
+			_out.writeDouble(_v.y);
+		}
+	}
+	
+	private static @Nullable String readString(DataInput _in) throws IOException
+	{
+		return _in.readBoolean() ? _in.readUTF() : null;
+	}
+	
+	private static void writeString(DataOutput _out, @Nullable String _s) throws IOException
+	{
+		_out.writeBoolean(_s != null);
+		if (_s != null)
+			_out.writeUTF(_s);
+	}
 
     public Rectangle2D getPhysicalImageSize()
     {
@@ -236,29 +357,14 @@ public abstract class MetaData
 		return defaultLUT;
 	}
 	
-	protected static @Nullable String get(Document _doc, String key)
+	protected static @Nullable String get(FitsHeader _header, String _key)
 	{
-        return getValueFromXML(_doc, key, "fits");
-	}
-
-	private static @Nullable String getValueFromXML(Document _doc, String _key, String _node)
-	{
-		NodeList current = _doc.getElementsByTagName("meta");
-		NodeList nodes = ((Element) current.item(0)).getElementsByTagName(_node);
-		NodeList value = ((Element) nodes.item(0)).getElementsByTagName(_key);
-		Element line = (Element) value.item(0);
-		if (line != null)
-		{
-			Node child = line.getFirstChild();
-			if (child instanceof CharacterData)
-				return ((CharacterData) child).getData();
-		}
-		return null;
+		return _header.get(_key);
 	}
 
-	protected static int tryGetInt(Document _doc, String _key)
+	protected static int tryGetInt(FitsHeader _header, String _key)
 	{
-		String string = get(_doc, _key);
+		String string = get(_header, _key);
         if (string == null)
         	return 0;
 
@@ -273,9 +379,9 @@ public abstract class MetaData
         }
     }
 
-	protected static double tryGetDouble(Document _doc, String _key)
+	protected static double tryGetDouble(FitsHeader _header, String _key)
 	{
-        String string = get(_doc, _key);
+        String string = get(_header, _key);
         if (string == null)
         	return Double.NaN;
         
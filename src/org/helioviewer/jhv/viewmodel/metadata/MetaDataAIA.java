@@ -1,15 +1,17 @@
 package org.helioviewer.jhv.viewmodel.metadata;
 
+import java.io.DataInput;
+import java.io.IOException;
+
 import org.helioviewer.jhv.base.Telemetry;
 import org.helioviewer.jhv.base.math.Vector2i;
 import org.helioviewer.jhv.layers.LUT;
-import org.w3c.dom.Document;
 
 public class MetaDataAIA extends MetaData
 {
-	public MetaDataAIA(Document _doc)
+	public MetaDataAIA(FitsHeader _header)
 	{
-        super(_doc, new Vector2i(4096, 4096), get(_doc, "TELESCOP"), get(_doc, "WAVELNTH"), "AIA "+get(_doc, "WAVELNTH"), GROUP_FOR_OPACITY_SUN | GROUP_FOR_OPACITY_CORONA_SMALL);
+        super(_header, new Vector2i(4096, 4096), get(_header, "TELESCOP"), get(_header, "WAVELNTH"), "AIA "+get(_header, "WAVELNTH"), GROUP_FOR_OPACITY_SUN | GROUP_FOR_OPACITY_CORONA_SMALL);
         
         if (!(instrument.equalsIgnoreCase("AIA_1") || instrument.equalsIgnoreCase("AIA_2") || instrument.equalsIgnoreCase("AIA_3") || instrument.equalsIgnoreCase("AIA_4")))
         	throw new UnsuitableMetaDataException("invalid instrument: "+instrument);
@@ -52,4 +54,9 @@ public class MetaDataAIA extends MetaData
 	        	throw e;
 		}
    }
+	
+	MetaDataAIA(DataInput _in) throws IOException
+	{
+		super(_in);
+	}
 }
@@ -1,18 +1,20 @@
 package org.helioviewer.jhv.viewmodel.metadata;
 
+import java.io.DataInput;
+import java.io.IOException;
+
 import org.helioviewer.jhv.base.Telemetry;
 import org.helioviewer.jhv.base.math.MathUtils;
 import org.helioviewer.jhv.base.math.Vector2d;
 import org.helioviewer.jhv.base.math.Vector2i;
 import org.helioviewer.jhv.base.physics.Constants;
 import org.helioviewer.jhv.layers.LUT;
-import org.w3c.dom.Document;
 
 class MetaDataEIT extends MetaData
 {
-	public MetaDataEIT(Document _doc)
+	public MetaDataEIT(FitsHeader _header)
 	{
-        super(_doc, new Vector2i(1024, 1024), get(_doc, "TELESCOP"), get(_doc, "WAVELNTH"), "EIT " + get(_doc, "WAVELNTH"), GROUP_FOR_OPACITY_SUN | GROUP_FOR_OPACITY_CORONA_SMALL);
+        super(_header, new Vector2i(1024, 1024), get(_header, "TELESCOP"), get(_header, "WAVELNTH"), "EIT " + get(_header, "WAVELNTH"), GROUP_FOR_OPACITY_SUN | GROUP_FOR_OPACITY_CORONA_SMALL);
         
         if (!(instrument.equalsIgnoreCase("EIT")))
         	throw new UnsuitableMetaDataException("invalid instrument: "+instrument);
@@ -43,4 +45,9 @@ class MetaDataEIT extends MetaData
 				throw e;
 		}
    }
+	
+	MetaDataEIT(DataInput _in) throws IOException
+	{
+		super(_in);
+	}
 }
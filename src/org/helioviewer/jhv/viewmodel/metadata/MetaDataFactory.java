@@ -1,12 +1,20 @@
 package org.helioviewer.jhv.viewmodel.metadata;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.Function;
 
 import javax.annotation.Nullable;
 
 import org.helioviewer.jhv.base.Telemetry;
-import org.w3c.dom.Document;
 
 public class MetaDataFactory
 {
@@ -25,16 +33,61 @@ public class MetaDataFactory
 			MetaDataSWAP.class
 		};
 	
-	public static @Nullable MetaData getMetaData(@Nullable Document _doc)
+	/** Version of the format written by <code>serialize()</code>, has to be increased whenever <code>MetaData.write()</code> changes */
+	private static final int SERIALIZATION_VERSION = 2;
+	
+	//constructors by INSTRUME, or INSTRUME/DETECTOR for instruments with several detectors
+	private static final HashMap<String,Function<FitsHeader,MetaData>> CONSTRUCTORS = new HashMap<>();
+	
+	static
+	{
+		CONSTRUCTORS.put("AIA_1", MetaDataAIA::new);
+		CONSTRUCTORS.put("AIA_2", MetaDataAIA::new);
+		CONSTRUCTORS.put("AIA_3", MetaDataAIA::new);
+		CONSTRUCTORS.put("AIA_4", MetaDataAIA::new);
+		CONSTRUCTORS.put("EIT", MetaDataEIT::new);
+		CONSTRUCTORS.put("HMI_FRONT2", MetaDataHMI::new);
+		CONSTRUCTORS.put("LASCO", MetaDataLASCO::new);
+		CONSTRUCTORS.put("MDI", MetaDataMDI::new);
+		CONSTRUCTORS.put("SECCHI/EUVI", MetaDataStereoEUVI::new);
+		CONSTRUCTORS.put("SECCHI/COR1", MetaDataStereoCOR::new);
+		CONSTRUCTORS.put("SECCHI/COR2", MetaDataStereoCOR::new);
+		CONSTRUCTORS.put("XRT", MetaDataHinode::new);
+		CONSTRUCTORS.put("SXT", MetaDataSXT::new);
+		CONSTRUCTORS.put("SWAP", MetaDataSWAP::new);
+	}
+	
+	public static @Nullable MetaData getMetaData(@Nullable FitsHeader _header)
 	{
-		if(_doc==null)
+		if(_header==null)
 			return null;
 		
+		//try the constructor matching the instrument first, so most documents
+		//don't have to go through all the unsuitable ones
+		String instrument = MetaData.get(_header, "INSTRUME");
+		if(instrument != null)
+		{
+			instrument = instrument.toUpperCase();
+			Function<FitsHeader,MetaData> constructor = CONSTRUCTORS.get(instrument);
+			if(constructor == null)
+				constructor = CONSTRUCTORS.get(instrument + "/" + String.valueOf(MetaData.get(_header, "DETECTOR")).toUpperCase());
+			
+			if(constructor != null)
+				try
+				{
+					return constructor.apply(_header);
+				}
+				catch(UnsuitableMetaDataException | NullPointerException e)
+				{
+					//fall through to trying every class
+				}
+		}
+		
 		for (Class<MetaData> c : META_DATA_CLASSES)
 			try
 			{
-			    Constructor<MetaData> constructor = c.getDeclaredConstructor(Document.class);
-				return constructor.newInstance(_doc);
+			    Constructor<MetaData> constructor = c.getDeclaredConstructor(FitsHeader.class);
+				return constructor.newInstance(_header);
 			}
             catch(NoSuchMethodException | SecurityException | InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException e)
             {
@@ -52,4 +105,45 @@ public class MetaDataFactory
 		
 		return null;
 	}
+	
+	/**
+	 * Returns a compact binary form of the given metadata, which can be turned
+	 * back into metadata by <code>deserialize()</code>.
+	 */
+	public static byte[] serialize(MetaData _md) throws IOException
+	{
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(512);
+		try(DataOutputStream out = new DataOutputStream(baos))
+		{
+			out.writeByte(SERIALIZATION_VERSION);
+			out.writeByte(Arrays.asList(META_DATA_CLASSES).indexOf(_md.getClass()));
+			_md.write(out);
+		}
+		return baos.toByteArray();
+	}
+	
+	/**
+	 * Restores metadata written by <code>serialize()</code>.
+	 *
+	 * @return <code>null</code> if the data was written by an incompatible version
+	 */
+	public static @Nullable MetaData deserialize(byte[] _data)
+	{
+		try(DataInputStream in = new DataInputStream(new ByteArrayInputStream(_data)))
+		{
+			if(in.readUnsignedByte() != SERIALIZATION_VERSION)
+				return null;
+			
+			int c = in.readByte();
+			if(c < 0 || c >= META_DATA_CLASSES.length)
+				return null;
+			
+			return META_DATA_CLASSES[c].getDeclaredConstructor(DataInput.class).newInstance(in);
+		}
+		catch(IOException | IllegalArgumentException | ReflectiveOperationException e)
+		{
+			Telemetry.trackException(e);
+			return null;
+		}
+	}
 }
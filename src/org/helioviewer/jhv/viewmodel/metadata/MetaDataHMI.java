@@ -1,16 +1,23 @@
 package org.helioviewer.jhv.viewmodel.metadata;
 
+import java.io.DataInput;
+import java.io.IOException;
+
 import org.helioviewer.jhv.base.math.Vector2i;
-import org.w3c.dom.Document;
 
 class MetaDataHMI extends MetaData
 {
-	public MetaDataHMI(Document _doc)
+	public MetaDataHMI(FitsHeader _header)
 	{
-        super(_doc, new Vector2i(4096, 4096), get(_doc, "TELESCOP"), get(_doc, "CONTENT"),
-        		"HMI " + get(_doc, "CONTENT").substring(0, 1) + get(_doc, "CONTENT").substring(1, 3).toLowerCase(), GROUP_FOR_OPACITY_SUN);
+        super(_header, new Vector2i(4096, 4096), get(_header, "TELESCOP"), get(_header, "CONTENT"),
+        		"HMI " + get(_header, "CONTENT").substring(0, 1) + get(_header, "CONTENT").substring(1, 3).toLowerCase(), GROUP_FOR_OPACITY_SUN);
         
         if (!(instrument.equalsIgnoreCase("HMI_FRONT2")))
         	throw new UnsuitableMetaDataException("invalid instrument: "+instrument);
    }
+	
+	MetaDataHMI(DataInput _in) throws IOException
+	{
+		super(_in);
+	}
 }
@@ -1,15 +1,22 @@
 package org.helioviewer.jhv.viewmodel.metadata;
 
+import java.io.DataInput;
+import java.io.IOException;
+
 import org.helioviewer.jhv.base.math.Vector2i;
-import org.w3c.dom.Document;
 
 class MetaDataHinode extends MetaData
 {
-	public MetaDataHinode(Document _doc)
+	public MetaDataHinode(FitsHeader _header)
 	{
-        super(_doc, new Vector2i(4096, 4096), get(_doc, "TELESCOP"), get(_doc, "WAVELNTH"),"XRT", GROUP_FOR_OPACITY_SUN | GROUP_FOR_OPACITY_CORONA_SMALL);
+        super(_header, new Vector2i(4096, 4096), get(_header, "TELESCOP"), get(_header, "WAVELNTH"),"XRT", GROUP_FOR_OPACITY_SUN | GROUP_FOR_OPACITY_CORONA_SMALL);
         
         if (!instrument.equalsIgnoreCase("XRT"))
         	throw new UnsuitableMetaDataException("invalid instrument: "+instrument);
    }
+	
+	MetaDataHinode(DataInput _in) throws IOException
+	{
+		super(_in);
+	}
 }
@@ -1,16 +1,18 @@
 package org.helioviewer.jhv.viewmodel.metadata;
 
+import java.io.DataInput;
+import java.io.IOException;
+
 import org.helioviewer.jhv.base.math.Vector2d;
 import org.helioviewer.jhv.base.math.Vector2i;
 import org.helioviewer.jhv.base.physics.Constants;
 import org.helioviewer.jhv.layers.LUT;
-import org.w3c.dom.Document;
 
 class MetaDataLASCO extends MetaData
 {
-	public MetaDataLASCO(Document _doc)
+	public MetaDataLASCO(FitsHeader _header)
 	{
-		super(_doc, new Vector2i(1024, 1024), get(_doc, "TELESCOP"), get(_doc, "FILTER") + " " + get(_doc, "POLAR"), "LASCO "+get(_doc, "DETECTOR"), GROUP_FOR_OPACITY_CORONA_OUTSIDE);
+		super(_header, new Vector2i(1024, 1024), get(_header, "TELESCOP"), get(_header, "FILTER") + " " + get(_header, "POLAR"), "LASCO "+get(_header, "DETECTOR"), GROUP_FOR_OPACITY_CORONA_OUTSIDE);
 		if (!"LASCO".equalsIgnoreCase(instrument) || detector==null)
 			throw new UnsuitableMetaDataException("invalid instrument: " + instrument + "/" + detector);
 		
@@ -37,8 +39,8 @@ class MetaDataLASCO extends MetaData
 				throw new UnsuitableMetaDataException("invalid instrument: " + instrument + "/" + detector);
 		}
 		
-		innerRadius = tryGetDouble(_doc, "HV_ROCC_INNER") * Constants.SUN_RADIUS;
-		outerRadius = tryGetDouble(_doc, "HV_ROCC_OUTER") * Constants.SUN_RADIUS;
+		innerRadius = tryGetDouble(_header, "HV_ROCC_INNER") * Constants.SUN_RADIUS;
+		outerRadius = tryGetDouble(_header, "HV_ROCC_OUTER") * Constants.SUN_RADIUS;
 
 		if (Double.isNaN(innerRadius) || Double.isNaN(outerRadius) || innerRadius == 0.0)
 		{
@@ -50,11 +52,16 @@ class MetaDataLASCO extends MetaData
 		Vector2d center=new Vector2d(0,0);
 
 		// Convert arcsec to meters
-		double cdelt1 = tryGetDouble(_doc, "CDELT1");
-		double cdelt2 = tryGetDouble(_doc, "CDELT2");
+		double cdelt1 = tryGetDouble(_header, "CDELT1");
+		double cdelt2 = tryGetDouble(_header, "CDELT2");
 		if (!Double.isNaN(cdelt1) && !Double.isNaN(cdelt2) && cdelt1 != 0 && cdelt2 != 0)
 			center = center.scaled(cdelt1, cdelt2);
 
 		occulterCenter = center.scaled(getUnitsPerPixel());
 	}
+	
+	MetaDataLASCO(DataInput _in) throws IOException
+	{
+		super(_in);
+	}
 }
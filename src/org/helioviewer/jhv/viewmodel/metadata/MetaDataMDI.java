@@ -1,14 +1,21 @@
 package org.helioviewer.jhv.viewmodel.metadata;
 
+import java.io.DataInput;
+import java.io.IOException;
+
 import org.helioviewer.jhv.base.math.Vector2i;
-import org.w3c.dom.Document;
 
 class MetaDataMDI extends MetaData
 {
-	public MetaDataMDI(Document _doc)
+	public MetaDataMDI(FitsHeader _header)
 	{
-        super(_doc, new Vector2i(1024, 1024), get(_doc, "TELESCOP"), get(_doc, "DPC_OBSR"), "MDI " + get(_doc, "DPC_OBSR"), GROUP_FOR_OPACITY_SUN);
+        super(_header, new Vector2i(1024, 1024), get(_header, "TELESCOP"), get(_header, "DPC_OBSR"), "MDI " + get(_header, "DPC_OBSR"), GROUP_FOR_OPACITY_SUN);
         if (!(instrument.equalsIgnoreCase("MDI")))
         	throw new UnsuitableMetaDataException("invalid instrument: "+instrument);
    }
+	
+	MetaDataMDI(DataInput _in) throws IOException
+	{
+		super(_in);
+	}
 }
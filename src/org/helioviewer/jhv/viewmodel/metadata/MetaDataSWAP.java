@@ -1,15 +1,22 @@
 package org.helioviewer.jhv.viewmodel.metadata;
 
+import java.io.DataInput;
+import java.io.IOException;
+
 import org.helioviewer.jhv.base.math.Vector2i;
-import org.w3c.dom.Document;
 
 class MetaDataSWAP extends MetaData
 {	
-	public MetaDataSWAP(Document _doc)
+	public MetaDataSWAP(FitsHeader _header)
 	{
-        super(_doc, new Vector2i(1024, 1024), get(_doc, "TELESCOP"), get(_doc, "WAVELNTH"),"SWAP " + get(_doc, "WAVELNTH"), GROUP_FOR_OPACITY_SUN | GROUP_FOR_OPACITY_CORONA_SMALL);
+        super(_header, new Vector2i(1024, 1024), get(_header, "TELESCOP"), get(_header, "WAVELNTH"),"SWAP " + get(_header, "WAVELNTH"), GROUP_FOR_OPACITY_SUN | GROUP_FOR_OPACITY_CORONA_SMALL);
         
         if (!"SWAP".equalsIgnoreCase(instrument) || !"PROBA2".equalsIgnoreCase(observatory))
         	throw new UnsuitableMetaDataException("invalid instrument: "+observatory+"/"+instrument+"/"+detector);
    }
+	
+	MetaDataSWAP(DataInput _in) throws IOException
+	{
+		super(_in);
+	}
 }
@@ -1,26 +1,28 @@
 package org.helioviewer.jhv.viewmodel.metadata;
 
+import java.io.DataInput;
+import java.io.IOException;
+
 import org.helioviewer.jhv.base.math.Vector2d;
 import org.helioviewer.jhv.base.math.Vector2i;
 import org.helioviewer.jhv.base.physics.Constants;
 import org.helioviewer.jhv.layers.LUT;
-import org.w3c.dom.Document;
 
 class MetaDataStereoCOR extends MetaData
 {
-	public MetaDataStereoCOR(Document _doc)
+	public MetaDataStereoCOR(FitsHeader _header)
 	{
-		super(_doc, "COR1".equalsIgnoreCase(get(_doc, "OBSRVTRY")) ? new Vector2i(512, 512) : new Vector2i(2048, 2048),
-				get(_doc, "OBSRVTRY"),
-				get(_doc, "WAVELNTH"),
-				get(_doc, "INSTRUME") + ("STEREO_A".equalsIgnoreCase(get(_doc, "OBSRVTRY")) ? "-A ":"-B ") + get(_doc, "DETECTOR"),
+		super(_header, "COR1".equalsIgnoreCase(get(_header, "OBSRVTRY")) ? new Vector2i(512, 512) : new Vector2i(2048, 2048),
+				get(_header, "OBSRVTRY"),
+				get(_header, "WAVELNTH"),
+				get(_header, "INSTRUME") + ("STEREO_A".equalsIgnoreCase(get(_header, "OBSRVTRY")) ? "-A ":"-B ") + get(_header, "DETECTOR"),
 				GROUP_FOR_OPACITY_CORONA_OUTSIDE);
 
 		Vector2d center = Vector2d.NULL;
 
 		// Convert arcsec to meters
-		double cdelt1 = tryGetDouble(_doc, "CDELT1");
-		double cdelt2 = tryGetDouble(_doc, "CDELT2");
+		double cdelt1 = tryGetDouble(_header, "CDELT1");
+		double cdelt2 = tryGetDouble(_header, "CDELT2");
 		if (!Double.isNaN(cdelt1) && !Double.isNaN(cdelt2) && cdelt1 != 0 && cdelt2 != 0)
 		{
 			//TODO: center will always be Vector2d.NULL anyway?!
@@ -72,8 +74,8 @@ class MetaDataStereoCOR extends MetaData
 		else
 			throw new UnsuitableMetaDataException("invalid instrument: " + observatory + "/" + detector);
 		
-		innerRadius = tryGetDouble(_doc, "HV_ROCC_INNER") * Constants.SUN_RADIUS;
-		outerRadius = tryGetDouble(_doc, "HV_ROCC_OUTER") * Constants.SUN_RADIUS;
+		innerRadius = tryGetDouble(_header, "HV_ROCC_INNER") * Constants.SUN_RADIUS;
+		outerRadius = tryGetDouble(_header, "HV_ROCC_OUTER") * Constants.SUN_RADIUS;
 
 		if (Double.isNaN(innerRadius) || Double.isNaN(outerRadius) || innerRadius == 0.0)
 		{
@@ -83,4 +85,9 @@ class MetaDataStereoCOR extends MetaData
 		
 		occulterCenter = center.scaled(getUnitsPerPixel());
 	}
+	
+	MetaDataStereoCOR(DataInput _in) throws IOException
+	{
+		super(_in);
+	}
 }
@@ -1,19 +1,21 @@
 package org.helioviewer.jhv.viewmodel.metadata;
 
+import java.io.DataInput;
+import java.io.IOException;
+
 import org.helioviewer.jhv.base.Telemetry;
 import org.helioviewer.jhv.base.math.Vector2i;
 import org.helioviewer.jhv.layers.LUT;
-import org.w3c.dom.Document;
 
 class MetaDataStereoEUVI extends MetaData
 {
-	public MetaDataStereoEUVI(Document _doc)
+	public MetaDataStereoEUVI(FitsHeader _header)
 	{
-        super(_doc,
+        super(_header,
         		new Vector2i(2048, 2048),
-        		get(_doc, "OBSRVTRY"),
-        		get(_doc, "WAVELNTH"),
-        		get(_doc, "DETECTOR") + ("STEREO_A".equalsIgnoreCase(get(_doc, "OBSRVTRY")) ? "-A ":"-B ") + get(_doc, "WAVELNTH"),
+        		get(_header, "OBSRVTRY"),
+        		get(_header, "WAVELNTH"),
+        		get(_header, "DETECTOR") + ("STEREO_A".equalsIgnoreCase(get(_header, "OBSRVTRY")) ? "-A ":"-B ") + get(_header, "WAVELNTH"),
         		GROUP_FOR_OPACITY_SUN | GROUP_FOR_OPACITY_CORONA_SMALL);
         
         if ((!"STEREO_A".equalsIgnoreCase(observatory) && !"STEREO_B".equalsIgnoreCase(observatory)) || !"EUVI".equalsIgnoreCase(detector))
@@ -39,4 +41,9 @@ class MetaDataStereoEUVI extends MetaData
 	        	throw e;
 		}
    }
+	
+	MetaDataStereoEUVI(DataInput _in) throws IOException
+	{
+		super(_in);
+	}
 }